@@ -0,0 +1,253 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.benchmark;
+
+import io.micronaut.context.ApplicationContext;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.ibatis.session.ExecutorType;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Load harness driving the sample {@link UserMapper} and {@link PersonMapper} against an in-memory H2 database behind a
+ * Hikari pool. Every combination of executor type, statement cache and thread count runs in a fresh application
+ * context; the throughput, latency percentiles and bytes allocated per operation of each run are written to a JSON
+ * report. Allocation is read from the worker threads with {@code com.sun.management.ThreadMXBean}, and reported as
+ * {@code -1} on JVMs without it.
+ *
+ * Run it with {@code ./gradlew benchmark}. Settings are read from system properties:
+ * <ul>
+ *   <li>{@code benchmark.threads}: comma separated thread counts, {@code 1,2,4,8,16} by default</li>
+ *   <li>{@code benchmark.executor-types}: comma separated executor types, all of them by default</li>
+ *   <li>{@code benchmark.statement-cache-sizes}: comma separated statement cache sizes, {@code 0,64} by default</li>
+ *   <li>{@code benchmark.warmup}: seconds of load before measuring, {@code 2} by default</li>
+ *   <li>{@code benchmark.duration}: seconds of measured load, {@code 5} by default</li>
+ *   <li>{@code benchmark.output}: the report file, {@code build/reports/benchmark/benchmark.json} by default</li>
+ * </ul>
+ *
+ * Every operation is a single mapper call: 70% select one user, 20% select all users and 10% insert a person.
+ */
+public final class MapperBenchmark {
+  private static int databases;
+
+  private MapperBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<Integer> threadCounts = integers(System.getProperty("benchmark.threads", "1,2,4,8,16"));
+    List<Integer> cacheSizes = integers(System.getProperty("benchmark.statement-cache-sizes", "0,64"));
+    List<ExecutorType> executorTypes = Arrays.stream(System.getProperty("benchmark.executor-types", "SIMPLE,REUSE,BATCH")
+            .split(","))
+            .map(type -> ExecutorType.valueOf(type.trim().toUpperCase(Locale.ENGLISH)))
+            .collect(Collectors.toList());
+    long warmup = Long.getLong("benchmark.warmup", 2);
+    long duration = Long.getLong("benchmark.duration", 5);
+    Path output = Paths.get(System.getProperty("benchmark.output", "build/reports/benchmark/benchmark.json"));
+
+    List<Result> results = new ArrayList<>();
+    for (ExecutorType executorType : executorTypes) {
+      for (int cacheSize : cacheSizes) {
+        for (int threads : threadCounts) {
+          Result result = run(executorType, cacheSize, threads, warmup, duration);
+          System.out.println(result.summary());
+          results.add(result);
+        }
+      }
+    }
+    write(output, results, warmup, duration);
+    System.out.println("Benchmark report written to " + output.toAbsolutePath());
+  }
+
+  private static Result run(ExecutorType executorType, int cacheSize, int threads, long warmup, long duration)
+          throws Exception {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("datasources.default.url", "jdbc:h2:mem:benchmark" + (databases++) + ";DB_CLOSE_DELAY=-1");
+    properties.put("datasources.default.username", "sa");
+    properties.put("datasources.default.password", "");
+    properties.put("datasources.default.driverClassName", "org.h2.Driver");
+    properties.put("datasources.default.maximum-pool-size", threads);
+    properties.put("mybatis.default-executor-type", executorType.name());
+    properties.put("mybatis.statement-cache-size", cacheSize);
+
+    ApplicationContext context = ApplicationContext.run(properties);
+    try {
+      try (Connection connection = context.getBean(DataSource.class).getConnection();
+           Statement statement = connection.createStatement()) {
+        statement.execute("runscript from 'classpath:database-schema.sql'");
+        statement.execute("runscript from 'classpath:database-test-data.sql'");
+      }
+      UserMapper userMapper = context.getBean(UserMapper.class);
+      PersonMapper personMapper = context.getBean(PersonMapper.class);
+
+      Recorder recorder = new Recorder(3);
+      AtomicBoolean running = new AtomicBoolean(true);
+      AtomicLong errors = new AtomicLong();
+      List<Thread> workers = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Thread worker = new Thread(() -> {
+          while (running.get()) {
+            long start = System.nanoTime();
+            try {
+              operation(userMapper, personMapper);
+            } catch (RuntimeException e) {
+              errors.incrementAndGet();
+            }
+            recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+          }
+        }, "benchmark-" + i);
+        worker.start();
+        workers.add(worker);
+      }
+
+      TimeUnit.SECONDS.sleep(warmup);
+      recorder.getIntervalHistogram();
+      long errorsBefore = errors.get();
+      long allocatedBefore = allocatedBytes(workers);
+      long start = System.nanoTime();
+      TimeUnit.SECONDS.sleep(duration);
+      Histogram histogram = recorder.getIntervalHistogram();
+      long elapsed = System.nanoTime() - start;
+      long allocated = allocatedBytes(workers) - allocatedBefore;
+      long measuredErrors = errors.get() - errorsBefore;
+
+      running.set(false);
+      for (Thread worker : workers) {
+        worker.join();
+      }
+      return new Result(executorType, cacheSize, threads, histogram, elapsed, measuredErrors,
+              allocatedBefore < 0 ? -1 : allocated);
+    } finally {
+      context.stop();
+    }
+  }
+
+  private static void operation(UserMapper userMapper, PersonMapper personMapper) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int dice = random.nextInt(100);
+    if (dice < 70) {
+      userMapper.getUser("u" + (1 + random.nextInt(5)));
+    } else if (dice < 90) {
+      userMapper.getUsers();
+    } else {
+      personMapper.insert(new Person("First", "Last"));
+    }
+  }
+
+  /**
+   * @return the bytes allocated so far by the given threads, or {@code -1} if the JVM does not measure it
+   */
+  private static long allocatedBytes(List<Thread> threads) {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)
+            || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    long[] ids = threads.stream().mapToLong(Thread::getId).toArray();
+    return Arrays.stream(((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(ids)).sum();
+  }
+
+  private static List<Integer> integers(String values) {
+    return Arrays.stream(values.split(",")).map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+  }
+
+  private static void write(Path output, List<Result> results, long warmup, long duration) throws IOException {
+    if (output.getParent() != null) {
+      Files.createDirectories(output.getParent());
+    }
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      writer.write("{\n");
+      writer.write("  \"timestamp\": \"" + Instant.now() + "\",\n");
+      writer.write("  \"javaVersion\": \"" + System.getProperty("java.version") + "\",\n");
+      writer.write("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+      writer.write("  \"warmupSeconds\": " + warmup + ",\n");
+      writer.write("  \"durationSeconds\": " + duration + ",\n");
+      writer.write("  \"results\": [\n");
+      for (int i = 0; i < results.size(); i++) {
+        writer.write(results.get(i).toJson());
+        writer.write(i < results.size() - 1 ? ",\n" : "\n");
+      }
+      writer.write("  ]\n");
+      writer.write("}\n");
+    }
+  }
+
+  private static final class Result {
+    private final ExecutorType executorType;
+    private final int statementCacheSize;
+    private final int threads;
+    private final Histogram latency;
+    private final double throughput;
+    private final long errors;
+    private final long allocatedPerOperation;
+
+    private Result(ExecutorType executorType, int statementCacheSize, int threads, Histogram latency,
+                   long elapsedNanos, long errors, long allocatedBytes) {
+      this.executorType = executorType;
+      this.statementCacheSize = statementCacheSize;
+      this.threads = threads;
+      this.latency = latency;
+      this.throughput = latency.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+      this.errors = errors;
+      this.allocatedPerOperation = allocatedBytes < 0 || latency.getTotalCount() == 0
+              ? -1 : allocatedBytes / latency.getTotalCount();
+    }
+
+    private String summary() {
+      return String.format(Locale.ROOT, "%-6s cache=%-4d threads=%-3d %10.1f ops/s  p50=%dus p99=%dus p99.9=%dus "
+                      + "alloc=%dB/op errors=%d",
+              executorType, statementCacheSize, threads, throughput,
+              latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+              latency.getValueAtPercentile(99.9), allocatedPerOperation, errors);
+    }
+
+    private String toJson() {
+      return String.format(Locale.ROOT, "    {\"executorType\": \"%s\", \"statementCacheSize\": %d, \"threads\": %d, "
+                      + "\"operations\": %d, \"errors\": %d, \"throughput\": %.1f, \"allocatedBytesPerOperation\": %d, "
+                      + "\"latencyMicros\": "
+                      + "{\"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"p999\": %d, \"max\": %d}}",
+              executorType, statementCacheSize, threads, latency.getTotalCount(), errors, throughput,
+              allocatedPerOperation,
+              latency.getMean(), latency.getValueAtPercentile(50), latency.getValueAtPercentile(90),
+              latency.getValueAtPercentile(99), latency.getValueAtPercentile(99.9), latency.getMaxValue());
+    }
+  }
+}
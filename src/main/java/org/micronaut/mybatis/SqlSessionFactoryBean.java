@@ -16,11 +16,15 @@
 package org.micronaut.mybatis;
 
 import io.micronaut.context.ApplicationContext;
+import io.micronaut.context.annotation.Bean;
 import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Property;
 import io.micronaut.context.event.ApplicationEventListener;
 import io.micronaut.core.io.scan.AnnotationScanner;
 import io.micronaut.core.io.scan.ClassPathAnnotationScanner;
 import io.micronaut.discovery.event.ServiceStartedEvent;
+import io.micronaut.inject.BeanDefinition;
+import io.micronaut.inject.qualifiers.Qualifiers;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.io.VFS;
 import org.apache.ibatis.mapping.DatabaseIdProvider;
@@ -30,6 +34,7 @@ import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.reflection.wrapper.ObjectWrapperFactory;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 import org.apache.ibatis.transaction.TransactionFactory;
@@ -37,13 +42,27 @@ import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
 import org.apache.ibatis.type.TypeHandler;
 import org.micronaut.logging.Logger;
 import org.micronaut.logging.LoggerFactory;
-
+import org.micronaut.mybatis.annotation.FanOut;
+import org.micronaut.mybatis.annotation.Sharded;
+import org.micronaut.mybatis.jdbc.StatementCachingDataSource;
+import org.micronaut.mybatis.lazy.BatchingProxyFactory;
+import org.micronaut.mybatis.lazy.LazyMapperConfiguration;
+import org.micronaut.mybatis.plugin.OptionalInterceptor;
+import org.micronaut.mybatis.shard.ShardStrategy;
+import org.micronaut.mybatis.shard.ShardedSqlSessionFactories;
+
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
 import java.lang.annotation.Annotation;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static io.micronaut.core.util.ArrayUtils.isEmpty;
@@ -84,6 +103,11 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
   private Cache cache;
   private ObjectFactory objectFactory;
   private ObjectWrapperFactory objectWrapperFactory;
+  private ExecutorType defaultExecutorType;
+  private int statementCacheSize;
+  private boolean lazyLoadingEnabled;
+  private Boolean scanClasspath;
+  private boolean lazyMapperRegistration;
 
   @Inject
   public SqlSessionFactoryBean(ApplicationContext applicationContext) {
@@ -279,10 +303,14 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
    * <b>It is strongly recommended to use the default {@code TransactionFactory}.</b> If not used, any attempt at
    * getting an SqlSession through Spring's MyBatis framework will throw an exception if a transaction is active.
    *
+   * Injected from the {@code TransactionFactory} bean of the application context when there is one, the
+   * {@code ManagedTransactionFactory} is used otherwise.
+   *
    * @param transactionFactory
    *          the MyBatis TransactionFactory
    */
-  public void setTransactionFactory(TransactionFactory transactionFactory) {
+  @Inject
+  public void setTransactionFactory(@Nullable TransactionFactory transactionFactory) {
     this.transactionFactory = transactionFactory;
   }
 
@@ -319,13 +347,87 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
     this.defaultScriptingLanguageDriver = defaultScriptingLanguageDriver;
   }
 
+  /**
+   * Set the {@code ExecutorType} used by sessions opened without an explicit one, which includes the sessions opened
+   * for every mapper call. Defaults to the MyBatis default, {@code ExecutorType.SIMPLE}. Configurable with the
+   * {@code mybatis.default-executor-type} property.
+   *
+   * @param defaultExecutorType
+   *          the default executor type
+   */
+  @Inject
+  public void setDefaultExecutorType(
+          @Nullable @Property(name = "mybatis.default-executor-type") ExecutorType defaultExecutorType) {
+    this.defaultExecutorType = defaultExecutorType;
+  }
+
+  /**
+   * Set the maximum number of prepared statements to keep per pooled connection. Select statements are reused across
+   * sessions running on the same physical connection, see {@link StatementCachingDataSource}. A value of zero, the
+   * default, disables the cache. Configurable with the {@code mybatis.statement-cache-size} property.
+   *
+   * @param statementCacheSize
+   *          the number of statements cached per connection
+   */
+  @Inject
+  public void setStatementCacheSize(@Nullable @Property(name = "mybatis.statement-cache-size") Integer statementCacheSize) {
+    this.statementCacheSize = statementCacheSize == null ? 0 : statementCacheSize;
+  }
+
+  /**
+   * Enable lazy loading of nested selects, {@code false} by default. Lazy associations are loaded in a new session on
+   * first access, since the session of the mapper call is closed by then, and nested selects annotated with
+   * {@link org.micronaut.mybatis.annotation.BatchFetch} are loaded for many result objects at once. Configurable with
+   * the {@code mybatis.lazy-loading-enabled} property.
+   *
+   * @param lazyLoadingEnabled
+   *          enable lazy loading
+   */
+  @Inject
+  public void setLazyLoadingEnabled(@Nullable @Property(name = "mybatis.lazy-loading-enabled") Boolean lazyLoadingEnabled) {
+    this.lazyLoadingEnabled = Boolean.TRUE.equals(lazyLoadingEnabled);
+  }
+
+  /**
+   * Also scan the packages of the application for {@link org.micronaut.mybatis.annotation.Mapper} interfaces. Mappers
+   * are found through the bean definitions generated for them at compile time, so scanning is only needed for mapper
+   * interfaces compiled without the Micronaut annotation processor, and reads every class of the application packages
+   * at startup. When not set, the classpath is only scanned if no bean definition of a mapper is found. Configurable
+   * with the {@code mybatis.scan-classpath} property.
+   *
+   * @param scanClasspath
+   *          always scan the classpath for mappers, or never
+   */
+  @Inject
+  public void setScanClasspath(@Nullable @Property(name = "mybatis.scan-classpath") Boolean scanClasspath) {
+    this.scanClasspath = scanClasspath;
+  }
+
+  /**
+   * Register mappers the first time they are used instead of at startup, {@code false} by default. Saves parsing
+   * mappers that are rarely used, at the cost of a slower first call. Requires the default MyBatis
+   * {@code Configuration}, see {@link LazyMapperConfiguration}. Configurable with the
+   * {@code mybatis.lazy-mapper-registration} property.
+   *
+   * @param lazyMapperRegistration
+   *          register mappers on first use
+   */
+  @Inject
+  public void setLazyMapperRegistration(
+          @Nullable @Property(name = "mybatis.lazy-mapper-registration") Boolean lazyMapperRegistration) {
+    this.lazyMapperRegistration = Boolean.TRUE.equals(lazyMapperRegistration);
+  }
+
   @Override
   public void onApplicationEvent(final ServiceStartedEvent event) {
     createSqlSessionFactory();
   }
 
   private void createSqlSessionFactory() {
+    long start = System.nanoTime();
     this.sqlSessionFactory = buildSqlSessionFactory();
+    log.debug(() -> "Built SqlSessionFactory in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    log.debug(() -> mapperReport(this.sqlSessionFactory.getConfiguration()));
   }
 
   /**
@@ -340,10 +442,17 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
    *           if configuration is failed
    */
   protected SqlSessionFactory buildSqlSessionFactory() {
+    return buildSqlSessionFactory(this.configuration, this.environment, this.dataSource);
+  }
+
+  private SqlSessionFactory buildSqlSessionFactory(Configuration configuration, String environment, DataSource dataSource) {
     final Configuration targetConfiguration;
 
-    if (this.configuration != null) {
-      targetConfiguration = this.configuration;
+    if (configuration != null) {
+      if (this.lazyMapperRegistration) {
+        throw new IllegalStateException("Lazy mapper registration can not be used with a custom MyBatis Configuration");
+      }
+      targetConfiguration = configuration;
       if (targetConfiguration.getVariables() == null) {
         targetConfiguration.setVariables(this.configurationProperties);
       } else if (this.configurationProperties != null) {
@@ -351,21 +460,38 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
       }
     } else {
       log.debug(() -> "Property 'configuration' or 'configLocation' not specified, using default MyBatis Configuration");
-      targetConfiguration = new Configuration();
+      targetConfiguration = this.lazyMapperRegistration ? new LazyMapperConfiguration() : new Configuration();
       Optional.ofNullable(this.configurationProperties).ifPresent(targetConfiguration::setVariables);
     }
 
     Optional.ofNullable(this.objectFactory).ifPresent(targetConfiguration::setObjectFactory);
     Optional.ofNullable(this.objectWrapperFactory).ifPresent(targetConfiguration::setObjectWrapperFactory);
     Optional.ofNullable(this.vfs).ifPresent(targetConfiguration::setVfsImpl);
+    Optional.ofNullable(this.defaultExecutorType).ifPresent(targetConfiguration::setDefaultExecutorType);
+    if (this.lazyLoadingEnabled) {
+      targetConfiguration.setLazyLoadingEnabled(true);
+    }
+    if (targetConfiguration.isLazyLoadingEnabled() && !(targetConfiguration.getProxyFactory() instanceof BatchingProxyFactory)) {
+      targetConfiguration.setProxyFactory(new BatchingProxyFactory(targetConfiguration.getProxyFactory()));
+    }
 
 
-    if (!isEmpty(this.plugins)) {
-      Stream.of(this.plugins).forEach(plugin -> {
-        targetConfiguration.addInterceptor(plugin);
-        log.debug(() -> "Registered plugin: '" + plugin + "'");
-      });
-    }
+    long discoveryStart = System.nanoTime();
+    List<Class<?>> mappers = mapperInterfaces();
+    log.debug(() -> "Found " + mappers.size() + " mappers in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - discoveryStart) + " ms");
+    Stream<Interceptor> contextPlugins = applicationContext.streamOfType(Interceptor.class);
+    Stream<Interceptor> setterPlugins = isEmpty(this.plugins) ? Stream.empty() : Stream.of(this.plugins);
+
+    Stream.concat(contextPlugins, setterPlugins)
+            .filter(plugin -> isRequired(plugin, targetConfiguration, mappers))
+            .forEach(plugin -> {
+              targetConfiguration.addInterceptor(plugin);
+              if (plugin instanceof OptionalInterceptor) {
+                ((OptionalInterceptor) plugin).register(targetConfiguration);
+              }
+              log.debug(() -> "Registered plugin: '" + plugin + "'");
+            });
 
 
     Stream<TypeHandler> contextTypeHandlers = applicationContext.streamOfType(TypeHandler.class);
@@ -378,11 +504,19 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
               log.debug(() -> "Registered type handler: '" + typeHandler + "'");
             });
 
-    scanAnnotatedClasses(org.micronaut.mybatis.annotation.Mapper.class)
-            .filter(Class::isInterface)
+    mappers
             .forEach(clazz -> {
-              targetConfiguration.addMapper((Class<?>) clazz);
-              log.debug(() -> "Registered mapper: '" + clazz.getCanonicalName() + "'");
+              if (!clazz.isAnnotationPresent(Sharded.class)
+                      && OptionalInterceptor.hasAnnotatedMethod(clazz, FanOut.class)) {
+                throw new IllegalStateException("@FanOut requires a @Sharded mapper: " + clazz.getName());
+              }
+              if (targetConfiguration instanceof LazyMapperConfiguration) {
+                ((LazyMapperConfiguration) targetConfiguration).addLazyMapper(clazz);
+                log.debug(() -> "Deferred mapper until first use: '" + clazz.getCanonicalName() + "'");
+              } else {
+                targetConfiguration.addMapper(clazz);
+                log.debug(() -> "Registered mapper: '" + clazz.getCanonicalName() + "'");
+              }
             });
 
     if (!isEmpty(this.scriptingLanguageDrivers)) {
@@ -397,9 +531,9 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
     Optional.ofNullable(this.cache).ifPresent(targetConfiguration::addCache);
 
     targetConfiguration.setEnvironment(new Environment(
-            this.environment,
+            environment,
             this.transactionFactory == null ? new ManagedTransactionFactory() : this.transactionFactory,
-            this.dataSource)
+            this.statementCacheSize > 0 ? new StatementCachingDataSource(dataSource, this.statementCacheSize) : dataSource)
     );
 
     return this.sqlSessionFactoryBuilder.build(targetConfiguration);
@@ -414,6 +548,102 @@ public class SqlSessionFactoryBean implements ApplicationEventListener<ServiceSt
     return this.sqlSessionFactory;
   }
 
+  /**
+   * Builds a {@code SqlSessionFactory} for every data source named in {@code mybatis.sharding.data-sources}, used by
+   * {@link org.micronaut.mybatis.annotation.Sharded} mappers. Each shard gets its own MyBatis {@code Configuration},
+   * set up the same way as the default one.
+   *
+   * @param shardStrategy
+   *          routing of shard keys to shards
+   * @param shardDataSources
+   *          names of the data sources of the shards, in shard order
+   * @param threads
+   *          maximum number of shard calls running in parallel, {@code mybatis.sharding.threads}. Defaults to the
+   *          number of shards
+   * @param timeout
+   *          default time to wait for a shard when calling all of them, {@code mybatis.sharding.timeout}. Waits
+   *          indefinitely by default
+   * @return the shards, empty if no shard data source is configured
+   */
+  @Singleton
+  @Bean(preDestroy = "close")
+  public ShardedSqlSessionFactories getShardedObject(
+          ShardStrategy shardStrategy,
+          @Nullable @Property(name = "mybatis.sharding.data-sources") List<String> shardDataSources,
+          @Nullable @Property(name = "mybatis.sharding.threads") Integer threads,
+          @Nullable @Property(name = "mybatis.sharding.timeout") Duration timeout) {
+    List<SqlSessionFactory> shards = new ArrayList<>();
+    if (shardDataSources != null && !shardDataSources.isEmpty()) {
+      if (this.configuration != null) {
+        throw new IllegalStateException("A custom MyBatis Configuration can not be shared by shards");
+      }
+      for (String name : shardDataSources) {
+        DataSource shardDataSource = applicationContext.getBean(DataSource.class, Qualifiers.byName(name));
+        shards.add(buildSqlSessionFactory(null, this.environment + "-" + name, shardDataSource));
+        log.debug(() -> "Registered shard: '" + name + "'");
+      }
+    }
+    return new ShardedSqlSessionFactories(
+            shards,
+            shardStrategy,
+            threads == null ? Math.max(1, shards.size()) : threads,
+            timeout == null ? 0 : timeout.toMillis());
+  }
+
+
+  /**
+   * Plugins only needed by some features are skipped unless one of the mappers of the configuration uses them, see
+   * {@link OptionalInterceptor}.
+   */
+  private static boolean isRequired(Interceptor plugin, Configuration configuration, List<Class<?>> mappers) {
+    if (!(plugin instanceof OptionalInterceptor)) {
+      return true;
+    }
+    OptionalInterceptor optional = (OptionalInterceptor) plugin;
+    boolean required = Stream.concat(mappers.stream(), configuration.getMapperRegistry().getMappers().stream())
+            .anyMatch(optional::isRequiredBy);
+    if (!required) {
+      log.debug(() -> "Skipped plugin not used by any mapper: '" + plugin + "'");
+    }
+    return required;
+  }
+
+  private static String mapperReport(Configuration configuration) {
+    StringBuilder report = new StringBuilder("Mappers registered at startup:");
+    configuration.getMapperRegistry().getMappers().forEach(mapper -> report.append("\n  ").append(mapper.getName()));
+    if (configuration instanceof LazyMapperConfiguration) {
+      report.append("\nMappers registered on first use:");
+      ((LazyMapperConfiguration) configuration).getPendingMappers()
+              .forEach(mapper -> report.append("\n  ").append(mapper.getName()));
+    }
+    return report.toString();
+  }
+
+  /**
+   * The interfaces introduced by {@link org.micronaut.mybatis.annotation.Mapper} beans. Their bean definitions are
+   * listed in service files written by the annotation processor, so finding them does not read any class that is not a
+   * mapper, which keeps startup time independent of the size of the classpath. The classpath is scanned as well when
+   * {@code mybatis.scan-classpath} is enabled, or when it is not set and no mapper has a bean definition.
+   */
+  private List<Class<?>> mapperInterfaces() {
+    List<Class<?>> mappers = applicationContext
+            .getBeanDefinitions(Qualifiers.byStereotype(org.micronaut.mybatis.annotation.Mapper.class))
+            .stream()
+            .map(BeanDefinition::getBeanType)
+            .flatMap(type -> Stream.concat(Stream.of(type), Stream.of(type.getInterfaces())))
+            .filter(type -> type.isInterface() && type.isAnnotationPresent(org.micronaut.mybatis.annotation.Mapper.class))
+            .distinct()
+            .collect(Collectors.toList());
+    if (Boolean.TRUE.equals(this.scanClasspath) || (this.scanClasspath == null && mappers.isEmpty())) {
+      log.debug(() -> "Scanning the classpath for mappers");
+      scanAnnotatedClasses(org.micronaut.mybatis.annotation.Mapper.class).forEach(type -> {
+        if (type.isInterface() && !mappers.contains(type)) {
+          mappers.add(type);
+        }
+      });
+    }
+    return mappers;
+  }
 
   private <A extends Annotation> Stream<Class> scanAnnotatedClasses(Class<A> annotationClass) {
     AnnotationScanner annotationScanner = new ClassPathAnnotationScanner(applicationContext.getEnvironment().getClassLoader());
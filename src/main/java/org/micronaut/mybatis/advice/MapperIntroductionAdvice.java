@@ -17,73 +17,426 @@ package org.micronaut.mybatis.advice;
 
 import io.micronaut.aop.MethodInterceptor;
 import io.micronaut.aop.MethodInvocationContext;
-import io.micronaut.core.annotation.AnnotationValue;
-import io.micronaut.core.type.Argument;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Value;
 import io.micronaut.core.type.MutableArgumentValue;
 import io.micronaut.inject.ExecutableMethod;
-import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
-import org.micronaut.mybatis.annotation.Mapper;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.micronaut.mybatis.deadline.Deadline;
+import org.micronaut.mybatis.deadline.DeadlineExceededException;
+import org.micronaut.mybatis.deadline.DeadlineInterceptor;
+import org.micronaut.mybatis.intern.InterningInterceptor;
+import org.micronaut.mybatis.lazy.LazyLoadGroup;
+import org.micronaut.mybatis.page.KeysetPlan;
+import org.micronaut.mybatis.page.Pageable;
+import org.micronaut.mybatis.partition.PartitionExecutor;
+import org.micronaut.mybatis.partition.PartitionPlan;
+import org.micronaut.mybatis.plugin.QueryRewrite;
+import org.micronaut.mybatis.plugin.QueryRewriteInterceptor;
+import org.micronaut.mybatis.shard.ShardResults;
+import org.micronaut.mybatis.shard.ShardedSqlSessionFactories;
+import org.micronaut.mybatis.spill.ResultSpiller;
+import org.micronaut.mybatis.trace.MapperTrace;
+import org.micronaut.mybatis.trace.MapperTracer;
+import org.micronaut.mybatis.trace.TracePhase;
+import org.micronaut.mybatis.writebehind.WriteBehindQueue;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Singleton
 public class MapperIntroductionAdvice implements MethodInterceptor<Object, Object> {
     private final SqlSessionFactory sqlSessionFactory;
+    private final ShardedSqlSessionFactories shards;
+    private final PartitionExecutor partitionExecutor;
+    private final WriteBehindQueue writeBehindQueue;
+    private final ResultSpiller resultSpiller;
+    private final InterningInterceptor interningInterceptor;
+    private final boolean readOnlySelects;
+    private final TransactionIsolationLevel selectIsolationLevel;
+    private final boolean lazyLoadingEnabled;
+    private final boolean deadlinesApplied;
+    private final boolean multiStatementComposites;
+    private final MapperTracer tracer;
+    private final double traceSampleRate;
+    private final String keysetLimitClause;
+    private final boolean parallelCount;
+    private final String shardingLimitClause;
+    private final Map<Method, MapperMethodInvocation> invocations = new ConcurrentHashMap<>();
 
+    /**
+     * @param sqlSessionFactory the factory to open a session from for every mapper call
+     * @param shards the factories of the shards used by {@link org.micronaut.mybatis.annotation.Sharded} mappers
+     * @param partitionExecutor the threads running {@link org.micronaut.mybatis.annotation.Partitioned} queries
+     * @param writeBehindQueue the queue of {@link org.micronaut.mybatis.annotation.WriteBehind} inserts
+     * @param resultSpiller the collector of {@link org.micronaut.mybatis.annotation.ResultBudget} results
+     * @param interningInterceptor the plugin sharing values of {@link org.micronaut.mybatis.annotation.Intern} results
+     * @param readOnlySelects whether connections used by {@code @Select} methods are switched to read-only,
+     *                        configured with {@code mybatis.read-only-selects}
+     * @param selectIsolationLevel the isolation level connections used by {@code @Select} methods are switched to,
+     *                             configured with {@code mybatis.select-isolation-level}
+     * @param multiStatementComposites whether the statements of {@link org.micronaut.mybatis.annotation.Composite}
+     *                                 methods may be sent as one query, configured with
+     *                                 {@code mybatis.composite.multi-statement}
+     * @param tracer the receiver of the traces of sampled calls, if any
+     * @param traceSampleRate the fraction of calls traced when a tracer exists, configured with
+     *                        {@code mybatis.tracing.sample-rate}
+     * @param keysetLimitClause the clause limiting the rows of {@link org.micronaut.mybatis.annotation.Keyset}
+     *                          queries, with a {@code ?} placeholder for the number of rows, configured with
+     *                          {@code mybatis.keyset.limit-clause}
+     * @param parallelCount whether the rows of a {@link org.micronaut.mybatis.page.Page} are counted on a second
+     *                      connection while the page is selected, configured with {@code mybatis.keyset.parallel-count}
+     * @param shardingLimitClause the clause limiting the rows every shard returns to a
+     *                            {@link org.micronaut.mybatis.annotation.FanOut} method with a limit, with a {@code ?}
+     *                            placeholder for the number of rows, configured with
+     *                            {@code mybatis.sharding.limit-clause}
+     */
     @Inject
-    public MapperIntroductionAdvice(SqlSessionFactory sqlSessionFactory) {
+    public MapperIntroductionAdvice(SqlSessionFactory sqlSessionFactory,
+                                    ShardedSqlSessionFactories shards,
+                                    PartitionExecutor partitionExecutor,
+                                    WriteBehindQueue writeBehindQueue,
+                                    ResultSpiller resultSpiller,
+                                    InterningInterceptor interningInterceptor,
+                                    @Value("${mybatis.read-only-selects:false}") boolean readOnlySelects,
+                                    @Nullable @Property(name = "mybatis.select-isolation-level")
+                                            TransactionIsolationLevel selectIsolationLevel,
+                                    @Value("${mybatis.composite.multi-statement:true}") boolean multiStatementComposites,
+                                    @Nullable MapperTracer tracer,
+                                    @Value("${mybatis.tracing.sample-rate:0.01}") double traceSampleRate,
+                                    @Value("${mybatis.keyset.limit-clause:limit ?}") String keysetLimitClause,
+                                    @Value("${mybatis.keyset.parallel-count:true}") boolean parallelCount,
+                                    @Value("${mybatis.sharding.limit-clause:limit ?}") String shardingLimitClause) {
+        checkLimitClause("Keyset", keysetLimitClause);
+        checkLimitClause("Sharding", shardingLimitClause);
         this.sqlSessionFactory = sqlSessionFactory;
+        this.shards = shards;
+        this.partitionExecutor = partitionExecutor;
+        this.writeBehindQueue = writeBehindQueue;
+        this.resultSpiller = resultSpiller;
+        this.interningInterceptor = interningInterceptor;
+        this.readOnlySelects = readOnlySelects;
+        this.selectIsolationLevel = selectIsolationLevel;
+        this.lazyLoadingEnabled = sqlSessionFactory.getConfiguration().isLazyLoadingEnabled();
+        this.deadlinesApplied = sqlSessionFactory.getConfiguration().getInterceptors().stream()
+                .anyMatch(DeadlineInterceptor.class::isInstance);
+        this.multiStatementComposites = multiStatementComposites;
+        this.tracer = tracer;
+        this.traceSampleRate = traceSampleRate;
+        this.keysetLimitClause = keysetLimitClause;
+        this.parallelCount = parallelCount;
+        this.shardingLimitClause = shardingLimitClause;
+    }
+
+    private static void checkLimitClause(String feature, String limitClause) {
+        if (limitClause.indexOf('?') < 0 || limitClause.indexOf('?') != limitClause.lastIndexOf('?')) {
+            throw new IllegalArgumentException(feature + " limit clause needs exactly one ? placeholder, got '"
+                    + limitClause + "'");
+        }
     }
 
     @Override
     public Object intercept(MethodInvocationContext<Object, Object> context) {
-        AnnotationValue<Mapper> clientAnnotation = context.findAnnotation(Mapper.class).orElseThrow(() ->
-                new IllegalStateException("Mapper advice called from type that is not annotated with @Mapper: " + context)
-        );
+        ExecutableMethod<Object, Object> methodCall = context.getExecutableMethod();
+        Method method = methodCall.getTargetMethod();
 
-        boolean isSelect = context.findAnnotation(Select.class).isPresent();
+        MapperMethodInvocation invocation = invocations.get(method);
+        if (invocation == null) {
+            invocation = invocations.computeIfAbsent(method, m -> createInvocation(context, m));
+        }
 
-        Class<?> mapperInterface = context.getDeclaringType();
+        Object[] arguments = argumentValues(context.getParameters());
 
-        ExecutableMethod<Object, Object> methodCall = context.getExecutableMethod();
-        Method method = methodCall.getTargetMethod();
+        if (tracer != null && ThreadLocalRandom.current().nextDouble() < traceSampleRate) {
+            return traced(invocation, arguments);
+        }
+        return call(invocation, arguments);
+    }
 
-        Object[] reflectionArguments = javaReflectionArguments(context);
+    private Object traced(MapperMethodInvocation invocation, Object[] arguments) {
+        MapperTrace trace = MapperTrace.start(invocation.mapperInterface.getName() + "." + invocation.method.getName());
+        Throwable error = null;
+        try {
+            return call(invocation, arguments);
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            trace.end(error);
+            tracer.record(trace);
+        }
+    }
+
+    private Object call(MapperMethodInvocation invocation, Object[] arguments) {
+        if (invocation.timeoutNanos > 0) {
+            return Deadline.after(invocation.timeoutNanos, TimeUnit.NANOSECONDS)
+                    .call(() -> withinDeadline(invocation, arguments));
+        }
+        return withinDeadline(invocation, arguments);
+    }
 
-        try (SqlSession sqlSession = sqlSessionFactory.openSession()) {
-            Object mapper = sqlSession.getMapper(mapperInterface);
-            Object result = method.invoke(mapper, reflectionArguments);
-            if (!isSelect) {
-                sqlSession.commit();
+    /**
+     * Calls that already missed their deadline fail before a connection is checked out. The deadlines of statements
+     * are enforced by {@link DeadlineInterceptor}, whose failures are unwrapped here. Calls within a deadline that the
+     * configuration has no such plugin for fail rather than run without it.
+     */
+    private Object withinDeadline(MapperMethodInvocation invocation, Object[] arguments) {
+        if (!deadlinesApplied && !invocation.isSharded && Deadline.isSet()) {
+            throw new IllegalStateException("Mapper called within a Deadline, but no mapper of its configuration has a"
+                    + " @Timeout method, enable mybatis.deadlines.programmatic: " + invocation.method);
+        }
+        Deadline.check("opening a session");
+        try {
+            return inLazyLoadGroup(() -> interned(invocation, arguments));
+        } catch (PersistenceException e) {
+            if (e.getCause() instanceof DeadlineExceededException) {
+                throw (DeadlineExceededException) e.getCause();
             }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a call with a lazy load group of its own, so that the rows it returns are lazily loaded in batches.
+     */
+    private Object inLazyLoadGroup(Supplier<Object> call) {
+        if (!lazyLoadingEnabled) {
+            return call.get();
+        }
+        LazyLoadGroup previous = LazyLoadGroup.open();
+        try {
+            return call.get();
+        } finally {
+            LazyLoadGroup.restore(previous);
+        }
+    }
+
+    private Object interned(MapperMethodInvocation invocation, Object[] arguments) {
+        if (invocation.internPlan == null) {
+            return dispatch(invocation, arguments);
+        }
+        return interningInterceptor.apply(invocation.internPlan, () -> dispatch(invocation, arguments));
+    }
+
+    private Object dispatch(MapperMethodInvocation invocation, Object[] arguments) {
+        if (invocation.isWriteBehind) {
+            writeBehindQueue.submit(sqlSession -> invocation.invoke(sqlSession, arguments));
+            return null;
+        }
+        if (invocation.isSharded) {
+            return shardedCall(invocation, arguments);
+        }
+        if (invocation.partitionPlan != null) {
+            return partitionedCall(invocation, arguments);
+        }
+        if (invocation.keysetPlan != null) {
+            return keysetCall(invocation, arguments);
+        }
+        return execute(sqlSessionFactory, invocation, arguments);
+    }
+
+    private Object execute(SqlSessionFactory factory, MapperMethodInvocation invocation, Object[] arguments) {
+        if (invocation.isSelect) {
+            return select(factory, invocation, arguments);
+        }
+
+        try (SqlSession sqlSession = factory.openSession()) {
+            if (MapperTrace.current() != null) {
+                // checked out by the first statement otherwise, where the trace could not tell it apart
+                long checkoutStart = System.nanoTime();
+                sqlSession.getConnection();
+                MapperTrace.record(TracePhase.CHECKOUT, checkoutStart);
+            }
+            Object result = invocation.invoke(sqlSession, arguments);
+            long commitStart = System.nanoTime();
+            sqlSession.commit();
+            MapperTrace.record(TracePhase.COMMIT, commitStart);
             return result;
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw sneakyThrow(e.getCause());
         }
     }
 
-    private Object[] javaReflectionArguments(MethodInvocationContext<Object, Object> context) {
-        return javaReflectionArguments(context.getArguments(), context.getParameters());
+    /**
+     * Selects never commit, so they run in autocommit mode: no transaction is held open for the duration of the query
+     * and closing the session does not need to reset the connection. The connection is switched to autocommit
+     * explicitly, since the default managed transactions leave it as the pool configured it. Default methods are never
+     * treated as selects, so the calls they make keep sharing one transaction.
+     *
+     * Selects that read their rows in chunks run in a transaction that is rolled back at the end instead: those with a
+     * fetch size, a result budget, a cursor or a result handler, since drivers such as PgJDBC ignore the fetch size in
+     * autocommit mode and read the whole result into memory.
+     */
+    private Object select(SqlSessionFactory factory, MapperMethodInvocation invocation, Object[] arguments) {
+        return inSelectSession(factory, invocation.selectsInTransaction,
+                sqlSession -> invocation.invoke(sqlSession, arguments));
     }
 
-    private Object[] javaReflectionArguments(Argument[] arguments, Map<String, MutableArgumentValue<?>> parameters) {
-        Object[] result = new Object[arguments.length];
-        for (int i = 0; i < arguments.length; i++) {
-            Argument argument = arguments[i];
-            String argumentName = argument.getName();
-            MutableArgumentValue<?> value = parameters.get(argumentName);
-            Object definedValue = value.getValue();
-            result[i] = definedValue;
+    private Object inSelectSession(SqlSessionFactory factory, boolean inTransaction, Function<SqlSession, Object> call) {
+        boolean selectAutoCommit = !inTransaction;
+        try (SqlSession sqlSession = factory.openSession(selectAutoCommit)) {
+            long checkoutStart = System.nanoTime();
+            Connection connection = sqlSession.getConnection();
+            MapperTrace.record(TracePhase.CHECKOUT, checkoutStart);
+            boolean autoCommit;
+            boolean readOnly = false;
+            int isolationLevel = Connection.TRANSACTION_NONE;
+            try {
+                autoCommit = connection.getAutoCommit();
+                if (autoCommit != selectAutoCommit) {
+                    connection.setAutoCommit(selectAutoCommit);
+                }
+                if (readOnlySelects) {
+                    readOnly = connection.isReadOnly();
+                    connection.setReadOnly(true);
+                }
+                if (selectIsolationLevel != null) {
+                    isolationLevel = connection.getTransactionIsolation();
+                    connection.setTransactionIsolation(selectIsolationLevel.getLevel());
+                }
+            } catch (SQLException e) {
+                throw new PersistenceException("Error preparing connection for select. Cause: " + e, e);
+            }
+
+            Throwable failure = null;
+            try {
+                return call.apply(sqlSession);
+            } catch (Throwable t) {
+                failure = t;
+                throw t;
+            } finally {
+                try {
+                    if (inTransaction) {
+                        connection.rollback();
+                    }
+                    if (readOnlySelects) {
+                        connection.setReadOnly(readOnly);
+                    }
+                    if (selectIsolationLevel != null) {
+                        connection.setTransactionIsolation(isolationLevel);
+                    }
+                    if (autoCommit != selectAutoCommit) {
+                        connection.setAutoCommit(autoCommit);
+                    }
+                } catch (SQLException e) {
+                    PersistenceException resetFailure =
+                            new PersistenceException("Error resetting connection after select. Cause: " + e, e);
+                    if (failure == null) {
+                        throw resetFailure;
+                    }
+                    failure.addSuppressed(resetFailure);
+                }
+            }
         }
-        return result;
     }
 
+    /**
+     * Runs a call of a {@link org.micronaut.mybatis.annotation.Sharded} mapper on the shard selected by its shard key,
+     * or on all shards in parallel when the method has no shard key. Every shard commits on its own, and lazily loads
+     * the rows it returned in a group of its own.
+     */
+    private Object shardedCall(MapperMethodInvocation invocation, Object[] arguments) {
+        if (invocation.hasShardKey()) {
+            Object key = invocation.shardKey(arguments, sqlSessionFactory.getConfiguration());
+            return execute(shards.route(key), invocation, arguments);
+        }
+        List<Object> results = shards.executeOnAll(
+                shard -> inLazyLoadGroup(() -> execute(shard, invocation, arguments)),
+                invocation.fanOutTimeout);
+        return ShardResults.merge(results, invocation.method.getReturnType(), invocation.fanOutOrder, invocation.fanOutLimit);
+    }
+
+    /**
+     * Runs a {@link org.micronaut.mybatis.annotation.Partitioned} query: the bounds of the partition column are queried
+     * first, then every range runs in its own select session on the partition executor.
+     */
+    @SuppressWarnings("unchecked")
+    private Object partitionedCall(MapperMethodInvocation invocation, Object[] arguments) {
+        PartitionPlan plan = invocation.partitionPlan;
+        String statementId = invocation.statementId();
+        Object parameter = invocation.parameter(arguments);
+        MappedStatement statement = sqlSessionFactory.getConfiguration().getMappedStatement(statementId);
+
+        long[] bounds = (long[]) inSelectSession(sqlSessionFactory, false,
+                sqlSession -> plan.bounds(sqlSession.getConnection(), statement, parameter));
+
+        List<Callable<List<Object>>> partitions = new ArrayList<>();
+        for (QueryRewrite rewrite : plan.partitions(bounds)) {
+            partitions.add(() -> (List<Object>) inSelectSession(sqlSessionFactory, invocation.selectsInTransaction,
+                    sqlSession -> QueryRewriteInterceptor.apply(statementId, rewrite,
+                            () -> sqlSession.selectList(statementId, parameter))));
+        }
+        return plan.collect(partitionExecutor.submitAll(partitions), invocation.method.getReturnType());
+    }
+
+    /**
+     * Selects one slice of a {@link org.micronaut.mybatis.annotation.Keyset} method. The rows of a page are counted
+     * in a session of their own on a partition thread, so the count runs while the slice is selected, or after it on
+     * the same connection when {@code mybatis.keyset.parallel-count} is disabled.
+     */
+    private Object keysetCall(MapperMethodInvocation invocation, Object[] arguments) {
+        KeysetPlan plan = invocation.keysetPlan;
+        String statementId = invocation.statementId();
+        Object parameter = invocation.parameter(arguments);
+        Pageable pageable = plan.pageable(arguments);
+        MappedStatement statement = sqlSessionFactory.getConfiguration().getMappedStatement(statementId);
+
+        Future<Long> parallelTotal = plan.isCounted() && parallelCount
+                ? partitionExecutor.submit(() -> (Long) inSelectSession(sqlSessionFactory, false,
+                        sqlSession -> plan.count(sqlSession.getConnection(), statement, parameter)))
+                : null;
+        try {
+            return inSelectSession(sqlSessionFactory, invocation.selectsInTransaction, sqlSession -> {
+                List<Object> rows = QueryRewriteInterceptor.apply(statementId, plan.rewrite(pageable, keysetLimitClause),
+                        () -> sqlSession.selectList(statementId, parameter));
+                Future<Long> total = parallelTotal;
+                if (plan.isCounted() && total == null) {
+                    total = CompletableFuture.completedFuture(plan.count(sqlSession.getConnection(), statement, parameter));
+                }
+                return plan.slice(rows, pageable, statement, total);
+            });
+        } catch (RuntimeException e) {
+            if (parallelTotal != null) {
+                parallelTotal.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    private MapperMethodInvocation createInvocation(MethodInvocationContext<Object, Object> context, Method method) {
+        MapperMethodInvocation invocation = MapperMethodInvocation.create(context, method, sqlSessionFactory.getConfiguration(),
+                resultSpiller, multiStatementComposites, shardingLimitClause);
+        if (invocation.isSharded && shards.isEmpty()) {
+            throw new IllegalStateException("Sharded mapper called, but no mybatis.sharding.data-sources are configured: " + method);
+        }
+        return invocation;
+    }
+
+    private static Object[] argumentValues(Map<String, MutableArgumentValue<?>> parameters) {
+        Object[] result = new Object[parameters.size()];
+        int i = 0;
+        for (MutableArgumentValue<?> value : parameters.values()) {
+            result[i++] = value.getValue();
+        }
+        return result;
+    }
 
     public static RuntimeException sneakyThrow(Throwable t) {
         if (t == null) throw new NullPointerException("t");
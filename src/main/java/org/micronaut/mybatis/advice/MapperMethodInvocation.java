@@ -0,0 +1,361 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.advice;
+
+import io.micronaut.aop.MethodInvocationContext;
+import io.micronaut.core.annotation.AnnotationValue;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.binding.MapperMethod;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.micronaut.mybatis.annotation.Composite;
+import org.micronaut.mybatis.annotation.FanOut;
+import org.micronaut.mybatis.annotation.Intern;
+import org.micronaut.mybatis.annotation.Keyset;
+import org.micronaut.mybatis.annotation.Mapper;
+import org.micronaut.mybatis.annotation.Partitioned;
+import org.micronaut.mybatis.annotation.ResultBudget;
+import org.micronaut.mybatis.annotation.ShardKey;
+import org.micronaut.mybatis.annotation.Sharded;
+import org.micronaut.mybatis.annotation.Timeout;
+import org.micronaut.mybatis.annotation.WriteBehind;
+import org.micronaut.mybatis.composite.CompositeQuery;
+import org.micronaut.mybatis.frame.ResultFrame;
+import org.micronaut.mybatis.intern.InternPlan;
+import org.micronaut.mybatis.page.KeysetPlan;
+import org.micronaut.mybatis.page.Page;
+import org.micronaut.mybatis.page.Pageable;
+import org.micronaut.mybatis.page.Slice;
+import org.micronaut.mybatis.partition.PartitionPlan;
+import org.micronaut.mybatis.plugin.AdaptiveFetchSizeInterceptor;
+import org.micronaut.mybatis.plugin.QueryRewrite;
+import org.micronaut.mybatis.plugin.QueryRewriteInterceptor;
+import org.micronaut.mybatis.shard.FanOutLimit;
+import org.micronaut.mybatis.spill.ResultOverflow;
+import org.micronaut.mybatis.spill.ResultSpiller;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.micronaut.mybatis.advice.MapperIntroductionAdvice.sneakyThrow;
+
+/**
+ * Resolved, per-method state of a mapper call. Abstract mapper methods are executed directly through a cached
+ * {@link MapperMethod}, which avoids creating a MyBatis mapper proxy and a reflective call on every invocation.
+ * Default methods still go through the MyBatis mapper, so that all the calls they make share one session.
+ *
+ * Argument binding itself is not precomputed: every call copies its arguments into an array, and MyBatis wraps the
+ * arguments of methods with several parameters in a {@code ParamMap}, which is what its statements are bound against.
+ */
+final class MapperMethodInvocation {
+    final Class<?> mapperInterface;
+    final Method method;
+    final boolean isSelect;
+    final boolean isSharded;
+    final boolean isWriteBehind;
+    final long timeoutNanos;
+    final boolean selectsInTransaction;
+    private final boolean returnsFrame;
+    private final CompositeQuery composite;
+
+    private final MapperMethod mapperMethod;
+    private final MapperMethod.SqlCommand command;
+    private final MapperMethod.MethodSignature signature;
+
+    final PartitionPlan partitionPlan;
+    final KeysetPlan keysetPlan;
+    final InternPlan internPlan;
+
+    private final int shardKeyIndex;
+    private final String shardKeyPath;
+    final Comparator<Object> fanOutOrder;
+    final int fanOutLimit;
+    private final QueryRewrite fanOutRewrite;
+    final long fanOutTimeout;
+
+    private final ResultSpiller resultSpiller;
+    private final int budgetRows;
+    private final ResultOverflow budgetOverflow;
+
+    @SuppressWarnings("unchecked")
+    private MapperMethodInvocation(MethodInvocationContext<Object, Object> context, Method method, Configuration configuration,
+                                   ResultSpiller resultSpiller, boolean multiStatement, String limitClause) {
+        this.mapperInterface = context.getDeclaringType();
+        this.method = method;
+        Composite composite = method.getAnnotation(Composite.class);
+        this.isSelect = context.findAnnotation(Select.class).isPresent() || composite != null;
+        this.isSharded = context.findAnnotation(Sharded.class).isPresent();
+        this.isWriteBehind = method.isAnnotationPresent(WriteBehind.class);
+        this.returnsFrame = method.getReturnType() == ResultFrame.class;
+        Timeout timeout = method.getAnnotation(Timeout.class);
+        if (timeout != null && timeout.value() <= 0) {
+            throw new IllegalStateException("@Timeout must be positive: " + method);
+        }
+        this.timeoutNanos = timeout == null ? 0 : timeout.unit().toNanos(timeout.value());
+
+        if (method.isDefault()) {
+            this.mapperMethod = null;
+            this.command = null;
+            this.signature = null;
+            this.composite = null;
+        } else if (composite != null) {
+            if (isSharded || isWriteBehind || method.isAnnotationPresent(Partitioned.class)) {
+                throw new IllegalStateException("@Composite requires a method of a mapper that is not sharded: " + method);
+            }
+            this.mapperMethod = null;
+            this.command = null;
+            this.signature = new MapperMethod.MethodSignature(configuration, mapperInterface, method);
+            this.composite = new CompositeQuery(configuration, mapperInterface, method.toGenericString(),
+                    method.getReturnType(), composite, multiStatement);
+        } else {
+            this.mapperMethod = new MapperMethod(mapperInterface, method, configuration);
+            this.command = new MapperMethod.SqlCommand(configuration, mapperInterface, method);
+            this.signature = new MapperMethod.MethodSignature(configuration, mapperInterface, method);
+            this.composite = null;
+        }
+
+        int keyIndex = -1;
+        String keyPath = null;
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        for (int i = 0; i < parameterAnnotations.length && keyIndex < 0; i++) {
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if (annotation instanceof ShardKey) {
+                    keyIndex = i;
+                    keyPath = ((ShardKey) annotation).value();
+                }
+            }
+        }
+        this.shardKeyIndex = keyIndex;
+        this.shardKeyPath = keyPath;
+        if (isSharded && keyIndex < 0 && !isSelect) {
+            // without a shard key the call would run on every shard, writing the same rows to all of them
+            throw new IllegalStateException("A method of a @Sharded mapper needs a @ShardKey parameter unless it is a @Select: " + method);
+        }
+
+        AnnotationValue<FanOut> fanOut = context.findAnnotation(FanOut.class).orElse(null);
+        if (fanOut != null && !isSharded) {
+            throw new IllegalStateException("@FanOut requires a method of a @Sharded mapper: " + method);
+        }
+        Class<?> order = fanOut == null ? null : fanOut.get("orderBy", Class.class).orElse(null);
+        this.fanOutOrder = order == null || order == Comparator.class ? null : (Comparator<Object>) instantiate(order);
+        this.fanOutLimit = fanOut == null ? -1 : fanOut.get("limit", Integer.class).orElse(-1);
+        this.fanOutTimeout = fanOut == null ? -1 : fanOut.get("timeout", Long.class).orElse(-1L);
+
+        Partitioned partitioned = method.getAnnotation(Partitioned.class);
+        if (partitioned != null) {
+            if (!isSelect || signature == null || isSharded) {
+                throw new IllegalStateException("@Partitioned requires a @Select method of a mapper that is not sharded: " + method);
+            }
+            Class<?> returnType = method.getReturnType();
+            if (Stream.class.isAssignableFrom(returnType)) {
+                this.partitionPlan = new PartitionPlan(partitioned, elementType(method));
+            } else if (returnType.isAssignableFrom(List.class)) {
+                this.partitionPlan = new PartitionPlan(partitioned, null);
+            } else {
+                throw new IllegalStateException("@Partitioned requires a method returning a List or a Stream: " + method);
+            }
+        } else {
+            this.partitionPlan = null;
+        }
+
+        if (isWriteBehind && (command == null || command.getType() != SqlCommandType.INSERT
+                || method.getReturnType() != void.class || isSharded)) {
+            throw new IllegalStateException("@WriteBehind requires a void @Insert method of a mapper that is not sharded: " + method);
+        }
+
+        if (fanOutLimit >= 0 && (signature == null || !method.getReturnType().isAssignableFrom(List.class))) {
+            throw new IllegalStateException("@FanOut limit requires a method returning a List: " + method);
+        }
+        this.fanOutRewrite = fanOutLimit >= 0 ? new FanOutLimit(fanOutLimit, limitClause) : null;
+
+        if (returnsFrame && (!isSelect || signature == null || composite != null || isSharded || partitionPlan != null)) {
+            throw new IllegalStateException("A ResultFrame requires a @Select method of a mapper that is not sharded or partitioned: " + method);
+        }
+
+        Keyset keyset = method.getAnnotation(Keyset.class);
+        if (keyset != null || Slice.class.isAssignableFrom(method.getReturnType())) {
+            if (keyset == null || !Slice.class.isAssignableFrom(method.getReturnType()) || !isSelect || signature == null
+                    || composite != null || isSharded || partitionPlan != null || fanOutLimit >= 0) {
+                throw new IllegalStateException("@Keyset requires a @Select method returning a Slice or a Page of a mapper that is not sharded or partitioned: " + method);
+            }
+            this.keysetPlan = new KeysetPlan(keyset, command.getName(), elementType(method),
+                    pageableIndex(method), Page.class.isAssignableFrom(method.getReturnType()));
+        } else {
+            this.keysetPlan = null;
+        }
+
+        Intern intern = method.getAnnotation(Intern.class);
+        if (intern != null) {
+            if (!isSelect || signature == null || returnsFrame || isSharded || partitionPlan != null
+                    || signature.returnsCursor() || Stream.class.isAssignableFrom(method.getReturnType())) {
+                throw new IllegalStateException("@Intern requires a @Select method not returning a ResultFrame or a "
+                        + "Cursor of a mapper that is not sharded or partitioned: " + method);
+            }
+            this.internPlan = new InternPlan(intern, mapperInterface.getName() + "." + method.getName());
+        } else {
+            this.internPlan = null;
+        }
+
+        boolean guardable = isSelect && signature != null && composite == null && signature.returnsMany()
+                && method.getReturnType().isAssignableFrom(List.class)
+                && !isSharded && partitionPlan == null && fanOutLimit < 0;
+        ResultBudget budget = method.getAnnotation(ResultBudget.class);
+        if (budget != null) {
+            if (!guardable) {
+                throw new IllegalStateException("@ResultBudget requires a @Select method returning a List of a mapper that is not sharded or partitioned: " + method);
+            }
+            this.resultSpiller = resultSpiller;
+            this.budgetRows = budget.maxRows() < 0 ? resultSpiller.getMaxRows() : budget.maxRows();
+            this.budgetOverflow = budget.overflow();
+        } else if (guardable && resultSpiller.isEnabled()) {
+            this.resultSpiller = resultSpiller;
+            this.budgetRows = resultSpiller.getMaxRows();
+            this.budgetOverflow = resultSpiller.getOverflow();
+        } else {
+            this.resultSpiller = null;
+            this.budgetRows = -1;
+            this.budgetOverflow = null;
+        }
+
+        this.selectsInTransaction = isSelect && signature != null && (this.resultSpiller != null
+                || signature.returnsCursor() || signature.hasResultHandler() || appliesFetchSize(configuration));
+    }
+
+    /**
+     * Drivers such as PgJDBC only fetch rows in chunks of the fetch size within a transaction, and read the whole
+     * result at once in autocommit mode.
+     */
+    private boolean appliesFetchSize(Configuration configuration) {
+        if (configuration.getDefaultFetchSize() != null) {
+            return true;
+        }
+        if (configuration.getInterceptors().stream().anyMatch(AdaptiveFetchSizeInterceptor.class::isInstance)) {
+            return true;
+        }
+        if (command == null) {
+            return false;
+        }
+        MappedStatement statement = configuration.getMappedStatement(command.getName());
+        return statement.getFetchSize() != null;
+    }
+
+    static MapperMethodInvocation create(MethodInvocationContext<Object, Object> context, Method method,
+                                         Configuration configuration, ResultSpiller resultSpiller,
+                                         boolean multiStatement, String limitClause) {
+        if (!context.findAnnotation(Mapper.class).isPresent()) {
+            throw new IllegalStateException("Mapper advice called from type that is not annotated with @Mapper: " + context);
+        }
+        return new MapperMethodInvocation(context, method, configuration, resultSpiller, multiStatement, limitClause);
+    }
+
+    boolean hasShardKey() {
+        return shardKeyIndex >= 0;
+    }
+
+    Object shardKey(Object[] arguments, Configuration configuration) {
+        Object argument = arguments[shardKeyIndex];
+        if (shardKeyPath.isEmpty() || argument == null) {
+            return argument;
+        }
+        return configuration.newMetaObject(argument).getValue(shardKeyPath);
+    }
+
+    String statementId() {
+        return command.getName();
+    }
+
+    Object parameter(Object[] arguments) {
+        return signature.convertArgsToSqlCommandParam(arguments);
+    }
+
+    Object invoke(SqlSession sqlSession, Object[] arguments) {
+        if (composite != null) {
+            return composite.execute(sqlSession, signature.convertArgsToSqlCommandParam(arguments));
+        }
+        if (mapperMethod == null) {
+            try {
+                return method.invoke(sqlSession.getMapper(mapperInterface), arguments);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw sneakyThrow(e.getCause());
+            }
+        }
+        if (fanOutRewrite != null) {
+            Object parameter = signature.convertArgsToSqlCommandParam(arguments);
+            return QueryRewriteInterceptor.apply(command.getName(), fanOutRewrite,
+                    () -> sqlSession.selectList(command.getName(), parameter));
+        }
+        if (returnsFrame) {
+            Object parameter = signature.convertArgsToSqlCommandParam(arguments);
+            RowBounds rowBounds = signature.hasRowBounds() ? signature.extractRowBounds(arguments) : RowBounds.DEFAULT;
+            return ResultFrame.select(sqlSession, command.getName(), parameter, rowBounds);
+        }
+        if (resultSpiller != null) {
+            Object parameter = signature.convertArgsToSqlCommandParam(arguments);
+            RowBounds rowBounds = signature.hasRowBounds() ? signature.extractRowBounds(arguments) : RowBounds.DEFAULT;
+            return resultSpiller.collect(command.getName(), budgetRows, budgetOverflow,
+                    handler -> sqlSession.select(command.getName(), parameter, rowBounds, handler));
+        }
+        return mapperMethod.execute(sqlSession, arguments);
+    }
+
+    private static Class<?> elementType(Method method) {
+        Type type = method.getGenericReturnType();
+        if (type instanceof ParameterizedType) {
+            Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+            if (argument instanceof Class) {
+                return (Class<?>) argument;
+            }
+            if (argument instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) argument).getRawType();
+            }
+        }
+        throw new IllegalStateException("Can not determine the element type of " + method);
+    }
+
+    private static int pageableIndex(Method method) {
+        int index = -1;
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (parameterTypes[i] == Pageable.class) {
+                if (index >= 0) {
+                    throw new IllegalStateException("@Keyset requires a single Pageable parameter: " + method);
+                }
+                index = i;
+            }
+        }
+        if (index < 0) {
+            throw new IllegalStateException("@Keyset requires a Pageable parameter: " + method);
+        }
+        return index;
+    }
+
+    private static Object instantiate(Class<?> type) {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can not instantiate " + type.getName() + ", a no-arg constructor is required", e);
+        }
+    }
+}
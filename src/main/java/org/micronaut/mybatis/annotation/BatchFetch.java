@@ -0,0 +1,52 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code BatchFetch} marks a mapper method used as the nested select of a lazily loaded association and names the
+ * statement that loads the same rows for many keys at once. When a lazy association is first accessed, the pending
+ * associations of its siblings, loaded by the same mapper call, are resolved together with one call of that statement.
+ *
+ * The batch statement takes the list of keys as its only parameter, e.g. with
+ * {@code <foreach collection="list" ...>}, and each row it returns is matched to its key by {@link #key()}.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface BatchFetch {
+  /**
+   * @return the id of the statement loading the rows of a list of keys, relative to the namespace of this mapper
+   *         unless it contains a dot
+   */
+  String statement();
+
+  /**
+   * @return the property of the loaded rows holding the key they were selected by
+   */
+  String key();
+
+  /**
+   * @return the maximum number of keys loaded by one call of the batch statement
+   */
+  int size() default 100;
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code Composite} declares an abstract mapper method without SQL of its own that runs several {@code @Select}
+ * statements in one session and returns them in the properties of a result holder. The holder is the return type of
+ * the method and needs a no-arg constructor; every statement receives the arguments of the method.
+ *
+ * When the driver supports it, the statements are sent as one multi-statement query and every result set is mapped
+ * with the result map of its statement, see {@link org.micronaut.mybatis.composite.CompositeQuery}.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Composite {
+  /**
+   * @return the statements to run, in order
+   */
+  Part[] value();
+
+  /**
+   * One statement of a composite call.
+   */
+  @Documented
+  @Retention(RUNTIME)
+  @Target({})
+  @interface Part {
+    /**
+     * @return the property of the result holder that receives the result, a collection property receives all rows
+     */
+    String property();
+
+    /**
+     * @return the id of the {@code @Select} statement, relative to the mapper unless it contains a dot
+     */
+    String statement();
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.Comparator;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code FanOut} tunes how a {@link Sharded} mapper method without a {@link ShardKey} is run on all shards. Mappers
+ * that are not {@code Sharded} are rejected at startup.
+ *
+ * Without this annotation, list results are concatenated in shard order, numeric results (counts and update counts)
+ * are summed and any other result is the first non-null result in shard order.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface FanOut {
+  /**
+   * @return comparator used to merge list results. The results of every shard must already be sorted by it, usually
+   *         with an {@code ORDER BY} matching the comparator.
+   */
+  @SuppressWarnings("rawtypes")
+  Class<? extends Comparator> orderBy() default Comparator.class;
+
+  /**
+   * @return maximum number of rows of a list result. The limit is also appended to the query of every shard, with the
+   *         clause configured by {@code mybatis.sharding.limit-clause}, so the query must not limit its rows itself.
+   */
+  int limit() default -1;
+
+  /**
+   * @return time in milliseconds to wait for a shard, or a negative value to use {@code mybatis.sharding.timeout}
+   */
+  long timeout() default -1;
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code Intern} shares equal text values among the rows of one call of a {@code @Select} mapper method, so that a
+ * result repeating a few distinct values keeps one {@code String} instance of each instead of one per row. Meant for
+ * large results of low-cardinality columns, such as status codes or country names.
+ *
+ * Values are shared through a dictionary that lives for the duration of the call and stops growing at
+ * {@link #maxValues()} distinct values; later values are kept as read.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Intern {
+  /**
+   * @return the columns of the query result whose values are shared, all text columns if empty
+   */
+  String[] value() default {};
+
+  /**
+   * @return whether equal rows are also replaced by the first one. The rows must implement {@code equals} and
+   *         {@code hashCode}, and must not be modified afterwards, since they may appear more than once in the result
+   */
+  boolean rows() default false;
+
+  /**
+   * @return the maximum number of distinct values, and of distinct rows, kept per call
+   */
+  int maxValues() default 10000;
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code Keyset} pages through the result of a {@code @Select} mapper method by its sort keys instead of an offset.
+ * The method must return a {@link org.micronaut.mybatis.page.Slice} or a {@link org.micronaut.mybatis.page.Page} and
+ * take a {@link org.micronaut.mybatis.page.Pageable} parameter.
+ *
+ * The query is ordered by the keys, which must not be {@code null} and together identify a row, e.g. by ending with
+ * the primary key. Every page after the first starts right after the keys of the last row of the previous one, so
+ * reading a deep page costs as much as reading the first one when the keys are indexed.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Keyset {
+  /**
+   * @return the columns of the query result to sort by, each optionally followed by {@code asc} or {@code desc}
+   */
+  String[] value();
+}
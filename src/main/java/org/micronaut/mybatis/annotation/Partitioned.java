@@ -0,0 +1,49 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code Partitioned} splits the query of a {@code @Select} mapper method into ranges of a numeric column and runs
+ * them in parallel, each in its own session. The method must return a {@code List} or a {@code Stream}.
+ *
+ * Rows where the column is {@code null} are read by an additional partition, after all ranges.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Partitioned {
+  /**
+   * @return the numeric column of the query result to split the query on
+   */
+  String column();
+
+  /**
+   * @return the number of ranges to split the query into
+   */
+  int parts() default 8;
+
+  /**
+   * @return whether the result is ordered by the partition column
+   */
+  boolean ordered() default false;
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import org.micronaut.mybatis.spill.ResultOverflow;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code ResultBudget} limits the number of rows a {@code @Select} method returning a {@code List} keeps on the heap.
+ * Rows beyond the budget are spilled to a temporary file, or fail the query, see
+ * {@link org.micronaut.mybatis.spill.ResultSpiller}.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface ResultBudget {
+  /**
+   * @return the maximum number of rows kept on the heap, {@code mybatis.result-budget.max-rows} if negative
+   */
+  int maxRows() default -1;
+
+  /**
+   * @return what to do with the rows beyond the budget
+   */
+  ResultOverflow overflow() default ResultOverflow.SPILL;
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code ShardKey} marks the parameter of a {@link Sharded} mapper method that selects the shard the call runs on.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(PARAMETER)
+public @interface ShardKey {
+  /**
+   * @return property path of the key within the parameter, e.g. {@code "id"} for a domain object. Empty if the
+   *         parameter itself is the key.
+   */
+  String value() default "";
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code Sharded} declares that a {@link Mapper} runs against the shards configured with
+ * {@code mybatis.sharding.data-sources} instead of the default data source.
+ *
+ * Methods with a {@link ShardKey} parameter run on the single shard the key routes to. {@code @Select} methods without
+ * one run on every shard in parallel and their results are merged, see {@link FanOut}. Any other method, including a
+ * default method, needs a {@link ShardKey} parameter, so that it does not write the same rows to every shard.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface Sharded {}
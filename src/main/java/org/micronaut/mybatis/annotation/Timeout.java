@@ -0,0 +1,44 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code Timeout} gives every call of a mapper method a {@link org.micronaut.mybatis.deadline.Deadline}. A deadline
+ * of the caller that ends earlier still applies. Statements prepared directly on the connection, such as those of
+ * {@code ResultFrame} methods, only have the deadline checked before the session is opened.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface Timeout {
+  /**
+   * @return the time a call may take
+   */
+  long value();
+
+  /**
+   * @return the unit of {@link #value()}
+   */
+  TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * {@code WriteBehind} makes a void {@code @Insert} mapper method return as soon as its arguments are queued. The
+ * queued inserts are written in JDBC batches by a background thread, see
+ * {@link org.micronaut.mybatis.writebehind.WriteBehindQueue}.
+ *
+ * Failed inserts are not reported to the caller, and the arguments must not be modified after the call.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(METHOD)
+public @interface WriteBehind {}
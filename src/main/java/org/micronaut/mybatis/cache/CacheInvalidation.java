@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The cache namespaces written by a committed transaction of one node. Every node numbers its invalidations from 1,
+ * so receivers can tell when they missed one. A node numbers them from 1 again when it restarts, with a new
+ * incarnation. An invalidation without namespaces is a heartbeat, carrying the sequence of the last invalidation its
+ * node published.
+ */
+public final class CacheInvalidation {
+  private static final byte VERSION = 2;
+
+  private final String origin;
+  private final String incarnation;
+  private final long sequence;
+  private final List<String> namespaces;
+
+  /**
+   * @param origin
+   *          the id of the node that published the invalidation
+   * @param incarnation
+   *          the id of the run of the node that published the invalidation, which changes when the node restarts
+   * @param sequence
+   *          the number of the invalidation among the ones of this incarnation of its node
+   * @param namespaces
+   *          the ids of the caches to clear
+   */
+  public CacheInvalidation(String origin, String incarnation, long sequence, Collection<String> namespaces) {
+    this.origin = origin;
+    this.incarnation = incarnation;
+    this.sequence = sequence;
+    this.namespaces = Collections.unmodifiableList(new ArrayList<>(namespaces));
+  }
+
+  public String getOrigin() {
+    return origin;
+  }
+
+  public String getIncarnation() {
+    return incarnation;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  public List<String> getNamespaces() {
+    return namespaces;
+  }
+
+  /**
+   * @return whether this is a heartbeat, which clears nothing unless it reveals missed invalidations
+   */
+  public boolean isHeartbeat() {
+    return namespaces.isEmpty();
+  }
+
+  /**
+   * @return the compact binary form of this invalidation, for buses that send bytes
+   */
+  public byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 64 * namespaces.size());
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeUTF(origin);
+      out.writeUTF(incarnation);
+      out.writeLong(sequence);
+      out.writeInt(namespaces.size());
+      for (String namespace : namespaces) {
+        out.writeUTF(namespace);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param bytes
+   *          the result of {@link #toBytes()}
+   * @throws IllegalArgumentException
+   *           if {@code bytes} is not an invalidation
+   */
+  public static CacheInvalidation fromBytes(byte[] bytes) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      if (in.readByte() != VERSION) {
+        throw new IllegalArgumentException("Unknown cache invalidation version");
+      }
+      String origin = in.readUTF();
+      String incarnation = in.readUTF();
+      long sequence = in.readLong();
+      int count = in.readInt();
+      if (count < 0 || count > bytes.length) {
+        throw new IllegalArgumentException("Invalid cache invalidation namespace count: " + count);
+      }
+      List<String> namespaces = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        namespaces.add(in.readUTF());
+      }
+      return new CacheInvalidation(origin, incarnation, sequence, namespaces);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid cache invalidation", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CacheInvalidation{origin=" + origin + ", incarnation=" + incarnation + ", sequence=" + sequence + ", namespaces=" + namespaces + "}";
+  }
+}
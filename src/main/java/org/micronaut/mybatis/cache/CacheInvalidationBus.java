@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries {@link CacheInvalidation}s between the nodes of a deployment. Register an implementation as a bean to keep
+ * the second level caches of all nodes consistent, see {@link CacheInvalidationInterceptor}; an adapter to a message
+ * broker or a database notification channel sends {@link CacheInvalidation#toBytes()} to every node.
+ *
+ * Delivery does not need to be reliable or ordered: a node that misses an invalidation notices the gap in the
+ * sequence of its sender and clears all of its caches. Published invalidations may also be delivered back to their
+ * sender, which ignores them.
+ */
+public interface CacheInvalidationBus {
+  /**
+   * Sends an invalidation to the other nodes. Called right after a transaction commits, so implementations should
+   * hand it off rather than block.
+   */
+  void publish(CacheInvalidation invalidation);
+
+  /**
+   * @param subscriber
+   *          called with every invalidation received from another node
+   */
+  void subscribe(Consumer<CacheInvalidation> subscriber);
+}
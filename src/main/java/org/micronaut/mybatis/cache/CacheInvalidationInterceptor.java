@@ -0,0 +1,406 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.cache;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Requires;
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.CacheNamespaceRef;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+import org.micronaut.mybatis.plugin.OptionalInterceptor;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the second level caches of the configurations built by {@link org.micronaut.mybatis.SqlSessionFactoryBean}
+ * consistent across nodes. Registered when a {@link CacheInvalidationBus} bean exists, with the configurations that
+ * have a mapper annotated with {@link CacheNamespace} or {@link CacheNamespaceRef}.
+ *
+ * When a session commits after an {@code @Insert}, {@code @Update} or {@code @Delete} on a namespace with a cache,
+ * MyBatis clears the local cache and this interceptor publishes the namespaces as one {@link CacheInvalidation}.
+ * Other nodes clear the caches of these namespaces when they receive it.
+ *
+ * Invalidations are versioned:
+ * <ul>
+ * <li>Every node numbers the invalidations it publishes, from 1 for each incarnation, a random id of the process. A
+ * receiver that sees a gap in the numbers of a node missed an invalidation, and clears all of its caches. Heartbeats,
+ * sent every {@code mybatis.cache.invalidation.heartbeat-interval}, reveal a missed last invalidation too, bounding
+ * how long a lost message can leave stale entries. The last number of a node that sent nothing for three heartbeat
+ * intervals is forgotten, so nodes that left do not accumulate; its next message, if any, clears all caches.</li>
+ * <li>Every namespace has a local version, incremented by each invalidation received. A session that read a namespace
+ * before its version changed clears the cache again once it committed, since the entries it put may have been read
+ * before the write on the other node committed.</li>
+ * </ul>
+ */
+@Singleton
+@Requires(beans = CacheInvalidationBus.class)
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+        @Signature(type = Executor.class, method = "update", args = { MappedStatement.class, Object.class }),
+        @Signature(type = Executor.class, method = "commit", args = { boolean.class }),
+        @Signature(type = Executor.class, method = "rollback", args = { boolean.class }),
+        @Signature(type = Executor.class, method = "close", args = { boolean.class })
+})
+public class CacheInvalidationInterceptor implements OptionalInterceptor {
+  private static final Logger log = LoggerFactory.getLogger(CacheInvalidationInterceptor.class);
+  private static final int EXPIRY_HEARTBEATS = 3;
+
+  private final CacheInvalidationBus bus;
+  private final String nodeId;
+  private final String incarnation = UUID.randomUUID().toString();
+  private final ScheduledExecutorService heartbeat;
+  private final long expiryNanos;
+
+  private final List<Configuration> configurations = new CopyOnWriteArrayList<>();
+  private final Map<Executor, Session> sessions = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+  private final Map<String, Received> lastReceived = new HashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong missed = new AtomicLong();
+
+  /**
+   * @param bus
+   *          the bus to publish and receive invalidations on
+   * @param nodeId
+   *          the id of this node, {@code mybatis.cache.invalidation.node-id}. Random by default
+   * @param heartbeatInterval
+   *          the time between heartbeats, {@code mybatis.cache.invalidation.heartbeat-interval}. Defaults to ten
+   *          seconds, zero disables heartbeats and the expiry of nodes that stopped sending
+   */
+  @Inject
+  public CacheInvalidationInterceptor(
+          CacheInvalidationBus bus,
+          @Nullable @Property(name = "mybatis.cache.invalidation.node-id") String nodeId,
+          @Nullable @Property(name = "mybatis.cache.invalidation.heartbeat-interval") Duration heartbeatInterval) {
+    this.bus = bus;
+    this.nodeId = nodeId == null || nodeId.isEmpty() ? UUID.randomUUID().toString() : nodeId;
+    long interval = (heartbeatInterval == null ? Duration.ofSeconds(10) : heartbeatInterval).toMillis();
+    this.expiryNanos = TimeUnit.MILLISECONDS.toNanos(interval * EXPIRY_HEARTBEATS);
+    if (interval > 0) {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "mybatis-cache-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.scheduleWithFixedDelay(() -> {
+        sendHeartbeat();
+        expireNodes();
+      }, interval, interval, TimeUnit.MILLISECONDS);
+      this.heartbeat = executor;
+    } else {
+      this.heartbeat = null;
+    }
+    bus.subscribe(this::receive);
+  }
+
+  /**
+   * Adds a configuration whose caches are cleared by invalidations from other nodes.
+   */
+  @Override
+  public void register(Configuration configuration) {
+    if (!configurations.contains(configuration)) {
+      configurations.add(configuration);
+    }
+  }
+
+  /**
+   * @return the id of this node, the origin of the invalidations it publishes
+   */
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * @return the number of invalidations published by this node, not counting heartbeats
+   */
+  public long getPublished() {
+    return published.get();
+  }
+
+  /**
+   * @return the number of invalidations and heartbeats received from other nodes
+   */
+  public long getReceived() {
+    return received.get();
+  }
+
+  /**
+   * @return the number of times a gap revealed missed invalidations, each of which cleared all caches
+   */
+  public long getMissed() {
+    return missed.get();
+  }
+
+  /**
+   * @return the number of other nodes whose last invalidation number is kept
+   */
+  public int getKnownNodes() {
+    synchronized (lastReceived) {
+      return lastReceived.size();
+    }
+  }
+
+  @Override
+  public boolean isRequiredBy(Class<?> mapperInterface) {
+    return mapperInterface.isAnnotationPresent(CacheNamespace.class)
+            || mapperInterface.isAnnotationPresent(CacheNamespaceRef.class);
+  }
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    Executor executor = (Executor) invocation.getTarget();
+    Object[] args = invocation.getArgs();
+    switch (invocation.getMethod().getName()) {
+      case "query": {
+        MappedStatement statement = (MappedStatement) args[0];
+        Cache cache = statement.getCache();
+        if (cache != null && statement.isUseCache()) {
+          session(executor).read.putIfAbsent(cache.getId(), version(cache.getId()).get());
+        }
+        return invocation.proceed();
+      }
+      case "update": {
+        MappedStatement statement = (MappedStatement) args[0];
+        Cache cache = statement.getCache();
+        if (cache != null && statement.isFlushCacheRequired()) {
+          session(executor).written.add(cache.getId());
+        }
+        return invocation.proceed();
+      }
+      case "commit": {
+        Object result = invocation.proceed();
+        Session session = sessions.get(executor);
+        if (session != null) {
+          session.committed();
+        }
+        return result;
+      }
+      case "rollback": {
+        Object result = invocation.proceed();
+        Session session = sessions.get(executor);
+        if (session != null) {
+          session.written.clear();
+        }
+        return result;
+      }
+      default: {
+        // closing without a rollback commits the entries of the session to the caches, and the writes of autocommit
+        // sessions to the database
+        boolean forceRollback = (Boolean) args[0];
+        try {
+          return invocation.proceed();
+        } finally {
+          Session session = sessions.remove(executor);
+          if (session != null && !forceRollback) {
+            session.committed();
+          }
+        }
+      }
+    }
+  }
+
+  private Session session(Executor executor) {
+    Session session = sessions.get(executor);
+    if (session == null) {
+      session = new Session();
+      sessions.put(executor, session);
+    }
+    return session;
+  }
+
+  private AtomicLong version(String namespace) {
+    AtomicLong version = versions.get(namespace);
+    return version != null ? version : versions.computeIfAbsent(namespace, n -> new AtomicLong());
+  }
+
+  private void publish(Set<String> namespaces) {
+    CacheInvalidation invalidation = new CacheInvalidation(nodeId, incarnation, sequence.incrementAndGet(), namespaces);
+    try {
+      bus.publish(invalidation);
+      published.incrementAndGet();
+    } catch (RuntimeException e) {
+      // the write is committed; the other nodes will see the gap with the next invalidation or heartbeat
+      log.warn(() -> "Failed to publish " + invalidation + ": " + e);
+    }
+  }
+
+  private void sendHeartbeat() {
+    try {
+      bus.publish(new CacheInvalidation(nodeId, incarnation, sequence.get(), Collections.emptyList()));
+    } catch (RuntimeException e) {
+      log.warn(() -> "Failed to publish cache heartbeat: " + e);
+    }
+  }
+
+  private void receive(CacheInvalidation invalidation) {
+    if (nodeId.equals(invalidation.getOrigin())) {
+      return;
+    }
+    received.incrementAndGet();
+
+    boolean gap;
+    synchronized (lastReceived) {
+      Received last = lastReceived.get(invalidation.getOrigin());
+      if (last == null || !last.incarnation.equals(invalidation.getIncarnation())) {
+        // first message of the node, or of the node since it restarted and numbered its invalidations from 1 again
+        last = new Received(invalidation.getIncarnation());
+        lastReceived.put(invalidation.getOrigin(), last);
+      }
+      last.receivedAt = System.nanoTime();
+      long expected = invalidation.isHeartbeat() ? last.sequence : last.sequence + 1;
+      if (!invalidation.isHeartbeat() && invalidation.getSequence() <= last.sequence) {
+        // delivered twice or out of order, after a gap that cleared everything already
+        return;
+      }
+      gap = invalidation.getSequence() > expected;
+      last.sequence = Math.max(last.sequence, invalidation.getSequence());
+    }
+
+    if (gap) {
+      missed.incrementAndGet();
+      log.warn(() -> "Missed cache invalidations of node " + invalidation.getOrigin() + ", clearing all caches");
+      clearAll();
+      return;
+    }
+    for (String namespace : invalidation.getNamespaces()) {
+      clear(namespace);
+    }
+  }
+
+  /**
+   * Forgets the nodes that sent nothing for three heartbeat intervals, which have most likely left.
+   */
+  private void expireNodes() {
+    long now = System.nanoTime();
+    synchronized (lastReceived) {
+      lastReceived.values().removeIf(last -> now - last.receivedAt > expiryNanos);
+    }
+  }
+
+  private void clear(String namespace) {
+    version(namespace).incrementAndGet();
+    clearCaches(namespace);
+    log.debug(() -> "Cleared cache '" + namespace + "'");
+  }
+
+  private void clearCaches(String namespace) {
+    for (Configuration configuration : configurations) {
+      if (configuration.hasCache(namespace)) {
+        configuration.getCache(namespace).clear();
+      }
+    }
+  }
+
+  private void clearAll() {
+    versions.values().forEach(AtomicLong::incrementAndGet);
+    for (Configuration configuration : configurations) {
+      // short names of caches map to the same cache, or to a marker for ambiguous names
+      Map<Cache, Boolean> caches = new IdentityHashMap<>();
+      for (Object cache : configuration.getCaches()) {
+        if (cache instanceof Cache) {
+          caches.put((Cache) cache, Boolean.TRUE);
+        }
+      }
+      caches.keySet().forEach(Cache::clear);
+    }
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+
+  @PreDestroy
+  public void close() {
+    if (heartbeat != null) {
+      heartbeat.shutdownNow();
+    }
+  }
+
+  /**
+   * The last sequence received from the current incarnation of a node, and when the last message of the node arrived.
+   */
+  private static final class Received {
+    private final String incarnation;
+    private long sequence;
+    private long receivedAt;
+
+    private Received(String incarnation) {
+      this.incarnation = incarnation;
+    }
+  }
+
+  /**
+   * The cache namespaces a session read and wrote since it last committed. Sessions are used by one thread at a time.
+   */
+  private final class Session {
+    private final Map<String, Long> read = new HashMap<>();
+    private final Set<String> written = new LinkedHashSet<>();
+
+    private void committed() {
+      if (!written.isEmpty()) {
+        publish(written);
+        written.clear();
+      }
+      for (Map.Entry<String, Long> entry : read.entrySet()) {
+        if (version(entry.getKey()).get() != entry.getValue()) {
+          // an invalidation arrived while the session was reading: what it cached may predate the write
+          clearCaches(entry.getKey());
+        }
+      }
+      read.clear();
+    }
+  }
+}
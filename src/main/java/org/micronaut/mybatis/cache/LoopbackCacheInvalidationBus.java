@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.cache;
+
+import io.micronaut.context.annotation.Requires;
+
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers invalidations to the subscribers of the same JVM, for tests and single node deployments. Enabled with
+ * {@code mybatis.cache.invalidation.loopback}. Invalidations are encoded and decoded on the way, like a real bus does.
+ */
+@Singleton
+@Requires(property = "mybatis.cache.invalidation.loopback", value = "true")
+public class LoopbackCacheInvalidationBus implements CacheInvalidationBus {
+  private final List<Consumer<CacheInvalidation>> subscribers = new CopyOnWriteArrayList<>();
+
+  @Override
+  public void publish(CacheInvalidation invalidation) {
+    byte[] message = invalidation.toBytes();
+    for (Consumer<CacheInvalidation> subscriber : subscribers) {
+      subscriber.accept(CacheInvalidation.fromBytes(message));
+    }
+  }
+
+  @Override
+  public void subscribe(Consumer<CacheInvalidation> subscriber) {
+    subscribers.add(subscriber);
+  }
+}
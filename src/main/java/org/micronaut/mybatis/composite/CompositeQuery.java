@@ -0,0 +1,281 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.composite;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.exceptions.TooManyResultsException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+import org.micronaut.mybatis.annotation.Composite;
+import org.micronaut.mybatis.plugin.MappedStatements;
+import org.micronaut.mybatis.plugin.QueryRewrite;
+import org.micronaut.mybatis.plugin.QueryRewriteInterceptor;
+
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the statements of a {@link Composite} mapper method and fills the result holder.
+ *
+ * If multi-statement queries are enabled with {@code mybatis.composite.multi-statement} (the default) and the driver
+ * reports support for multiple result sets, the SQL of all statements is joined with {@code ;} and sent as one query
+ * of the first statement, rewritten by {@link QueryRewriteInterceptor} to map one result set with the result map of
+ * every statement. Otherwise, or once the combined query was rejected by the database or returned fewer result sets,
+ * the statements run one after the other on the connection of the session. Drivers that need a connection option for
+ * multi-statement queries, such as MySQL's {@code allowMultiQueries}, fall back until it is set. Other failures of the
+ * combined query, such as timeouts, lock conflicts or bad rows, are thrown like those of the single statements and do
+ * not change how later calls run.
+ *
+ * The combined query bypasses the second level cache, it runs as the first statement and would otherwise cache the
+ * results of all statements in its namespace only, where updates of the other namespaces do not flush them. Statements
+ * of a namespace with a cache are therefore always run one by one.
+ */
+public final class CompositeQuery {
+  private static final Logger log = LoggerFactory.getLogger(CompositeQuery.class);
+
+  private final Configuration configuration;
+  private final String id;
+  private final Class<?> holderType;
+  private final String[] properties;
+  private final Class<?>[] propertyTypes;
+  private final String[] statementIds;
+  private final MappedStatement combinedStatement;
+  private volatile boolean combine;
+
+  /**
+   * @param configuration
+   *          the configuration the statements are registered with
+   * @param mapperInterface
+   *          the mapper declaring the method, the namespace of relative statement ids
+   * @param id
+   *          the name of the method, for messages
+   * @param holderType
+   *          the return type of the method
+   * @param composite
+   *          the statements to run
+   * @param multiStatement
+   *          whether the statements may be sent as one query
+   */
+  public CompositeQuery(Configuration configuration, Class<?> mapperInterface, String id, Class<?> holderType,
+                        Composite composite, boolean multiStatement) {
+    Composite.Part[] parts = composite.value();
+    if (parts.length == 0) {
+      throw new IllegalStateException("@Composite requires at least one statement: " + id);
+    }
+    this.configuration = configuration;
+    this.id = id;
+    this.holderType = holderType;
+    this.properties = new String[parts.length];
+    this.propertyTypes = new Class<?>[parts.length];
+    this.statementIds = new String[parts.length];
+
+    MetaClass holder = MetaClass.forClass(holderType, configuration.getReflectorFactory());
+    List<ResultMap> resultMaps = new ArrayList<>();
+    boolean combinable = multiStatement;
+    for (int i = 0; i < parts.length; i++) {
+      String statement = parts[i].statement();
+      statementIds[i] = statement.contains(".") ? statement : mapperInterface.getName() + "." + statement;
+      properties[i] = parts[i].property();
+      if (!holder.hasSetter(properties[i])) {
+        throw new IllegalStateException("@Composite result " + holderType.getName() + " has no property '"
+                + properties[i] + "': " + id);
+      }
+      propertyTypes[i] = holder.getSetterType(properties[i]);
+
+      MappedStatement mappedStatement = configuration.getMappedStatement(statementIds[i]);
+      if (mappedStatement.getSqlCommandType() != SqlCommandType.SELECT) {
+        throw new IllegalStateException("@Composite requires select statements, " + statementIds[i] + " is a "
+                + mappedStatement.getSqlCommandType() + ": " + id);
+      }
+      combinable &= mappedStatement.getResultMaps().size() == 1 && mappedStatement.getResultSets() == null
+              && mappedStatement.getCache() == null;
+      resultMaps.addAll(mappedStatement.getResultMaps());
+    }
+    this.combinedStatement = parts.length > 1 && combinable
+            ? MappedStatements.withResultMaps(configuration.getMappedStatement(statementIds[0]), resultMaps)
+            : null;
+    this.combine = combinedStatement != null;
+  }
+
+  /**
+   * @return whether the statements are still sent as one query
+   */
+  public boolean isCombined() {
+    return combine;
+  }
+
+  /**
+   * Runs the statements and returns the result holder.
+   */
+  public Object execute(SqlSession sqlSession, Object parameter) {
+    List<List<Object>> results = combine ? combined(sqlSession, parameter) : null;
+    if (results == null) {
+      results = new ArrayList<>(statementIds.length);
+      for (String statementId : statementIds) {
+        results.add(sqlSession.selectList(statementId, parameter));
+      }
+    }
+
+    Object holder = configuration.getObjectFactory().create(holderType);
+    MetaObject metaObject = configuration.newMetaObject(holder);
+    for (int i = 0; i < properties.length; i++) {
+      metaObject.setValue(properties[i], value(i, results.get(i)));
+    }
+    return holder;
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<List<Object>> combined(SqlSession sqlSession, Object parameter) {
+    try {
+      if (!sqlSession.getConnection().getMetaData().supportsMultipleResultSets()) {
+        combine = false;
+        log.debug(() -> "Running statements of " + id + " one by one, the driver does not support multiple result sets");
+        return null;
+      }
+    } catch (SQLException e) {
+      log.debug(() -> "Running statements of " + id + " one by one, the driver metadata can not be read: " + e);
+      return null;
+    }
+
+    BoundSql boundSql = combinedSql(parameter);
+    if (boundSql == null) {
+      log.debug(() -> "Running statements of " + id + " one by one, their dynamic SQL parameters clash");
+      return null;
+    }
+
+    List<Object> results;
+    try {
+      results = QueryRewriteInterceptor.apply(statementIds[0], new QueryRewrite() {
+        @Override
+        public MappedStatement statement(MappedStatement statement) {
+          return combinedStatement;
+        }
+
+        @Override
+        public BoundSql boundSql(MappedStatement statement, BoundSql original) {
+          return boundSql;
+        }
+      }, () -> sqlSession.selectList(statementIds[0], parameter));
+    } catch (PersistenceException e) {
+      if (!isRejected(e)) {
+        throw e;
+      }
+      disableCombined("the combined query was rejected: " + e.getMessage());
+      return null;
+    }
+    if (results.size() != statementIds.length) {
+      disableCombined("the combined query returned " + results.size() + " of " + statementIds.length + " result sets");
+      return null;
+    }
+    List<List<Object>> lists = new ArrayList<>(results.size());
+    for (Object result : results) {
+      lists.add((List<Object>) result);
+    }
+    return lists;
+  }
+
+  /**
+   * Joins the SQL of all statements. Additional parameters of dynamic SQL, such as the items of a
+   * {@code <foreach>}, are copied to the combined {@code BoundSql}.
+   *
+   * @return the combined SQL, or {@code null} if two statements use the same additional parameter for different values
+   */
+  private BoundSql combinedSql(Object parameter) {
+    StringBuilder sql = new StringBuilder();
+    List<ParameterMapping> mappings = new ArrayList<>();
+    Map<String, Object> additionalParameters = new HashMap<>();
+    for (String statementId : statementIds) {
+      BoundSql part = configuration.getMappedStatement(statementId).getBoundSql(parameter);
+      for (ParameterMapping mapping : part.getParameterMappings()) {
+        String name = new PropertyTokenizer(mapping.getProperty()).getName();
+        if (part.hasAdditionalParameter(name)) {
+          Object value = part.getAdditionalParameter(name);
+          if (additionalParameters.containsKey(name) && additionalParameters.get(name) != value) {
+            return null;
+          }
+          additionalParameters.put(name, value);
+        }
+      }
+      mappings.addAll(part.getParameterMappings());
+      String partSql = part.getSql().trim();
+      if (partSql.endsWith(";")) {
+        partSql = partSql.substring(0, partSql.length() - 1);
+      }
+      sql.append(sql.length() == 0 ? "" : ";\n").append(partSql);
+    }
+    BoundSql boundSql = new BoundSql(configuration, sql.toString(), mappings, parameter);
+    additionalParameters.forEach(boundSql::setAdditionalParameter);
+    return boundSql;
+  }
+
+  /**
+   * Whether a failure of the combined query means that several statements can not be sent as one query: a syntax
+   * error, SQL state class {@code 42}, or an unsupported feature, class {@code 0A}.
+   */
+  private static boolean isRejected(Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLSyntaxErrorException || cause instanceof SQLFeatureNotSupportedException) {
+        return true;
+      }
+      if (cause instanceof SQLException) {
+        String state = ((SQLException) cause).getSQLState();
+        return state != null && (state.startsWith("42") || state.startsWith("0A"));
+      }
+    }
+    return false;
+  }
+
+  private void disableCombined(String reason) {
+    if (combine) {
+      combine = false;
+      log.warn(() -> "Running statements of " + id + " one by one, " + reason);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object value(int index, List<Object> rows) {
+    Class<?> type = propertyTypes[index];
+    if (type.isAssignableFrom(List.class)) {
+      return rows;
+    }
+    if (Collection.class.isAssignableFrom(type)) {
+      Collection<Object> collection = (Collection<Object>) configuration.getObjectFactory().create(type);
+      collection.addAll(rows);
+      return collection;
+    }
+    if (rows.size() > 1) {
+      throw new TooManyResultsException("Expected one result (or null) for " + properties[index] + " of " + id
+              + " from " + statementIds[index] + ", but found: " + rows.size());
+    }
+    return rows.isEmpty() ? null : rows.get(0);
+  }
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.deadline;
+
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The point in time by which mapper calls made within {@link #call(Supplier)} must complete, and a handle to cancel
+ * them early.
+ *
+ * Calls check their deadlines before they open a session, and again before every statement is prepared and before its
+ * results are mapped. Statements get a query timeout covering the remaining time, and are cancelled with
+ * {@code Statement.cancel()} when the deadline passes or {@link #cancel()} is called from another thread. Either way
+ * the call fails with a {@link DeadlineExceededException} and its connection goes back to the pool right away.
+ *
+ * Deadlines nest: a call made within several deadlines ends with the earliest one, and is cancelled by any of them.
+ * They apply to the thread running {@link #call(Supplier)} only, unless a task is handed to another thread through
+ * {@link #propagate(Callable)}. Statements that are prepared directly on the connection of a session rather than
+ * through MyBatis, such as the bounds of {@code @Partitioned} queries, the counts of {@code @Keyset} pages and the
+ * selects of {@code ResultFrame} methods, are not covered: their calls only check the deadline before the session is
+ * opened.
+ */
+public final class Deadline {
+  private static final Logger log = LoggerFactory.getLogger(Deadline.class);
+  private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+  private final long deadlineNanos;
+  private final Set<Execution> executions = ConcurrentHashMap.newKeySet();
+  private volatile boolean cancelled;
+
+  private Deadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @return a deadline {@code timeout} from now
+   */
+  public static Deadline after(Duration timeout) {
+    return after(timeout.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return a deadline {@code timeout} from now
+   */
+  public static Deadline after(long timeout, TimeUnit unit) {
+    long now = System.nanoTime();
+    long nanos = unit.toNanos(timeout);
+    return new Deadline(nanos >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos);
+  }
+
+  /**
+   * Runs {@code call} with this deadline applied to the mapper calls it makes on this thread.
+   */
+  public <T> T call(Supplier<T> call) {
+    Scope previous = CURRENT.get();
+    CURRENT.set(new Scope(this, previous));
+    try {
+      return call.get();
+    } finally {
+      restore(previous);
+    }
+  }
+
+  /**
+   * Returns a task running {@code task} within the deadlines of the current thread, to hand the task to another thread.
+   * The task runs without a deadline if the current thread has none.
+   */
+  public static <T> Callable<T> propagate(Callable<T> task) {
+    Scope scope = CURRENT.get();
+    if (scope == null) {
+      return task;
+    }
+    return () -> {
+      Scope previous = CURRENT.get();
+      CURRENT.set(scope);
+      try {
+        return task.call();
+      } finally {
+        restore(previous);
+      }
+    };
+  }
+
+  private static void restore(Scope previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Runs {@code call} on {@code executor} with this deadline applied. Cancelling the returned future cancels the
+   * deadline, which aborts the statement running at that moment.
+   */
+  public <T> CompletableFuture<T> supplyAsync(Supplier<T> call, Executor executor) {
+    CompletableFuture<T> future = new CompletableFuture<T>() {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean result = super.cancel(mayInterruptIfRunning);
+        Deadline.this.cancel();
+        return result;
+      }
+    };
+    executor.execute(() -> {
+      if (future.isDone()) {
+        return;
+      }
+      try {
+        future.complete(call(call));
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Cancels the calls made within this deadline: statements that are running are cancelled, later statements fail
+   * right away.
+   */
+  public void cancel() {
+    cancelled = true;
+    for (Execution execution : executions) {
+      execution.cancel();
+    }
+  }
+
+  /**
+   * @return whether {@link #cancel()} was called
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return whether the deadline passed
+   */
+  public boolean isExpired() {
+    return remainingNanos() <= 0;
+  }
+
+  /**
+   * @return the time left until the deadline, negative once it passed
+   */
+  public long remaining(TimeUnit unit) {
+    return unit.convert(remainingNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  private long remainingNanos() {
+    return deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos - System.nanoTime();
+  }
+
+  void register(Execution execution) {
+    executions.add(execution);
+    if (cancelled) {
+      execution.cancel();
+    }
+  }
+
+  void unregister(Execution execution) {
+    executions.remove(execution);
+  }
+
+  /**
+   * @return whether the current thread runs within a deadline
+   */
+  public static boolean isSet() {
+    return CURRENT.get() != null;
+  }
+
+  /**
+   * @return the deadlines of the current thread, innermost first, or {@code null} if there are none
+   */
+  static Scope current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Fails if a deadline of the current thread passed or was cancelled.
+   *
+   * @param what
+   *          the call or statement being started, for the message
+   * @throws DeadlineExceededException
+   *           if a deadline passed or was cancelled
+   */
+  public static void check(String what) {
+    Scope scope = CURRENT.get();
+    if (scope != null) {
+      scope.check(what);
+    }
+  }
+
+  /**
+   * The deadlines a thread runs within.
+   */
+  static final class Scope {
+    final Deadline deadline;
+    final Scope outer;
+
+    private Scope(Deadline deadline, Scope outer) {
+      this.deadline = deadline;
+      this.outer = outer;
+    }
+
+    long remainingNanos() {
+      long remaining = Long.MAX_VALUE;
+      for (Scope scope = this; scope != null; scope = scope.outer) {
+        remaining = Math.min(remaining, scope.deadline.remainingNanos());
+      }
+      return remaining;
+    }
+
+    boolean isCancelled() {
+      for (Scope scope = this; scope != null; scope = scope.outer) {
+        if (scope.deadline.cancelled) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    boolean isDone() {
+      return isCancelled() || remainingNanos() <= 0;
+    }
+
+    void check(String what) {
+      if (isCancelled()) {
+        throw new DeadlineExceededException("Cancelled before " + what);
+      }
+      if (remainingNanos() <= 0) {
+        throw new DeadlineExceededException("Deadline exceeded before " + what);
+      }
+    }
+
+    void register(Execution execution) {
+      for (Scope scope = this; scope != null; scope = scope.outer) {
+        scope.deadline.register(execution);
+      }
+    }
+
+    void unregister(Execution execution) {
+      for (Scope scope = this; scope != null; scope = scope.outer) {
+        scope.deadline.unregister(execution);
+      }
+    }
+  }
+
+  /**
+   * One execution of a statement, cancelled by the timer or by {@link #cancel()} from other threads. Once the execution
+   * finished, its statement may go back to a statement cache and be executed by another caller, so cancelling and
+   * finishing are serialized: a cancel that comes too late does nothing, and finishing waits for a running cancel.
+   */
+  static final class Execution {
+    private final Statement statement;
+    private boolean done;
+
+    Execution(Statement statement) {
+      this.statement = statement;
+    }
+
+    synchronized void cancel() {
+      if (done) {
+        return;
+      }
+      try {
+        statement.cancel();
+      } catch (SQLException e) {
+        log.debug(() -> "Failed to cancel statement: " + e.getMessage());
+      }
+    }
+
+    synchronized void finish() {
+      done = true;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.deadline;
+
+import io.micronaut.context.annotation.Value;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.session.ResultHandler;
+import org.micronaut.mybatis.annotation.Sharded;
+import org.micronaut.mybatis.annotation.Timeout;
+import org.micronaut.mybatis.plugin.OptionalInterceptor;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link Deadline}s of the current thread to the statements it runs. Statements of calls without a
+ * deadline only pay for a thread local lookup.
+ *
+ * Every configuration gets this plugin, so that deadlines set up in code apply to all mappers. With
+ * {@code mybatis.deadlines.programmatic} disabled, only configurations with {@link Timeout} methods or {@link Sharded}
+ * mappers, whose fan-out calls run within a deadline, get it, and calls of other mappers within a deadline fail.
+ *
+ * Statements are not prepared once a deadline passed or was cancelled. Prepared statements get a query timeout
+ * covering the remaining time, rounded up to whole seconds, unless they already have a shorter one. As drivers only
+ * enforce the timeout in seconds, if at all, running statements are also cancelled by a timer when the deadline
+ * passes, and right away when it is cancelled. Results that arrive after that are not mapped.
+ */
+@Singleton
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class, Integer.class }),
+        @Signature(type = StatementHandler.class, method = "query", args = { Statement.class, ResultHandler.class }),
+        @Signature(type = StatementHandler.class, method = "update", args = { Statement.class }),
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = { Statement.class })
+})
+public class DeadlineInterceptor implements OptionalInterceptor {
+  private final boolean programmatic;
+  private final ScheduledThreadPoolExecutor timer;
+
+  /**
+   * @param programmatic
+   *          whether every configuration gets this plugin, so that deadlines set up with {@link Deadline#call} apply
+   *          to all mappers, configured with {@code mybatis.deadlines.programmatic}. Enabled by default
+   */
+  @Inject
+  public DeadlineInterceptor(@Value("${mybatis.deadlines.programmatic:true}") boolean programmatic) {
+    this.programmatic = programmatic;
+    // the thread is only started by the first statement running within a deadline
+    this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-deadline");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.timer.setRemoveOnCancelPolicy(true);
+  }
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    Deadline.Scope scope = Deadline.current();
+    if (scope == null) {
+      return invocation.proceed();
+    }
+    if (invocation.getTarget() instanceof ResultSetHandler) {
+      // the statement returned, but too late: drop the results instead of mapping them
+      scope.check("mapping results");
+      return invocation.proceed();
+    }
+    if ("prepare".equals(invocation.getMethod().getName())) {
+      scope.check("preparing statement");
+      Statement statement = (Statement) invocation.proceed();
+      applyQueryTimeout(statement, scope.remainingNanos());
+      return statement;
+    }
+    return execute(invocation, scope, (Statement) invocation.getArgs()[0]);
+  }
+
+  private Object execute(Invocation invocation, Deadline.Scope scope, Statement statement) throws Throwable {
+    scope.check("executing statement");
+    Deadline.Execution execution = new Deadline.Execution(statement);
+    scope.register(execution);
+    long remaining = scope.remainingNanos();
+    ScheduledFuture<?> expiry = remaining == Long.MAX_VALUE ? null
+            : timer.schedule(execution::cancel, remaining, TimeUnit.NANOSECONDS);
+    try {
+      return invocation.proceed();
+    } catch (Exception e) {
+      if (scope.isDone()) {
+        throw new DeadlineExceededException((scope.isCancelled() ? "Cancelled" : "Deadline exceeded")
+                + " while executing statement", ExceptionUtil.unwrapThrowable(e));
+      }
+      throw e;
+    } finally {
+      // a timer task that already started can not be stopped, but it no longer cancels the statement
+      execution.finish();
+      if (expiry != null) {
+        expiry.cancel(false);
+      }
+      scope.unregister(execution);
+    }
+  }
+
+  private static void applyQueryTimeout(Statement statement, long remainingNanos) throws SQLException {
+    if (remainingNanos == Long.MAX_VALUE) {
+      return;
+    }
+    long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    int timeout = (int) Math.min(Integer.MAX_VALUE, seconds);
+    int current = statement.getQueryTimeout();
+    if (current == 0 || current > timeout) {
+      statement.setQueryTimeout(timeout);
+    }
+  }
+
+  @Override
+  public boolean isRequiredBy(Class<?> mapperInterface) {
+    return programmatic || mapperInterface.isAnnotationPresent(Sharded.class)
+            || OptionalInterceptor.hasAnnotatedMethod(mapperInterface, Timeout.class);
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+
+  @PreDestroy
+  public void close() {
+    timer.shutdownNow();
+  }
+}
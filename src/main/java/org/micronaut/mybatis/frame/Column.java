@@ -0,0 +1,78 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.frame;
+
+import java.util.BitSet;
+
+/**
+ * A column of a {@link ResultFrame}. Values are stored in one array per column, typed by the subclass.
+ */
+public abstract class Column {
+  private final String name;
+  final BitSet nulls;
+  final int size;
+
+  Column(String name, BitSet nulls, int size) {
+    this.name = name;
+    this.nulls = nulls;
+    this.size = size;
+  }
+
+  /**
+   * @return the label of the column in the result set
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return whether the value of the row is SQL {@code NULL}
+   */
+  public boolean isNull(int row) {
+    checkIndex(row);
+    return nulls.get(row);
+  }
+
+  /**
+   * @return the number of values that are not {@code NULL}
+   */
+  public int countNonNull() {
+    return size - nulls.cardinality();
+  }
+
+  /**
+   * @return the value of the row, boxed, {@code null} for SQL {@code NULL}
+   */
+  public abstract Object getObject(int row);
+
+  final void checkIndex(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + name + ", " + size + " rows]";
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.frame;
+
+import java.util.BitSet;
+import java.util.OptionalDouble;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * A floating point column, stored as a {@code double[]}. {@code NULL} values are stored as {@code NaN} and skipped by
+ * the aggregations.
+ */
+public final class DoubleColumn extends Column {
+  private final double[] values;
+
+  DoubleColumn(String name, double[] values, BitSet nulls, int size) {
+    super(name, nulls, size);
+    this.values = values;
+  }
+
+  /**
+   * @return the value of the row, {@code NaN} for SQL {@code NULL}
+   */
+  public double get(int row) {
+    checkIndex(row);
+    return values[row];
+  }
+
+  @Override
+  public Object getObject(int row) {
+    return isNull(row) ? null : values[row];
+  }
+
+  /**
+   * @return the sum of the values
+   */
+  public double sum() {
+    double sum = 0;
+    for (int i = 0; i < size; i++) {
+      if (!nulls.get(i)) {
+        sum += values[i];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return the smallest value, empty if all values are {@code NULL}
+   */
+  public OptionalDouble min() {
+    return stream().min();
+  }
+
+  /**
+   * @return the largest value, empty if all values are {@code NULL}
+   */
+  public OptionalDouble max() {
+    return stream().max();
+  }
+
+  /**
+   * @return the average of the values, empty if all values are {@code NULL}
+   */
+  public OptionalDouble average() {
+    int count = countNonNull();
+    return count == 0 ? OptionalDouble.empty() : OptionalDouble.of(sum() / count);
+  }
+
+  /**
+   * @return the values that are not {@code NULL}
+   */
+  public DoubleStream stream() {
+    if (nulls.isEmpty()) {
+      return DoubleStream.of(values);
+    }
+    return IntStream.range(0, size).filter(i -> !nulls.get(i)).mapToDouble(i -> values[i]);
+  }
+}
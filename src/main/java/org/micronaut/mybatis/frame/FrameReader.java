@@ -0,0 +1,216 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.frame;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a {@code ResultSet} into growable column arrays. The type of every column is chosen once from the result set
+ * metadata.
+ */
+final class FrameReader {
+  private static final int INITIAL_CAPACITY = 256;
+
+  private FrameReader() {
+  }
+
+  static ResultFrame read(ResultSet resultSet, int offset, int limit) throws SQLException {
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    ColumnReader[] readers = new ColumnReader[metaData.getColumnCount()];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = reader(metaData, i + 1);
+    }
+
+    for (int skipped = 0; skipped < offset && resultSet.next(); skipped++) {
+      // skip the rows before the offset, like MyBatis does for RowBounds
+    }
+    int rows = 0;
+    while (rows < limit && resultSet.next()) {
+      for (ColumnReader reader : readers) {
+        reader.read(resultSet, rows);
+      }
+      rows++;
+    }
+
+    List<Column> columns = new ArrayList<>(readers.length);
+    for (ColumnReader reader : readers) {
+      columns.add(reader.finish(rows));
+    }
+    return new ResultFrame(columns, rows);
+  }
+
+  private static ColumnReader reader(ResultSetMetaData metaData, int index) throws SQLException {
+    String name = metaData.getColumnLabel(index);
+    switch (metaData.getColumnType(index)) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return new LongReader(name, index);
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        if (metaData.getScale(index) == 0 && metaData.getPrecision(index) > 0 && metaData.getPrecision(index) <= 18) {
+          return new LongReader(name, index);
+        }
+        return new ObjectReader(name, index);
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return new DoubleReader(name, index);
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return new StringReader(name, index);
+      default:
+        return new ObjectReader(name, index);
+    }
+  }
+
+  private abstract static class ColumnReader {
+    final String name;
+    final int index;
+    final BitSet nulls = new BitSet();
+
+    ColumnReader(String name, int index) {
+      this.name = name;
+      this.index = index;
+    }
+
+    abstract void read(ResultSet resultSet, int row) throws SQLException;
+
+    abstract Column finish(int size);
+  }
+
+  private static final class LongReader extends ColumnReader {
+    private long[] values = new long[INITIAL_CAPACITY];
+
+    LongReader(String name, int index) {
+      super(name, index);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, row * 2);
+      }
+      values[row] = resultSet.getLong(index);
+      if (resultSet.wasNull()) {
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    Column finish(int size) {
+      return new LongColumn(name, Arrays.copyOf(values, size), nulls, size);
+    }
+  }
+
+  private static final class DoubleReader extends ColumnReader {
+    private double[] values = new double[INITIAL_CAPACITY];
+
+    DoubleReader(String name, int index) {
+      super(name, index);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, row * 2);
+      }
+      values[row] = resultSet.getDouble(index);
+      if (resultSet.wasNull()) {
+        values[row] = Double.NaN;
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    Column finish(int size) {
+      return new DoubleColumn(name, Arrays.copyOf(values, size), nulls, size);
+    }
+  }
+
+  private static final class StringReader extends ColumnReader {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private int[] values = new int[INITIAL_CAPACITY];
+
+    StringReader(String name, int index) {
+      super(name, index);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, row * 2);
+      }
+      String value = resultSet.getString(index);
+      if (value == null) {
+        values[row] = -1;
+        nulls.set(row);
+        return;
+      }
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        codes.put(value, code);
+        dictionary.add(value);
+      }
+      values[row] = code;
+    }
+
+    @Override
+    Column finish(int size) {
+      return new StringColumn(name, Arrays.copyOf(values, size), new ArrayList<>(dictionary), nulls, size);
+    }
+  }
+
+  private static final class ObjectReader extends ColumnReader {
+    private Object[] values = new Object[INITIAL_CAPACITY];
+
+    ObjectReader(String name, int index) {
+      super(name, index);
+    }
+
+    @Override
+    void read(ResultSet resultSet, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, row * 2);
+      }
+      values[row] = resultSet.getObject(index);
+      if (values[row] == null) {
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    Column finish(int size) {
+      return new ObjectColumn(name, Arrays.copyOf(values, size), nulls, size);
+    }
+  }
+}
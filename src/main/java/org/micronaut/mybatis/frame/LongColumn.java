@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.frame;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * An integral column, stored as a {@code long[]}. {@code NULL} values are stored as {@code 0} and skipped by the
+ * aggregations.
+ */
+public final class LongColumn extends Column {
+  private final long[] values;
+
+  LongColumn(String name, long[] values, BitSet nulls, int size) {
+    super(name, nulls, size);
+    this.values = values;
+  }
+
+  /**
+   * @return the value of the row, {@code 0} for SQL {@code NULL}
+   */
+  public long get(int row) {
+    checkIndex(row);
+    return values[row];
+  }
+
+  @Override
+  public Object getObject(int row) {
+    return isNull(row) ? null : values[row];
+  }
+
+  /**
+   * @return the sum of the values
+   * @throws ArithmeticException
+   *           if the sum overflows a {@code long}, see {@link #bigSum()}
+   */
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < size; i++) {
+      sum = Math.addExact(sum, values[i]);
+    }
+    return sum;
+  }
+
+  /**
+   * @return the sum of the values, which may exceed the range of a {@code long}
+   */
+  public BigInteger bigSum() {
+    try {
+      return BigInteger.valueOf(sum());
+    } catch (ArithmeticException e) {
+      BigInteger sum = BigInteger.ZERO;
+      for (int i = 0; i < size; i++) {
+        sum = sum.add(BigInteger.valueOf(values[i]));
+      }
+      return sum;
+    }
+  }
+
+  /**
+   * @return the smallest value, empty if all values are {@code NULL}
+   */
+  public OptionalLong min() {
+    return stream().min();
+  }
+
+  /**
+   * @return the largest value, empty if all values are {@code NULL}
+   */
+  public OptionalLong max() {
+    return stream().max();
+  }
+
+  /**
+   * @return the average of the values, empty if all values are {@code NULL}
+   */
+  public OptionalDouble average() {
+    int count = countNonNull();
+    return count == 0 ? OptionalDouble.empty() : OptionalDouble.of(bigSum().doubleValue() / count);
+  }
+
+  /**
+   * @return the values that are not {@code NULL}
+   */
+  public LongStream stream() {
+    if (nulls.isEmpty()) {
+      return LongStream.of(values);
+    }
+    return IntStream.range(0, size).filter(i -> !nulls.get(i)).mapToLong(i -> values[i]);
+  }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.frame;
+
+import java.util.BitSet;
+
+/**
+ * A column of any other type, stored as the objects returned by {@code ResultSet.getObject}.
+ */
+public final class ObjectColumn extends Column {
+  private final Object[] values;
+
+  ObjectColumn(String name, Object[] values, BitSet nulls, int size) {
+    super(name, nulls, size);
+    this.values = values;
+  }
+
+  @Override
+  public Object getObject(int row) {
+    checkIndex(row);
+    return values[row];
+  }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.frame;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Columnar result of a {@code @Select} method: one array per column instead of one object per row. Integral columns
+ * are stored as {@code long[]}, floating point columns as {@code double[]} and text columns dictionary-encoded as
+ * {@code int[]}; other columns keep the objects returned by the driver. {@code DECIMAL} columns with a scale are kept
+ * as {@code BigDecimal}s, so that no precision is lost.
+ *
+ * A mapper method returning {@code ResultFrame} runs its statement directly on the session's connection and reads the
+ * result set column by column, without result maps, type handlers or the local cache. Column names are matched
+ * ignoring case.
+ */
+public final class ResultFrame implements Iterable<ResultFrame.Row> {
+  private final List<Column> columns;
+  private final Map<String, Integer> indexes = new HashMap<>();
+  private final int rowCount;
+
+  ResultFrame(List<Column> columns, int rowCount) {
+    this.columns = Collections.unmodifiableList(columns);
+    this.rowCount = rowCount;
+    for (int i = columns.size() - 1; i >= 0; i--) {
+      indexes.put(columns.get(i).getName().toUpperCase(Locale.ROOT), i);
+    }
+  }
+
+  /**
+   * Runs a select statement into a frame.
+   *
+   * @param sqlSession
+   *          the session whose connection runs the statement
+   * @param statementId
+   *          the id of the mapped statement
+   * @param parameter
+   *          the parameter object of the statement
+   * @param rowBounds
+   *          the rows to read
+   */
+  public static ResultFrame select(SqlSession sqlSession, String statementId, Object parameter, RowBounds rowBounds) {
+    Configuration configuration = sqlSession.getConfiguration();
+    MappedStatement statement = configuration.getMappedStatement(statementId);
+    BoundSql boundSql = statement.getBoundSql(parameter);
+    try (PreparedStatement preparedStatement = sqlSession.getConnection().prepareStatement(boundSql.getSql())) {
+      Integer fetchSize = statement.getFetchSize() != null ? statement.getFetchSize() : configuration.getDefaultFetchSize();
+      if (fetchSize != null) {
+        preparedStatement.setFetchSize(fetchSize);
+      }
+      Integer timeout = statement.getTimeout() != null ? statement.getTimeout() : configuration.getDefaultStatementTimeout();
+      if (timeout != null) {
+        preparedStatement.setQueryTimeout(timeout);
+      }
+      new DefaultParameterHandler(statement, parameter, boundSql).setParameters(preparedStatement);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return FrameReader.read(resultSet, rowBounds.getOffset(), rowBounds.getLimit());
+      }
+    } catch (SQLException e) {
+      throw new PersistenceException("Error querying frame of " + statementId + ". Cause: " + e, e);
+    }
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return the number of columns
+   */
+  public int getColumnCount() {
+    return columns.size();
+  }
+
+  /**
+   * @return the columns, in the order of the result set
+   */
+  public List<Column> getColumns() {
+    return columns;
+  }
+
+  /**
+   * @return the labels of the columns, in the order of the result set
+   */
+  public List<String> getColumnNames() {
+    List<String> names = new ArrayList<>(columns.size());
+    for (Column column : columns) {
+      names.add(column.getName());
+    }
+    return names;
+  }
+
+  /**
+   * @return the column at {@code index}, starting from {@code 0}
+   */
+  public Column getColumn(int index) {
+    return columns.get(index);
+  }
+
+  /**
+   * @return the column with the given label
+   * @throws NoSuchElementException
+   *           if there is no such column
+   */
+  public Column getColumn(String name) {
+    return columns.get(indexOf(name));
+  }
+
+  /**
+   * @return the column with the given label and type
+   * @throws NoSuchElementException
+   *           if there is no such column
+   * @throws ClassCastException
+   *           if the column is stored differently
+   */
+  public <C extends Column> C getColumn(String name, Class<C> type) {
+    Column column = getColumn(name);
+    if (!type.isInstance(column)) {
+      throw new ClassCastException("Column " + name + " is a " + column.getClass().getSimpleName()
+              + ", not a " + type.getSimpleName());
+    }
+    return type.cast(column);
+  }
+
+  /**
+   * @return the index of the column with the given label
+   * @throws NoSuchElementException
+   *           if there is no such column
+   */
+  public int indexOf(String name) {
+    Integer index = indexes.get(name.toUpperCase(Locale.ROOT));
+    if (index == null) {
+      throw new NoSuchElementException("No column " + name + " in " + getColumnNames());
+    }
+    return index;
+  }
+
+  /**
+   * @return a view of the row at {@code index}
+   */
+  public Row getRow(int index) {
+    if (index < 0 || index >= rowCount) {
+      throw new IndexOutOfBoundsException("Row: " + index + ", Size: " + rowCount);
+    }
+    return new Row(index);
+  }
+
+  @Override
+  public Iterator<Row> iterator() {
+    return new Iterator<Row>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < rowCount;
+      }
+
+      @Override
+      public Row next() {
+        if (next >= rowCount) {
+          throw new NoSuchElementException();
+        }
+        return new Row(next++);
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "ResultFrame" + getColumnNames() + "[" + rowCount + " rows]";
+  }
+
+  /**
+   * View of one row of the frame, reading from the column arrays.
+   */
+  public final class Row {
+    private final int index;
+
+    private Row(int index) {
+      this.index = index;
+    }
+
+    /**
+     * @return the index of the row
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    public boolean isNull(String column) {
+      return getColumn(column).isNull(index);
+    }
+
+    public long getLong(String column) {
+      return getColumn(column, LongColumn.class).get(index);
+    }
+
+    public double getDouble(String column) {
+      Column values = getColumn(column);
+      if (values instanceof LongColumn) {
+        return ((LongColumn) values).get(index);
+      }
+      return getColumn(column, DoubleColumn.class).get(index);
+    }
+
+    public String getString(String column) {
+      Column values = getColumn(column);
+      if (values instanceof StringColumn) {
+        return ((StringColumn) values).get(index);
+      }
+      Object value = values.getObject(index);
+      return value == null ? null : value.toString();
+    }
+
+    public Object getObject(String column) {
+      return getColumn(column).getObject(index);
+    }
+
+    public Object getObject(int column) {
+      return getColumn(column).getObject(index);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder("Row[");
+      for (int i = 0; i < columns.size(); i++) {
+        builder.append(i == 0 ? "" : ", ").append(columns.get(i).getName()).append('=').append(getObject(i));
+      }
+      return builder.append(']').toString();
+    }
+  }
+}
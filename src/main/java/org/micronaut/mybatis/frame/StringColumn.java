@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.frame;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dictionary-encoded text column: every distinct value is stored once, rows store the {@code int} code of their
+ * value.
+ */
+public final class StringColumn extends Column {
+  private final int[] codes;
+  private final List<String> dictionary;
+
+  StringColumn(String name, int[] codes, List<String> dictionary, BitSet nulls, int size) {
+    super(name, nulls, size);
+    this.codes = codes;
+    this.dictionary = Collections.unmodifiableList(dictionary);
+  }
+
+  /**
+   * @return the value of the row, {@code null} for SQL {@code NULL}
+   */
+  public String get(int row) {
+    int code = getCode(row);
+    return code < 0 ? null : dictionary.get(code);
+  }
+
+  @Override
+  public Object getObject(int row) {
+    return get(row);
+  }
+
+  /**
+   * @return the index of the value of the row in the {@link #getDictionary() dictionary}, {@code -1} for SQL
+   *         {@code NULL}
+   */
+  public int getCode(int row) {
+    checkIndex(row);
+    return codes[row];
+  }
+
+  /**
+   * @return the distinct values, in the order of their first row
+   */
+  public List<String> getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * @return the number of rows of every distinct value, in the order of the dictionary
+   */
+  public Map<String, Integer> countByValue() {
+    int[] counts = new int[dictionary.size()];
+    for (int i = 0; i < size; i++) {
+      if (codes[i] >= 0) {
+        counts[codes[i]]++;
+      }
+    }
+    Map<String, Integer> result = new LinkedHashMap<>();
+    for (int code = 0; code < counts.length; code++) {
+      result.put(dictionary.get(code), counts[code]);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.intern;
+
+import org.micronaut.mybatis.annotation.Intern;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What an {@link Intern} mapper method shares among the rows of a call.
+ */
+public final class InternPlan {
+  private final String statementId;
+  private final Set<String> columns;
+  private final boolean rows;
+  private final int maxValues;
+
+  /**
+   * @param intern
+   *          the annotation of the mapper method
+   * @param statementId
+   *          the statement of the mapper method
+   */
+  public InternPlan(Intern intern, String statementId) {
+    if (intern.maxValues() <= 0) {
+      throw new IllegalStateException("@Intern maxValues must be positive, got " + intern.maxValues());
+    }
+    this.statementId = statementId;
+    if (intern.value().length == 0) {
+      this.columns = null;
+    } else {
+      this.columns = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+      for (String column : intern.value()) {
+        columns.add(column.trim());
+      }
+    }
+    this.rows = intern.rows();
+    this.maxValues = intern.maxValues();
+  }
+
+  String getStatementId() {
+    return statementId;
+  }
+
+  /**
+   * @return whether the values of all text columns are shared
+   */
+  boolean internsAll() {
+    return columns == null;
+  }
+
+  /**
+   * @return whether the values of the column with this label are shared
+   */
+  boolean interns(String column) {
+    return columns == null || column != null && columns.contains(column);
+  }
+
+  boolean dedupsRows() {
+    return rows;
+  }
+
+  int getMaxValues() {
+    return maxValues;
+  }
+
+  @Override
+  public String toString() {
+    return "InternPlan{columns=" + (columns == null ? "*" : columns)
+            + ", rows=" + rows + ", maxValues=" + maxValues + "}";
+  }
+}
@@ -0,0 +1,367 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.intern;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+import org.micronaut.mybatis.annotation.Intern;
+import org.micronaut.mybatis.plugin.OptionalInterceptor;
+
+import javax.inject.Singleton;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Shares repeated values and rows among the results of {@link org.micronaut.mybatis.annotation.Intern} mapper calls.
+ * Result sets are read through a proxy that returns the first instance of every text value it saw in the call, before
+ * type handlers and object mapping get to them; equal rows are replaced once mapped, in the result list or before they
+ * reach the {@code ResultHandler} of the query. Only configurations with {@code @Intern} methods get this plugin, and
+ * their statements of other calls only pay for a thread local lookup.
+ *
+ * The memory saved is estimated from the size of the {@code String}s and rows that were dropped for a shared
+ * instance, and reported by {@link #getSavedBytes()}.
+ */
+@Singleton
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = { Statement.class })
+})
+public class InterningInterceptor implements OptionalInterceptor {
+  private static final Logger log = LoggerFactory.getLogger(InterningInterceptor.class);
+  private static final ThreadLocal<Dictionary> CURRENT = new ThreadLocal<>();
+
+  // object header, hash and value array reference of a String, plus the header of its array
+  private static final int STRING_OVERHEAD = 40;
+  private static final int BYTES_PER_CHAR = System.getProperty("java.specification.version").startsWith("1.") ? 2 : 1;
+  // object header of a row, its fields are shared anyway
+  private static final int ROW_OVERHEAD = 16;
+
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong sharedValues = new AtomicLong();
+  private final AtomicLong sharedRows = new AtomicLong();
+  private final AtomicLong savedBytes = new AtomicLong();
+
+  /**
+   * Runs {@code call} with the values and rows of its results shared as described by {@code plan}.
+   */
+  public <T> T apply(InternPlan plan, Supplier<T> call) {
+    Dictionary previous = CURRENT.get();
+    Dictionary dictionary = new Dictionary(plan);
+    CURRENT.set(dictionary);
+    try {
+      return call.get();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+      record(dictionary);
+    }
+  }
+
+  private void record(Dictionary dictionary) {
+    long bytes = dictionary.sharedValues * STRING_OVERHEAD + dictionary.sharedChars * BYTES_PER_CHAR
+            + dictionary.sharedRows * ROW_OVERHEAD;
+    calls.incrementAndGet();
+    sharedValues.addAndGet(dictionary.sharedValues);
+    sharedRows.addAndGet(dictionary.sharedRows);
+    savedBytes.addAndGet(bytes);
+    log.debug(() -> dictionary.plan.getStatementId() + " shared " + dictionary.sharedValues + " values and "
+            + dictionary.sharedRows + " rows, saving about " + bytes + " bytes");
+  }
+
+  /**
+   * @return the number of calls of {@code @Intern} methods
+   */
+  public long getCalls() {
+    return calls.get();
+  }
+
+  /**
+   * @return the number of values replaced by an equal value read before in the same call
+   */
+  public long getSharedValues() {
+    return sharedValues.get();
+  }
+
+  /**
+   * @return the number of rows replaced by an equal row mapped before in the same call
+   */
+  public long getSharedRows() {
+    return sharedRows.get();
+  }
+
+  /**
+   * @return an estimate of the heap not taken by shared values and rows, in bytes
+   */
+  public long getSavedBytes() {
+    return savedBytes.get();
+  }
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    Dictionary dictionary = CURRENT.get();
+    if (dictionary == null) {
+      return invocation.proceed();
+    }
+    Object[] args = invocation.getArgs();
+    if (invocation.getTarget() instanceof Executor) {
+      if (dictionary.plan.dedupsRows() && args[3] != null) {
+        args[3] = new RowSharingResultHandler((ResultHandler<?>) args[3], dictionary);
+      }
+      return invocation.proceed();
+    }
+    args[0] = Proxy.newProxyInstance(
+            InterningInterceptor.class.getClassLoader(),
+            new Class<?>[] { Statement.class },
+            new StatementInvocationHandler((Statement) args[0], dictionary));
+    List<?> result = (List<?>) invocation.proceed();
+    if (dictionary.plan.dedupsRows()) {
+      dictionary.shareRows(result);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean isRequiredBy(Class<?> mapperInterface) {
+    return OptionalInterceptor.hasAnnotatedMethod(mapperInterface, Intern.class);
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+
+  private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * The values and rows seen so far in a call. Calls run on one thread.
+   */
+  private static final class Dictionary {
+    private final InternPlan plan;
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<Object, Object> rows;
+    private long sharedValues;
+    private long sharedChars;
+    private long sharedRows;
+
+    private Dictionary(InternPlan plan) {
+      this.plan = plan;
+      this.rows = plan.dedupsRows() ? new HashMap<>() : null;
+    }
+
+    private String share(String value) {
+      String shared = values.get(value);
+      if (shared != null) {
+        if (shared != value) {
+          sharedValues++;
+          sharedChars += value.length();
+        }
+        return shared;
+      }
+      if (values.size() < plan.getMaxValues()) {
+        values.put(value, value);
+      }
+      return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void shareRows(List<?> result) {
+      List<Object> list = (List<Object>) result;
+      for (int i = 0; i < list.size(); i++) {
+        Object row = list.get(i);
+        if (row instanceof List) {
+          // one list of rows per result set of a statement with several result maps
+          shareRows((List<?>) row);
+        } else if (row != null) {
+          Object shared = shareRow(row);
+          if (shared != row) {
+            list.set(i, shared);
+          }
+        }
+      }
+    }
+
+    private Object shareRow(Object row) {
+      Object shared = rows.get(row);
+      if (shared == null) {
+        if (rows.size() < plan.getMaxValues()) {
+          rows.put(row, row);
+        }
+        return row;
+      }
+      if (shared != row) {
+        sharedRows++;
+      }
+      return shared;
+    }
+  }
+
+  /**
+   * Replaces the rows handed to the {@code ResultHandler} of a query by an equal row handed before in the same call.
+   */
+  private static final class RowSharingResultHandler implements ResultHandler<Object> {
+    private final ResultHandler<Object> handler;
+    private final Dictionary dictionary;
+
+    @SuppressWarnings("unchecked")
+    private RowSharingResultHandler(ResultHandler<?> handler, Dictionary dictionary) {
+      this.handler = (ResultHandler<Object>) handler;
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    public void handleResult(ResultContext<?> context) {
+      Object row = context.getResultObject();
+      Object shared = row == null ? null : dictionary.shareRow(row);
+      if (shared == row) {
+        handler.handleResult(context);
+        return;
+      }
+      handler.handleResult(new ResultContext<Object>() {
+        @Override
+        public Object getResultObject() {
+          return shared;
+        }
+
+        @Override
+        public int getResultCount() {
+          return context.getResultCount();
+        }
+
+        @Override
+        public boolean isStopped() {
+          return context.isStopped();
+        }
+
+        @Override
+        public void stop() {
+          context.stop();
+        }
+      });
+    }
+  }
+
+  private static final class StatementInvocationHandler implements InvocationHandler {
+    private final Statement statement;
+    private final Dictionary dictionary;
+
+    private StatementInvocationHandler(Statement statement, Dictionary dictionary) {
+      this.statement = statement;
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "getResultSet":
+          ResultSet resultSet = statement.getResultSet();
+          return resultSet == null ? null : Proxy.newProxyInstance(
+                  InterningInterceptor.class.getClassLoader(),
+                  new Class<?>[] { ResultSet.class },
+                  new ResultSetInvocationHandler(resultSet, dictionary));
+        default:
+          return InterningInterceptor.invoke(method, statement, args);
+      }
+    }
+  }
+
+  private static final class ResultSetInvocationHandler implements InvocationHandler {
+    private final ResultSet resultSet;
+    private final Dictionary dictionary;
+    private String[] labels;
+
+    private ResultSetInvocationHandler(ResultSet resultSet, Dictionary dictionary) {
+      this.resultSet = resultSet;
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "getString":
+        case "getNString":
+        case "getObject":
+          Object value = InterningInterceptor.invoke(method, resultSet, args);
+          if (value instanceof String
+                  && (dictionary.plan.internsAll() || dictionary.plan.interns(label(args[0])))) {
+            return dictionary.share((String) value);
+          }
+          return value;
+        default:
+          return InterningInterceptor.invoke(method, resultSet, args);
+      }
+    }
+
+    private String label(Object column) throws SQLException {
+      if (!(column instanceof Integer)) {
+        return (String) column;
+      }
+      if (labels == null) {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        labels = new String[metaData.getColumnCount() + 1];
+        for (int i = 1; i < labels.length; i++) {
+          labels[i] = metaData.getColumnLabel(i);
+        }
+      }
+      int index = (Integer) column;
+      return index > 0 && index < labels.length ? labels[index] : null;
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.jdbc;
+
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of {@link PreparedStatement}s prepared on a single physical connection.
+ *
+ * Instances are owned by {@link StatementCachingDataSource}, one per physical connection. A physical connection is
+ * only ever used by one thread at a time, but it moves between threads as it goes in and out of the pool, so all
+ * access is synchronized.
+ */
+class PreparedStatementCache {
+  private static final Logger log = LoggerFactory.getLogger(PreparedStatementCache.class);
+
+  private final Map<Key, CachedStatement> entries;
+
+  PreparedStatementCache(int maxSize) {
+    this.entries = new LruMap(maxSize);
+  }
+
+  /**
+   * Borrows a cached statement for the given {@code prepareStatement} arguments.
+   *
+   * @return the cache entry, or {@code null} if a statement for these arguments is cached but already in use
+   */
+  synchronized CachedStatement borrow(Key key, StatementPreparer preparer) throws SQLException {
+    CachedStatement entry = entries.get(key);
+    if (entry == null) {
+      entry = new CachedStatement(key, preparer.prepare());
+      entries.put(key, entry);
+    } else if (entry.inUse) {
+      return null;
+    }
+    entry.inUse = true;
+    return entry;
+  }
+
+  synchronized void release(CachedStatement entry) {
+    entry.inUse = false;
+    if (entry.evicted) {
+      entry.close();
+    }
+  }
+
+  /**
+   * Removes a borrowed statement from the cache and closes it, for statements that can not be safely reused.
+   */
+  synchronized void discard(CachedStatement entry) {
+    entries.remove(entry.key, entry);
+    entry.inUse = false;
+    entry.close();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  synchronized void clear() {
+    Iterator<CachedStatement> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      iterator.next().evict();
+      iterator.remove();
+    }
+  }
+
+  interface StatementPreparer {
+    PreparedStatement prepare() throws SQLException;
+  }
+
+  /**
+   * Cache key made of the arguments passed to one of the {@code Connection.prepareStatement} overloads.
+   */
+  static final class Key {
+    private final Object[] arguments;
+    private final int hashCode;
+
+    Key(Object[] arguments) {
+      this.arguments = arguments;
+      this.hashCode = Arrays.deepHashCode(arguments);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && Arrays.deepEquals(arguments, ((Key) obj).arguments);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /**
+   * Access ordered map that evicts its least recently used statement beyond the maximum size.
+   */
+  private static final class LruMap extends LinkedHashMap<Key, CachedStatement> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+
+    private LruMap(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, CachedStatement> eldest) {
+      if (size() > maxSize) {
+        eldest.getValue().evict();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  static final class CachedStatement {
+    final PreparedStatement statement;
+    private final Key key;
+    private boolean inUse;
+    private boolean evicted;
+
+    private CachedStatement(Key key, PreparedStatement statement) {
+      this.key = key;
+      this.statement = statement;
+    }
+
+    private void evict() {
+      evicted = true;
+      if (!inUse) {
+        close();
+      }
+    }
+
+    private void close() {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        log.debug(() -> "Failed to close evicted statement: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.jdbc;
+
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@code DataSource} decorator that keeps prepared statements alive across sessions that happen to use the same
+ * pooled connection.
+ *
+ * MyBatis executors close every statement when the {@code SqlSession} is closed, and connection pools close the
+ * statements they track when a connection is returned. To survive both, statements are prepared on the physical
+ * connection obtained with {@code Connection.unwrap(Connection.class)} and kept in a bounded LRU cache per physical
+ * connection. Closing a statement handed out by this data source resets it and returns it to the cache, and so does
+ * closing the connection it was prepared on, in place of the pool closing statements that were leaked. Caches of
+ * physical connections closed by the pool are dropped whenever the pool opens a new physical connection.
+ *
+ * Statements executed on the physical connection bypass the pool's own statement tracking, so only selects are
+ * cached. Every other statement is prepared on the pooled connection as usual, so pools that roll back "dirty"
+ * connections on return still notice writes.
+ */
+public class StatementCachingDataSource implements DataSource {
+  private static final Logger log = LoggerFactory.getLogger(StatementCachingDataSource.class);
+
+  private static final int FETCH_SIZE = 1;
+  private static final int QUERY_TIMEOUT = 1 << 1;
+  private static final int MAX_ROWS = 1 << 2;
+  private static final int MAX_FIELD_SIZE = 1 << 3;
+  private static final int FETCH_DIRECTION = 1 << 4;
+  private static final int BATCH = 1 << 5;
+  private static final int UNRECOVERABLE = 1 << 6;
+
+  private final DataSource target;
+  private final int cacheSize;
+  private final Map<Connection, PreparedStatementCache> caches = new ConcurrentHashMap<>();
+
+  /**
+   * @param target
+   *          the data source to obtain connections from, usually a connection pool
+   * @param cacheSize
+   *          the maximum number of statements cached per physical connection
+   */
+  public StatementCachingDataSource(DataSource target, int cacheSize) {
+    if (cacheSize <= 0) {
+      throw new IllegalArgumentException("Statement cache size must be positive, got " + cacheSize);
+    }
+    this.target = target;
+    this.cacheSize = cacheSize;
+  }
+
+  /**
+   * @return the decorated data source
+   */
+  public DataSource getTargetDataSource() {
+    return target;
+  }
+
+  /**
+   * @return the number of statements currently cached over all physical connections
+   */
+  public int getCachedStatementCount() {
+    return caches.values().stream().mapToInt(PreparedStatementCache::size).sum();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return wrap(target.getConnection());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return wrap(target.getConnection(username, password));
+  }
+
+  private Connection wrap(Connection connection) throws SQLException {
+    Connection physical = physicalConnection(connection);
+    PreparedStatementCache cache = caches.get(physical);
+    if (cache == null) {
+      // a physical connection the pool has not handed out before, likely replacing one it has closed
+      evictClosedConnections();
+      cache = caches.computeIfAbsent(physical, c -> new PreparedStatementCache(cacheSize));
+    }
+    return (Connection) Proxy.newProxyInstance(
+            StatementCachingDataSource.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new ConnectionInvocationHandler(connection, physical, cache));
+  }
+
+  private static Connection physicalConnection(Connection connection) {
+    try {
+      Connection physical = connection.unwrap(Connection.class);
+      return physical == null ? connection : physical;
+    } catch (SQLException e) {
+      return connection;
+    }
+  }
+
+  private void evictClosedConnections() {
+    Iterator<Map.Entry<Connection, PreparedStatementCache>> iterator = caches.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Connection, PreparedStatementCache> entry = iterator.next();
+      if (isClosed(entry.getKey())) {
+        iterator.remove();
+        entry.getValue().clear();
+        log.debug(() -> "Dropped statement cache of closed connection: '" + entry.getKey() + "'");
+      }
+    }
+  }
+
+  private static boolean isClosed(Connection connection) {
+    try {
+      return connection.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  /**
+   * @return whether {@code sql} is a select, after leading white space, comments and parentheses
+   */
+  static boolean isSelect(String sql) {
+    int i = 0;
+    int length = sql.length();
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c) || c == '(') {
+        i++;
+      } else if (sql.startsWith("--", i)) {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? length : end + 1;
+      } else if (sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else {
+        break;
+      }
+    }
+    return sql.regionMatches(true, i, "select", 0, 6)
+            && (i + 6 == length || !Character.isJavaIdentifierPart(sql.charAt(i + 6)));
+  }
+
+  private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static PreparedStatement prepare(Method method, Connection connection, Object[] args) throws SQLException {
+    try {
+      return (PreparedStatement) method.invoke(connection, args);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      throw new SQLException(e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return target.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    target.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    target.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return target.getLoginTimeout();
+  }
+
+  @Override
+  public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return target.getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    return target.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || target.isWrapperFor(iface);
+  }
+
+  private static final class ConnectionInvocationHandler implements InvocationHandler {
+    private final Connection connection;
+    private final Connection physical;
+    private final PreparedStatementCache cache;
+    private final List<StatementInvocationHandler> statements = new ArrayList<>();
+    private boolean closed;
+
+    private ConnectionInvocationHandler(Connection connection, Connection physical, PreparedStatementCache cache) {
+      this.connection = connection;
+      this.physical = physical;
+      this.cache = cache;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "close":
+          if (!closed) {
+            closed = true;
+            releaseStatements();
+          }
+          break;
+        case "prepareStatement":
+          if (!closed && isSelect((String) args[0])) {
+            PreparedStatementCache.CachedStatement entry = cache.borrow(
+                    new PreparedStatementCache.Key(args),
+                    () -> prepare(method, physical, args));
+            if (entry != null) {
+              StatementInvocationHandler handler = new StatementInvocationHandler((Connection) proxy, this, entry);
+              statements.add(handler);
+              return Proxy.newProxyInstance(
+                      StatementCachingDataSource.class.getClassLoader(),
+                      new Class<?>[] { PreparedStatement.class },
+                      handler);
+            }
+          }
+          break;
+        default:
+          break;
+      }
+      return StatementCachingDataSource.invoke(method, connection, args);
+    }
+
+    /**
+     * Returns the statements that were not closed before their connection to the cache.
+     */
+    private void releaseStatements() {
+      for (StatementInvocationHandler statement : new ArrayList<>(statements)) {
+        try {
+          statement.close();
+        } catch (SQLException e) {
+          log.debug(() -> "Failed to release statement left open: " + e.getMessage());
+        }
+      }
+      statements.clear();
+    }
+  }
+
+  private static final class StatementInvocationHandler implements InvocationHandler {
+    private final Connection connection;
+    private final ConnectionInvocationHandler owner;
+    private final PreparedStatementCache cache;
+    private final PreparedStatementCache.CachedStatement entry;
+    private int modified;
+    private boolean closed;
+
+    private StatementInvocationHandler(Connection connection, ConnectionInvocationHandler owner,
+                                       PreparedStatementCache.CachedStatement entry) {
+      this.connection = connection;
+      this.owner = owner;
+      this.cache = owner.cache;
+      this.entry = entry;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "getConnection":
+          return connection;
+        case "isClosed":
+          return closed || entry.statement.isClosed();
+        case "close":
+          close();
+          return null;
+        case "setFetchSize":
+          modified |= FETCH_SIZE;
+          break;
+        case "setQueryTimeout":
+          modified |= QUERY_TIMEOUT;
+          break;
+        case "setMaxRows":
+        case "setLargeMaxRows":
+          modified |= MAX_ROWS;
+          break;
+        case "setMaxFieldSize":
+          modified |= MAX_FIELD_SIZE;
+          break;
+        case "setFetchDirection":
+          modified |= FETCH_DIRECTION;
+          break;
+        case "addBatch":
+          modified |= BATCH;
+          break;
+        case "setCursorName":
+        case "setEscapeProcessing":
+        case "setPoolable":
+        case "closeOnCompletion":
+          modified |= UNRECOVERABLE;
+          break;
+        default:
+          break;
+      }
+      return StatementCachingDataSource.invoke(method, entry.statement, args);
+    }
+
+    private void close() throws SQLException {
+      if (!closed) {
+        closed = true;
+        owner.statements.remove(this);
+        release();
+      }
+    }
+
+    private void release() throws SQLException {
+      PreparedStatement statement = entry.statement;
+      if ((modified & UNRECOVERABLE) != 0 || statement.isClosed()) {
+        cache.discard(entry);
+        return;
+      }
+      try {
+        statement.clearParameters();
+        if ((modified & BATCH) != 0) {
+          statement.clearBatch();
+        }
+        if ((modified & FETCH_SIZE) != 0) {
+          statement.setFetchSize(0);
+        }
+        if ((modified & QUERY_TIMEOUT) != 0) {
+          statement.setQueryTimeout(0);
+        }
+        if ((modified & MAX_ROWS) != 0) {
+          statement.setMaxRows(0);
+        }
+        if ((modified & MAX_FIELD_SIZE) != 0) {
+          statement.setMaxFieldSize(0);
+        }
+        if ((modified & FETCH_DIRECTION) != 0) {
+          statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+        }
+      } catch (SQLException e) {
+        cache.discard(entry);
+        throw e;
+      }
+      cache.release(entry);
+    }
+  }
+}
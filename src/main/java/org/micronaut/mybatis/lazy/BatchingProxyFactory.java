@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.lazy;
+
+import org.apache.ibatis.executor.loader.ProxyFactory;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * {@code ProxyFactory} decorator that registers the lazy loaders of every result object created during a mapper call
+ * with the {@link LazyLoadGroup} of that call, so that sibling associations can be loaded in batches.
+ *
+ * Proxies created outside of a group are left to the decorated factory as they are.
+ */
+public class BatchingProxyFactory implements ProxyFactory {
+  private final ProxyFactory delegate;
+
+  /**
+   * @param delegate
+   *          the factory creating the actual proxies, usually the MyBatis default
+   */
+  public BatchingProxyFactory(ProxyFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    delegate.setProperties(properties);
+  }
+
+  @Override
+  public Object createProxy(Object target, ResultLoaderMap lazyLoader, Configuration configuration,
+                            ObjectFactory objectFactory, List<Class<?>> constructorArgTypes,
+                            List<Object> constructorArgs) {
+    LazyLoadGroup group = LazyLoadGroup.current();
+    if (group != null) {
+      lazyLoader = group.register(lazyLoader);
+    }
+    return delegate.createProxy(target, lazyLoader, configuration, objectFactory, constructorArgTypes, constructorArgs);
+  }
+}
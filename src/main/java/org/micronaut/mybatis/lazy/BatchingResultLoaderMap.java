@@ -0,0 +1,91 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.lazy;
+
+import org.apache.ibatis.executor.loader.ResultLoader;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
+import org.apache.ibatis.reflection.MetaObject;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * {@code ResultLoaderMap} handed to the lazy loading proxy of one result object. MyBatis adds the loaders of the
+ * object to the map it created before the proxy, so every call is forwarded to that map; loading a property first
+ * gives the {@link LazyLoadGroup} a chance to load it for the siblings of the object as well.
+ *
+ * Objects created while loading a property join the group of this map. {@link #getProperties()} is final and only
+ * used when a proxy is serialized, so proxies of this map are serialized without their pending loaders.
+ */
+class BatchingResultLoaderMap extends ResultLoaderMap {
+  final ResultLoaderMap loaders;
+  private final LazyLoadGroup group;
+
+  BatchingResultLoaderMap(ResultLoaderMap loaders, LazyLoadGroup group) {
+    this.loaders = loaders;
+    this.group = group;
+  }
+
+  @Override
+  public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader) {
+    loaders.addLoader(property, metaResultObject, resultLoader);
+  }
+
+  @Override
+  public Set<String> getPropertyNames() {
+    return loaders.getPropertyNames();
+  }
+
+  @Override
+  public int size() {
+    return loaders.size();
+  }
+
+  @Override
+  public boolean hasLoader(String property) {
+    return loaders.hasLoader(property);
+  }
+
+  @Override
+  public boolean load(String property) throws SQLException {
+    LazyLoadGroup previous = group.enter();
+    try {
+      group.prefetch(this, property);
+      return loaders.load(property);
+    } finally {
+      LazyLoadGroup.restore(previous);
+    }
+  }
+
+  @Override
+  public void remove(String property) {
+    loaders.remove(property);
+  }
+
+  @Override
+  public void loadAll() throws SQLException {
+    LazyLoadGroup previous = group.enter();
+    try {
+      for (String property : new ArrayList<>(loaders.getPropertyNames())) {
+        group.prefetch(this, property);
+      }
+      loaders.loadAll();
+    } finally {
+      LazyLoadGroup.restore(previous);
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.lazy;
+
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.micronaut.mybatis.annotation.BatchFetch;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The result objects created by one mapper call, whose lazy associations are loaded together.
+ *
+ * A group is opened by the mapper advice for the duration of a call and bound to the calling thread, so that
+ * {@link BatchingProxyFactory} can register every lazy loading proxy created by the call. Objects loaded lazily later
+ * on join the group of the object that loaded them. When a lazy property of a member is accessed and its nested select
+ * is annotated with {@link BatchFetch}, the same property is loaded for up to {@link BatchFetch#size()} members at
+ * once, in a new session. Otherwise the property is loaded by MyBatis alone, also in a new session since the one of
+ * the mapper call has been closed.
+ *
+ * Members are held weakly, so a group does not keep the result objects of a call reachable once the application
+ * dropped them. The members with a pending property are indexed the first time that property is loaded, and taken off
+ * the index as they are loaded, so loading a property of every member walks the members only once.
+ *
+ * The results of one call are expected to be lazily loaded by one thread at a time.
+ */
+public final class LazyLoadGroup {
+  private static final ThreadLocal<LazyLoadGroup> CURRENT = new ThreadLocal<>();
+  private static final Map<String, Optional<BatchFetch>> BATCH_FETCHES = new ConcurrentHashMap<>();
+
+  private final List<WeakReference<BatchingResultLoaderMap>> members = new ArrayList<>();
+  private final Map<String, PropertyIndex> indexes = new HashMap<>();
+
+  private LazyLoadGroup() {
+  }
+
+  /**
+   * Binds a new group to the current thread.
+   *
+   * @return the group bound before, to be passed to {@link #restore(LazyLoadGroup)}
+   */
+  public static LazyLoadGroup open() {
+    return new LazyLoadGroup().enter();
+  }
+
+  /**
+   * Binds a group opened before back to the current thread.
+   *
+   * @param previous
+   *          the group returned by {@link #open()}, may be {@code null}
+   */
+  public static void restore(LazyLoadGroup previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  static LazyLoadGroup current() {
+    return CURRENT.get();
+  }
+
+  LazyLoadGroup enter() {
+    LazyLoadGroup previous = CURRENT.get();
+    CURRENT.set(this);
+    return previous;
+  }
+
+  synchronized ResultLoaderMap register(ResultLoaderMap loaders) {
+    BatchingResultLoaderMap member = new BatchingResultLoaderMap(loaders, this);
+    members.add(new WeakReference<>(member));
+    return member;
+  }
+
+  /**
+   * Loads the property of the given member together with the same pending property of other members, if its nested
+   * select supports batch fetching. Does nothing otherwise, the caller loads the property on its own.
+   */
+  void prefetch(BatchingResultLoaderMap origin, String property) {
+    PendingLoad load = PendingLoad.of(origin.loaders, property);
+    if (load == null || !isBatchKey(load)) {
+      return;
+    }
+    BatchFetch batchFetch = batchFetch(load.statement);
+    if (batchFetch == null) {
+      return;
+    }
+
+    Map<Object, Object> keys = new LinkedHashMap<>();
+    Map<Object, List<PendingLoad>> loads = new LinkedHashMap<>();
+    keys.put(keyOf(load.parameter), load.parameter);
+    loads.put(keyOf(load.parameter), new ArrayList<>(Collections.singletonList(load)));
+    int count = 1 + siblings(load, origin, batchFetch.size(), keys, loads);
+    if (count < 2) {
+      return;
+    }
+
+    Configuration configuration = load.configuration;
+    Map<Object, List<Object>> rows = new LinkedHashMap<>();
+    for (Object row : select(configuration, statementId(load.statement, batchFetch), new ArrayList<>(keys.values()))) {
+      Object key = keyOf(configuration.newMetaObject(row).getValue(batchFetch.key()));
+      rows.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+    }
+
+    ResultExtractor extractor = new ResultExtractor(configuration, configuration.getObjectFactory());
+    for (Map.Entry<Object, List<PendingLoad>> entry : loads.entrySet()) {
+      List<Object> keyRows = rows.getOrDefault(entry.getKey(), Collections.emptyList());
+      for (PendingLoad pending : entry.getValue()) {
+        pending.resultObject.setValue(pending.property, extractor.extractObjectFromList(new ArrayList<>(keyRows), pending.targetType));
+        pending.loaders.remove(pending.property);
+      }
+    }
+  }
+
+  /**
+   * Takes the members with the same pending load as {@code load} off the index of its property, until the keys of the
+   * batch are complete.
+   *
+   * @return the number of loads added to the batch
+   */
+  private synchronized int siblings(PendingLoad load, BatchingResultLoaderMap origin, int size,
+                                    Map<Object, Object> keys, Map<Object, List<PendingLoad>> loads) {
+    PropertyIndex index = indexes.computeIfAbsent(PendingLoad.key(load.property), key -> new PropertyIndex());
+    index.update(members, load.property);
+
+    int count = 0;
+    Iterator<WeakReference<BatchingResultLoaderMap>> iterator = index.pending.iterator();
+    while (iterator.hasNext()) {
+      BatchingResultLoaderMap member = iterator.next().get();
+      PendingLoad sibling = member == null || member == origin ? null : PendingLoad.of(member.loaders, load.property);
+      if (sibling == null) {
+        // collected, loaded already, or the origin itself
+        iterator.remove();
+        continue;
+      }
+      if (sibling.statement != load.statement || !isBatchKey(sibling)) {
+        continue;
+      }
+      Object key = keyOf(sibling.parameter);
+      List<PendingLoad> keyLoads = loads.get(key);
+      if (keyLoads == null) {
+        if (loads.size() >= size) {
+          break;
+        }
+        keys.put(key, sibling.parameter);
+        keyLoads = new ArrayList<>();
+        loads.put(key, keyLoads);
+      }
+      keyLoads.add(sibling);
+      iterator.remove();
+      count++;
+    }
+    return count;
+  }
+
+  private static List<Object> select(Configuration configuration, String statementId, List<Object> keys) {
+    try (SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession(true)) {
+      return sqlSession.selectList(statementId, keys);
+    }
+  }
+
+  /**
+   * Only single column keys are batched, composite keys are passed to the nested select as a map or a bean.
+   */
+  private static boolean isBatchKey(PendingLoad load) {
+    return load.parameter != null
+            && load.configuration.getTypeHandlerRegistry().hasTypeHandler(load.parameter.getClass());
+  }
+
+  /**
+   * Integral keys are compared by value, the type of a key column and of the matching row property often differ.
+   */
+  private static Object keyOf(Object value) {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    return value;
+  }
+
+  /**
+   * The members with a pending load of one property. Members registered after the index was created are added the next
+   * time the property is loaded.
+   */
+  private static final class PropertyIndex {
+    private final Deque<WeakReference<BatchingResultLoaderMap>> pending = new ArrayDeque<>();
+    private int indexedMembers;
+
+    private void update(List<WeakReference<BatchingResultLoaderMap>> members, String property) {
+      for (; indexedMembers < members.size(); indexedMembers++) {
+        WeakReference<BatchingResultLoaderMap> reference = members.get(indexedMembers);
+        BatchingResultLoaderMap member = reference.get();
+        if (member != null && member.loaders.hasLoader(PendingLoad.key(property))) {
+          pending.add(reference);
+        }
+      }
+    }
+  }
+
+  private static String statementId(MappedStatement statement, BatchFetch batchFetch) {
+    if (batchFetch.statement().contains(".")) {
+      return batchFetch.statement();
+    }
+    String id = statement.getId();
+    return id.substring(0, id.lastIndexOf('.') + 1) + batchFetch.statement();
+  }
+
+  private static BatchFetch batchFetch(MappedStatement statement) {
+    return BATCH_FETCHES.computeIfAbsent(statement.getId(), LazyLoadGroup::findBatchFetch).orElse(null);
+  }
+
+  private static Optional<BatchFetch> findBatchFetch(String statementId) {
+    int dot = statementId.lastIndexOf('.');
+    if (dot < 0) {
+      return Optional.empty();
+    }
+    String name = statementId.substring(dot + 1);
+    try {
+      for (Method method : Resources.classForName(statementId.substring(0, dot)).getMethods()) {
+        if (method.getName().equals(name) && method.isAnnotationPresent(BatchFetch.class)) {
+          return Optional.of(method.getAnnotation(BatchFetch.class));
+        }
+      }
+    } catch (ClassNotFoundException e) {
+      // the namespace of an XML mapper without a mapper interface
+    }
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.lazy;
+
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.binding.MapperProxyFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@code Configuration} that parses mapper interfaces on first use instead of at startup.
+ *
+ * Mappers added with {@link #addLazyMapper(Class)} are registered the first time one of their statements, their result
+ * maps or the mapper itself is looked up, which usually happens when the mapper advice first sees a method of the
+ * mapper, or when a nested select refers to a statement of another mapper.
+ *
+ * MyBatis does not expect the configuration to change while it is used, and keeps statements, result maps and mappers
+ * in plain {@code HashMap}s, so registrations are serialized by a lock and lookups never read these maps: they read
+ * copies published when a registration completes, or concurrent maps. A lookup only takes the lock to wait for the
+ * registration of the mapper it needs, and never once all mappers are registered. Lookups made by a registration, for
+ * the statements and result maps it refers to, read the maps being registered into. The listings of statements and
+ * result maps register all pending mappers first, and return copies.
+ */
+public class LazyMapperConfiguration extends Configuration {
+  private static final Logger log = LoggerFactory.getLogger(LazyMapperConfiguration.class);
+
+  /**
+   * Mappers stay pending until their registration is published, so that lookups racing it wait for it.
+   */
+  private final Map<String, Class<?>> pendingMappers = new ConcurrentHashMap<>();
+  private final Map<Class<?>, Long> loadedMappers = Collections.synchronizedMap(new LinkedHashMap<>());
+  private final Map<Class<?>, MapperProxyFactory<?>> mapperProxyFactories = new ConcurrentHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  // guarded by lock
+  private final Set<Class<?>> registering = new HashSet<>();
+
+  private volatile Map<String, MappedStatement> publishedStatements = new StrictMap<>("Mapped Statements collection");
+  private volatile Map<String, ResultMap> publishedResultMaps = new StrictMap<>("Result Maps collection");
+  private volatile boolean modified;
+
+  /**
+   * Adds a mapper to be registered on first use.
+   */
+  public void addLazyMapper(Class<?> type) {
+    pendingMappers.put(type.getName(), type);
+  }
+
+  /**
+   * @return the mappers that have not been used yet
+   */
+  public Set<Class<?>> getPendingMappers() {
+    return new HashSet<>(pendingMappers.values());
+  }
+
+  /**
+   * @return the registered mappers in registration order, with the milliseconds their registration took
+   */
+  public Map<Class<?>, Long> getLoadedMappers() {
+    synchronized (loadedMappers) {
+      return Collections.unmodifiableMap(new LinkedHashMap<>(loadedMappers));
+    }
+  }
+
+  @Override
+  public <T> void addMapper(Class<T> type) {
+    lock.lock();
+    try {
+      register(type);
+    } finally {
+      unlock();
+    }
+  }
+
+  @Override
+  public void addMappedStatement(MappedStatement ms) {
+    lock.lock();
+    try {
+      super.addMappedStatement(ms);
+      modified = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void addResultMap(ResultMap rm) {
+    lock.lock();
+    try {
+      super.addResultMap(rm);
+      modified = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T getMapper(Class<T> type, SqlSession sqlSession) {
+    if (lock.isHeldByCurrentThread()) {
+      return super.getMapper(type, sqlSession);
+    }
+    loadMapper(type);
+    publishModifications();
+    MapperProxyFactory<T> factory = (MapperProxyFactory<T>) mapperProxyFactories.get(type);
+    if (factory == null) {
+      throw new BindingException("Type " + type + " is not known to the MapperRegistry.");
+    }
+    return factory.newInstance(sqlSession);
+  }
+
+  @Override
+  public boolean hasMapper(Class<?> type) {
+    if (lock.isHeldByCurrentThread()) {
+      return super.hasMapper(type);
+    }
+    loadMapper(type);
+    publishModifications();
+    return mapperProxyFactories.containsKey(type);
+  }
+
+  @Override
+  public MappedStatement getMappedStatement(String id, boolean validateIncompleteStatements) {
+    // incomplete statements are built by every registration
+    return statements(id).get(id);
+  }
+
+  @Override
+  public boolean hasStatement(String statementName, boolean validateIncompleteStatements) {
+    return statements(statementName).containsKey(statementName);
+  }
+
+  @Override
+  public ResultMap getResultMap(String id) {
+    return resultMaps(id).get(id);
+  }
+
+  @Override
+  public boolean hasResultMap(String id) {
+    return resultMaps(id).containsKey(id);
+  }
+
+  @Override
+  public Collection<String> getMappedStatementNames() {
+    loadAll();
+    return new ArrayList<>(statements().keySet());
+  }
+
+  @Override
+  public Collection<MappedStatement> getMappedStatements() {
+    loadAll();
+    return new ArrayList<>(statements().values());
+  }
+
+  @Override
+  public Collection<String> getResultMapNames() {
+    loadAll();
+    return new ArrayList<>(resultMaps().keySet());
+  }
+
+  @Override
+  public Collection<ResultMap> getResultMaps() {
+    loadAll();
+    return new ArrayList<>(resultMaps().values());
+  }
+
+  private Map<String, MappedStatement> statements(String id) {
+    if (!statements().containsKey(id)) {
+      loadNamespace(id);
+    }
+    return statements();
+  }
+
+  private Map<String, MappedStatement> statements() {
+    if (lock.isHeldByCurrentThread()) {
+      return mappedStatements;
+    }
+    publishModifications();
+    return publishedStatements;
+  }
+
+  private Map<String, ResultMap> resultMaps(String id) {
+    if (!resultMaps().containsKey(id)) {
+      loadNamespace(id);
+    }
+    return resultMaps();
+  }
+
+  private Map<String, ResultMap> resultMaps() {
+    if (lock.isHeldByCurrentThread()) {
+      return resultMaps;
+    }
+    publishModifications();
+    return publishedResultMaps;
+  }
+
+  private void loadAll() {
+    for (String namespace : pendingMappers.keySet()) {
+      load(namespace);
+    }
+  }
+
+  private void loadMapper(Class<?> type) {
+    load(type.getName());
+  }
+
+  private void loadNamespace(String id) {
+    int dot = id.lastIndexOf('.');
+    if (dot > 0) {
+      load(id.substring(0, dot));
+    }
+  }
+
+  private void load(String namespace) {
+    if (!pendingMappers.containsKey(namespace)) {
+      return;
+    }
+    lock.lock();
+    try {
+      Class<?> type = pendingMappers.get(namespace);
+      // a registration in progress in this thread refers to its own mapper, or to one that refers to it
+      if (type != null && !registering.contains(type)) {
+        register(type);
+        log.debug(() -> "Registered mapper on first use: '" + type.getCanonicalName() + "'");
+      }
+    } finally {
+      unlock();
+    }
+  }
+
+  /**
+   * Registrations of nested selects happen in the registration that refers to them, and are published with it.
+   */
+  private void register(Class<?> type) {
+    registering.add(type);
+    modified = true;
+    long start = System.nanoTime();
+    super.addMapper(type);
+    buildAllStatements();
+    loadedMappers.put(type, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Publishes the registrations made before releasing the lock for the last time.
+   */
+  private void unlock() {
+    try {
+      if (lock.getHoldCount() == 1) {
+        publish();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Publishes the statements and result maps added outside of a registration, unless a registration is in progress
+   * and will publish them.
+   */
+  private void publishModifications() {
+    if (modified && lock.tryLock()) {
+      try {
+        publish();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void publish() {
+    if (modified) {
+      publishedStatements = new StrictMap<>("Mapped Statements collection", mappedStatements);
+      publishedResultMaps = new StrictMap<>("Result Maps collection", resultMaps);
+      for (Class<?> type : mapperRegistry.getMappers()) {
+        mapperProxyFactories.computeIfAbsent(type, MapperProxyFactory::new);
+      }
+      modified = false;
+    }
+    for (Class<?> type : registering) {
+      pendingMappers.remove(type.getName());
+    }
+    registering.clear();
+  }
+}
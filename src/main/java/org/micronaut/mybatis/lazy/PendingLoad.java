@@ -0,0 +1,96 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.lazy;
+
+import org.apache.ibatis.executor.loader.ResultLoader;
+import org.apache.ibatis.executor.loader.ResultLoaderMap;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import java.lang.reflect.Field;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The loader of a lazily loaded property that has not been loaded yet. MyBatis keeps the details in private fields of
+ * {@code ResultLoaderMap}, {@code ResultLoaderMap.LoadPair} and {@code ResultLoader}, which are read reflectively.
+ * The loaders of a {@code ResultLoaderMap} are looked up in its private map, since {@code getProperties()} copies it.
+ */
+final class PendingLoad {
+  private static final Field LOADER_MAP = field(ResultLoaderMap.class, "loaderMap");
+  private static final Field PROPERTY = field(ResultLoaderMap.LoadPair.class, "property");
+  private static final Field META_RESULT_OBJECT = field(ResultLoaderMap.LoadPair.class, "metaResultObject");
+  private static final Field RESULT_LOADER = field(ResultLoaderMap.LoadPair.class, "resultLoader");
+  private static final Field CONFIGURATION = field(ResultLoader.class, "configuration");
+  private static final Field MAPPED_STATEMENT = field(ResultLoader.class, "mappedStatement");
+  private static final Field PARAMETER_OBJECT = field(ResultLoader.class, "parameterObject");
+  private static final Field TARGET_TYPE = field(ResultLoader.class, "targetType");
+
+  final ResultLoaderMap loaders;
+  final String property;
+  final MetaObject resultObject;
+  final Configuration configuration;
+  final MappedStatement statement;
+  final Object parameter;
+  final Class<?> targetType;
+
+  private PendingLoad(ResultLoaderMap loaders, ResultLoaderMap.LoadPair pair, ResultLoader resultLoader)
+          throws IllegalAccessException {
+    this.loaders = loaders;
+    this.property = (String) PROPERTY.get(pair);
+    this.resultObject = (MetaObject) META_RESULT_OBJECT.get(pair);
+    this.configuration = (Configuration) CONFIGURATION.get(resultLoader);
+    this.statement = (MappedStatement) MAPPED_STATEMENT.get(resultLoader);
+    this.parameter = PARAMETER_OBJECT.get(resultLoader);
+    this.targetType = (Class<?>) TARGET_TYPE.get(resultLoader);
+  }
+
+  /**
+   * @return the pending loader of the property, or {@code null} if it has been loaded already
+   */
+  static PendingLoad of(ResultLoaderMap loaders, String property) {
+    try {
+      ResultLoaderMap.LoadPair pair = (ResultLoaderMap.LoadPair) ((Map<?, ?>) LOADER_MAP.get(loaders)).get(key(property));
+      if (pair == null) {
+        return null;
+      }
+      // deserialized loaders have no result loader, they load through a new Configuration
+      ResultLoader resultLoader = (ResultLoader) RESULT_LOADER.get(pair);
+      return resultLoader == null ? null : new PendingLoad(loaders, pair, resultLoader);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return the key of the loader of a property in its {@code ResultLoaderMap}
+   */
+  static String key(String property) {
+    int dot = property.indexOf('.');
+    return (dot < 0 ? property : property.substring(0, dot)).toUpperCase(Locale.ENGLISH);
+  }
+
+  private static Field field(Class<?> type, String name) {
+    try {
+      Field field = type.getDeclaredField(name);
+      field.setAccessible(true);
+      return field;
+    } catch (NoSuchFieldException e) {
+      throw new IllegalStateException("Unsupported MyBatis version, " + type.getName() + " has no field " + name, e);
+    }
+  }
+}
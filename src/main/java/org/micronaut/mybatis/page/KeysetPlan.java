@@ -0,0 +1,262 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.page;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+import org.micronaut.mybatis.annotation.Keyset;
+import org.micronaut.mybatis.plugin.MappedStatements;
+import org.micronaut.mybatis.plugin.QueryRewrite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * How the query of a {@link Keyset} mapper method is paged. The original query is wrapped as a derived table, ordered
+ * by the sort keys, restricted to the rows after the keys of the continuation token and limited to one row more than
+ * the page size, which tells whether another page follows.
+ */
+public final class KeysetPlan {
+  private static final Pattern KEY = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*)(?:\\s+(asc|desc))?",
+          Pattern.CASE_INSENSITIVE);
+  private static final String ALIAS = "keyset_";
+  private static final String KEY_PARAMETER = "__keyset_";
+  private static final String LIMIT_PARAMETER = "__keyset_limit";
+
+  private final String statementId;
+  private final String[] columns;
+  private final boolean[] descending;
+  private final String orderBy;
+  private final int fingerprint;
+  private final Class<?> resultType;
+  private final int pageableIndex;
+  private final boolean counted;
+
+  /**
+   * @param keyset
+   *          the annotation of the mapper method
+   * @param statementId
+   *          the statement of the mapper method
+   * @param resultType
+   *          type to map rows to, the element type of the {@link Slice} returned by the method
+   * @param pageableIndex
+   *          the index of the {@link Pageable} parameter of the method
+   * @param counted
+   *          whether the method returns a {@link Page}
+   */
+  public KeysetPlan(Keyset keyset, String statementId, Class<?> resultType, int pageableIndex, boolean counted) {
+    if (keyset.value().length == 0 || keyset.value().length > 255) {
+      throw new IllegalStateException("@Keyset requires between 1 and 255 sort keys, got " + keyset.value().length);
+    }
+    this.statementId = statementId;
+    this.columns = new String[keyset.value().length];
+    this.descending = new boolean[columns.length];
+    StringBuilder order = new StringBuilder(" order by ");
+    for (int i = 0; i < columns.length; i++) {
+      Matcher matcher = KEY.matcher(keyset.value()[i].trim());
+      if (!matcher.matches()) {
+        throw new IllegalStateException("Invalid sort key: '" + keyset.value()[i] + "'");
+      }
+      columns[i] = matcher.group(1);
+      descending[i] = "desc".equalsIgnoreCase(matcher.group(2));
+      order.append(i == 0 ? "" : ", ").append(ALIAS).append('.').append(columns[i])
+              .append(descending[i] ? " desc" : " asc");
+    }
+    this.orderBy = order.toString();
+    this.fingerprint = (statementId + Arrays.toString(keyset.value())).hashCode();
+    this.resultType = resultType;
+    this.pageableIndex = pageableIndex;
+    this.counted = counted;
+  }
+
+  /**
+   * @return whether the rows of the query are counted for a {@link Page}
+   */
+  public boolean isCounted() {
+    return counted;
+  }
+
+  /**
+   * @return the {@link Pageable} argument of a call
+   * @throws IllegalArgumentException
+   *           if it is missing, or continues a slice of another query
+   */
+  public Pageable pageable(Object[] arguments) {
+    Pageable pageable = (Pageable) arguments[pageableIndex];
+    if (pageable == null) {
+      throw new IllegalArgumentException("Pageable argument of " + statementId + " must not be null");
+    }
+    PageToken position = pageable.position();
+    if (position != null && (position.fingerprint != fingerprint || position.values.length != columns.length)) {
+      throw new IllegalArgumentException("Page token does not belong to " + statementId + ": '"
+              + pageable.getToken() + "'");
+    }
+    return pageable;
+  }
+
+  /**
+   * @param pageable
+   *          the result of {@link #pageable}
+   * @param limitClause
+   *          the clause limiting the number of rows of a query, with a {@code ?} placeholder for the number
+   * @return the rewrite of the query selecting the slice, plus one row
+   */
+  public QueryRewrite rewrite(Pageable pageable, String limitClause) {
+    return new QueryRewrite() {
+      @Override
+      public MappedStatement statement(MappedStatement statement) {
+        return MappedStatements.withResultType(statement, resultType);
+      }
+
+      @Override
+      public BoundSql boundSql(MappedStatement statement, BoundSql boundSql) {
+        Configuration configuration = statement.getConfiguration();
+        PageToken position = pageable.position();
+        List<ParameterMapping> parameters = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("select * from (").append(boundSql.getSql()).append(") ").append(ALIAS);
+        if (position != null) {
+          sql.append(" where ");
+          appendSeekPredicate(sql, parameters, configuration, position.values);
+        }
+        sql.append(orderBy).append(' ').append(limitClause);
+        parameters.add(new ParameterMapping.Builder(configuration, LIMIT_PARAMETER, Integer.class).build());
+
+        BoundSql slice = MappedStatements.withSql(statement, boundSql, sql.toString(), parameters);
+        if (position != null) {
+          for (int i = 0; i < columns.length; i++) {
+            slice.setAdditionalParameter(KEY_PARAMETER + i, position.values[i]);
+          }
+        }
+        slice.setAdditionalParameter(LIMIT_PARAMETER, pageable.getSize() + 1);
+        return slice;
+      }
+    };
+  }
+
+  /**
+   * Appends {@code (k1 > ? or (k1 = ? and k2 > ?) or ...)}, with {@code <} for descending keys.
+   */
+  private void appendSeekPredicate(StringBuilder sql, List<ParameterMapping> parameters, Configuration configuration,
+                                   Object[] values) {
+    sql.append('(');
+    for (int i = 0; i < columns.length; i++) {
+      sql.append(i == 0 ? "(" : " or (");
+      for (int j = 0; j < i; j++) {
+        sql.append(ALIAS).append('.').append(columns[j]).append(" = ? and ");
+        parameters.add(keyParameter(configuration, j, values[j]));
+      }
+      sql.append(ALIAS).append('.').append(columns[i]).append(descending[i] ? " < ?)" : " > ?)");
+      parameters.add(keyParameter(configuration, i, values[i]));
+    }
+    sql.append(')');
+  }
+
+  private static ParameterMapping keyParameter(Configuration configuration, int index, Object value) {
+    return new ParameterMapping.Builder(configuration, KEY_PARAMETER + index, value.getClass()).build();
+  }
+
+  /**
+   * Counts the rows of the query, over all slices.
+   */
+  public long count(Connection connection, MappedStatement statement, Object parameter) {
+    BoundSql boundSql = statement.getBoundSql(parameter);
+    String sql = "select count(*) from (" + boundSql.getSql() + ") " + ALIAS;
+    BoundSql countSql = MappedStatements.withSql(statement, boundSql, sql, Collections.emptyList());
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      new DefaultParameterHandler(statement, parameter, countSql).setParameters(preparedStatement);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        resultSet.next();
+        return resultSet.getLong(1);
+      }
+    } catch (SQLException e) {
+      throw new PersistenceException("Error counting rows of " + statement.getId() + ". Cause: " + e, e);
+    }
+  }
+
+  /**
+   * @param rows
+   *          the rows selected by {@link #rewrite}
+   * @param total
+   *          the number of rows when the method returns a {@link Page}, or {@code null}
+   * @return the return value of the mapper method
+   */
+  public Slice<Object> slice(List<Object> rows, Pageable pageable, MappedStatement statement, Future<Long> total) {
+    List<Object> content = rows;
+    String nextToken = null;
+    if (rows.size() > pageable.getSize()) {
+      content = new ArrayList<>(rows.subList(0, pageable.getSize()));
+      nextToken = PageToken.encode(fingerprint, keys(content.get(content.size() - 1), statement));
+    }
+    return total == null ? new Slice<>(content, pageable, nextToken) : new Page<>(content, pageable, nextToken, total);
+  }
+
+  private Object[] keys(Object row, MappedStatement statement) {
+    Configuration configuration = statement.getConfiguration();
+    MetaObject metaObject = row instanceof Map ? null : configuration.newMetaObject(row);
+    Object[] keys = new Object[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      Object key = metaObject == null ? mapValue((Map<?, ?>) row, columns[i])
+              : metaObject.getValue(property(metaObject, statement, columns[i]));
+      if (key == null) {
+        throw new PersistenceException("Sort key " + columns[i] + " of " + statementId + " is null");
+      }
+      keys[i] = key;
+    }
+    return keys;
+  }
+
+  private String property(MetaObject metaObject, MappedStatement statement, String column) {
+    for (ResultMap resultMap : statement.getResultMaps()) {
+      for (ResultMapping mapping : resultMap.getPropertyResultMappings()) {
+        if (column.equalsIgnoreCase(mapping.getColumn())) {
+          return mapping.getProperty();
+        }
+      }
+    }
+    String property = metaObject.findProperty(column, statement.getConfiguration().isMapUnderscoreToCamelCase());
+    if (property == null) {
+      throw new PersistenceException("Sort key " + column + " of " + statementId + " is not mapped to a property of "
+              + metaObject.getOriginalObject().getClass().getName());
+    }
+    return property;
+  }
+
+  private static Object mapValue(Map<?, ?> row, String column) {
+    for (Map.Entry<?, ?> entry : row.entrySet()) {
+      if (column.equalsIgnoreCase(String.valueOf(entry.getKey()))) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+}
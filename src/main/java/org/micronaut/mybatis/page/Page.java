@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.page;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link Slice} that also knows the total number of rows of the query. The rows are counted by a second query,
+ * which may still be running on another connection when the page is returned; {@link #getTotal()} waits for it.
+ *
+ * @param <T> the type of the rows
+ */
+public class Page<T> extends Slice<T> {
+  private final Future<Long> total;
+
+  Page(List<T> content, Pageable pageable, String nextToken, Future<Long> total) {
+    super(content, pageable, nextToken);
+    this.total = total;
+  }
+
+  /**
+   * @return the number of rows of the query over all pages
+   */
+  public long getTotal() {
+    try {
+      return total.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException("Interrupted while counting rows", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new PersistenceException("Error counting rows. Cause: " + e.getCause(), e.getCause());
+    }
+  }
+
+  /**
+   * @return the number of pages of {@link Pageable#getSize()} rows
+   */
+  public long getTotalPages() {
+    int size = getPageable().getSize();
+    return (getTotal() + size - 1) / size;
+  }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.page;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Encoding of continuation tokens: the sort keys of the last row of a slice, and a fingerprint of the statement and
+ * keys they belong to, as URL-safe Base64.
+ *
+ * Values are written with a type tag each, so only the types below are ever created from a token. Tokens are not
+ * signed: a client can forge one, but all it gets is a slice starting at other keys, since the values are bound as
+ * statement parameters.
+ */
+final class PageToken {
+  private static final byte VERSION = 1;
+
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte SHORT = 4;
+  private static final byte BYTE = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte FLOAT = 7;
+  private static final byte BOOLEAN = 8;
+  private static final byte BIG_DECIMAL = 9;
+  private static final byte BIG_INTEGER = 10;
+  private static final byte TIMESTAMP = 11;
+  private static final byte SQL_DATE = 12;
+  private static final byte DATE = 13;
+  private static final byte INSTANT = 14;
+  private static final byte LOCAL_DATE = 15;
+  private static final byte LOCAL_DATE_TIME = 16;
+  private static final byte LOCAL_TIME = 17;
+  private static final byte OFFSET_DATE_TIME = 18;
+  private static final byte UUID_VALUE = 19;
+
+  final int fingerprint;
+  final Object[] values;
+
+  private PageToken(int fingerprint, Object[] values) {
+    this.fingerprint = fingerprint;
+    this.values = values;
+  }
+
+  static String encode(int fingerprint, Object[] values) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 16 * values.length);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeInt(fingerprint);
+      out.writeByte(values.length);
+      for (Object value : values) {
+        write(out, value);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           if {@code token} was not created by {@link #encode}
+   */
+  static PageToken decode(String token) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+      if (in.readByte() != VERSION) {
+        throw new IllegalArgumentException("Invalid page token: '" + token + "'");
+      }
+      int fingerprint = in.readInt();
+      Object[] values = new Object[in.readUnsignedByte()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = read(in);
+      }
+      if (in.read() != -1) {
+        throw new IllegalArgumentException("Invalid page token: '" + token + "'");
+      }
+      return new PageToken(fingerprint, values);
+    } catch (IOException | IllegalArgumentException | DateTimeException e) {
+      throw new IllegalArgumentException("Invalid page token: '" + token + "'", e);
+    }
+  }
+
+  private static void write(DataOutputStream out, Object value) throws IOException {
+    if (value instanceof String) {
+      out.writeByte(STRING);
+      out.writeUTF((String) value);
+    } else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Short) {
+      out.writeByte(SHORT);
+      out.writeShort((Short) value);
+    } else if (value instanceof Byte) {
+      out.writeByte(BYTE);
+      out.writeByte((Byte) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof BigDecimal) {
+      out.writeByte(BIG_DECIMAL);
+      out.writeUTF(value.toString());
+    } else if (value instanceof BigInteger) {
+      out.writeByte(BIG_INTEGER);
+      out.writeUTF(value.toString());
+    } else if (value instanceof Timestamp) {
+      out.writeByte(TIMESTAMP);
+      out.writeLong(((Timestamp) value).getTime());
+      out.writeInt(((Timestamp) value).getNanos());
+    } else if (value instanceof java.sql.Date) {
+      out.writeByte(SQL_DATE);
+      out.writeLong(((java.sql.Date) value).getTime());
+    } else if (value instanceof Date) {
+      out.writeByte(DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (value instanceof Instant) {
+      out.writeByte(INSTANT);
+      out.writeUTF(value.toString());
+    } else if (value instanceof LocalDate) {
+      out.writeByte(LOCAL_DATE);
+      out.writeUTF(value.toString());
+    } else if (value instanceof LocalDateTime) {
+      out.writeByte(LOCAL_DATE_TIME);
+      out.writeUTF(value.toString());
+    } else if (value instanceof LocalTime) {
+      out.writeByte(LOCAL_TIME);
+      out.writeUTF(value.toString());
+    } else if (value instanceof OffsetDateTime) {
+      out.writeByte(OFFSET_DATE_TIME);
+      out.writeUTF(value.toString());
+    } else if (value instanceof UUID) {
+      out.writeByte(UUID_VALUE);
+      out.writeLong(((UUID) value).getMostSignificantBits());
+      out.writeLong(((UUID) value).getLeastSignificantBits());
+    } else {
+      throw new IllegalArgumentException("Unsupported sort key type: "
+              + (value == null ? "null" : value.getClass().getName()));
+    }
+  }
+
+  private static Object read(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case STRING:
+        return in.readUTF();
+      case INTEGER:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case SHORT:
+        return in.readShort();
+      case BYTE:
+        return in.readByte();
+      case DOUBLE:
+        return in.readDouble();
+      case FLOAT:
+        return in.readFloat();
+      case BOOLEAN:
+        return in.readBoolean();
+      case BIG_DECIMAL:
+        return new BigDecimal(in.readUTF());
+      case BIG_INTEGER:
+        return new BigInteger(in.readUTF());
+      case TIMESTAMP:
+        Timestamp timestamp = new Timestamp(in.readLong());
+        timestamp.setNanos(in.readInt());
+        return timestamp;
+      case SQL_DATE:
+        return new java.sql.Date(in.readLong());
+      case DATE:
+        return new Date(in.readLong());
+      case INSTANT:
+        return Instant.parse(in.readUTF());
+      case LOCAL_DATE:
+        return LocalDate.parse(in.readUTF());
+      case LOCAL_DATE_TIME:
+        return LocalDateTime.parse(in.readUTF());
+      case LOCAL_TIME:
+        return LocalTime.parse(in.readUTF());
+      case OFFSET_DATE_TIME:
+        return OffsetDateTime.parse(in.readUTF());
+      case UUID_VALUE:
+        return new UUID(in.readLong(), in.readLong());
+      default:
+        throw new IllegalArgumentException("Unknown sort key type: " + type);
+    }
+  }
+}
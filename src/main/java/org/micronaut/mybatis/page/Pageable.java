@@ -0,0 +1,84 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.page;
+
+/**
+ * The slice a {@link org.micronaut.mybatis.annotation.Keyset} mapper method returns: the first one, or the one after
+ * a continuation token of a previous slice.
+ */
+public final class Pageable {
+  private final int size;
+  private final String token;
+  private final PageToken position;
+
+  private Pageable(int size, String token, PageToken position) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Page size must be positive, got " + size);
+    }
+    this.size = size;
+    this.token = token;
+    this.position = position;
+  }
+
+  /**
+   * @return the first {@code size} rows
+   */
+  public static Pageable first(int size) {
+    return new Pageable(size, null, null);
+  }
+
+  /**
+   * @param token
+   *          the {@link Slice#getNextToken() continuation token} of the previous slice, or {@code null} for the first
+   *          slice
+   * @return the {@code size} rows after the ones of the previous slice
+   * @throws IllegalArgumentException
+   *           if {@code token} is not a continuation token
+   */
+  public static Pageable after(String token, int size) {
+    return token == null ? first(size) : new Pageable(size, token, PageToken.decode(token));
+  }
+
+  /**
+   * @return the maximum number of rows in the slice
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return the continuation token the slice starts after, {@code null} for the first slice
+   */
+  public String getToken() {
+    return token;
+  }
+
+  /**
+   * @return whether this is the first slice
+   */
+  public boolean isFirst() {
+    return position == null;
+  }
+
+  PageToken position() {
+    return position;
+  }
+
+  @Override
+  public String toString() {
+    return "Pageable{size=" + size + ", token=" + token + "}";
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.page;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Rows of a {@link org.micronaut.mybatis.annotation.Keyset} query, and the token to continue after them. A slice does
+ * not know the total number of rows; return a {@link Page} to count them.
+ *
+ * @param <T> the type of the rows
+ */
+public class Slice<T> implements Iterable<T> {
+  private final List<T> content;
+  private final Pageable pageable;
+  private final String nextToken;
+
+  Slice(List<T> content, Pageable pageable, String nextToken) {
+    this.content = Collections.unmodifiableList(content);
+    this.pageable = pageable;
+    this.nextToken = nextToken;
+  }
+
+  /**
+   * @return the rows, at most {@link Pageable#getSize()}
+   */
+  public List<T> getContent() {
+    return content;
+  }
+
+  /**
+   * @return the request this slice answers
+   */
+  public Pageable getPageable() {
+    return pageable;
+  }
+
+  /**
+   * @return whether more rows follow
+   */
+  public boolean hasNext() {
+    return nextToken != null;
+  }
+
+  /**
+   * @return the opaque token to pass to {@link Pageable#after} for the next slice, {@code null} for the last slice
+   */
+  public String getNextToken() {
+    return nextToken;
+  }
+
+  /**
+   * @return the request for the next slice of the same size
+   * @throws IllegalStateException
+   *           if this is the last slice
+   */
+  public Pageable next() {
+    if (nextToken == null) {
+      throw new IllegalStateException("No rows after the last slice");
+    }
+    return Pageable.after(nextToken, pageable.getSize());
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return content.iterator();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "{size=" + content.size() + ", nextToken=" + nextToken + "}";
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.partition;
+
+import io.micronaut.context.annotation.Property;
+import org.micronaut.mybatis.deadline.Deadline;
+import org.micronaut.mybatis.trace.MapperTrace;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of threads running the partitions of {@link org.micronaut.mybatis.annotation.Partitioned} queries.
+ * Every running partition holds a connection, so the pool size also bounds the connections used by partitioned
+ * queries.
+ */
+@Singleton
+public class PartitionExecutor {
+  private final ExecutorService executor;
+
+  /**
+   * @param threads
+   *          maximum number of partitions running at once, {@code mybatis.partitioning.threads}. Defaults to the
+   *          number of available processors
+   */
+  @Inject
+  public PartitionExecutor(@Nullable @Property(name = "mybatis.partitioning.threads") Integer threads) {
+    int size = threads == null ? Runtime.getRuntime().availableProcessors() : threads;
+    AtomicInteger counter = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-partition-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Runs a task on the pool within the deadlines of the calling thread, adding what it does to the trace of the
+   * calling mapper call, if any.
+   */
+  public <T> Future<T> submit(Callable<T> task) {
+    return executor.submit(MapperTrace.propagate(Deadline.propagate(task)));
+  }
+
+  /**
+   * Runs tasks on the pool, see {@link #submit(Callable)}.
+   */
+  public <T> List<Future<T>> submitAll(List<Callable<T>> tasks) {
+    List<Future<T>> futures = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks) {
+      futures.add(submit(task));
+    }
+    return futures;
+  }
+
+  @PreDestroy
+  public void close() {
+    executor.shutdownNow();
+  }
+}
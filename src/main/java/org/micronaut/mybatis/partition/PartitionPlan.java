@@ -0,0 +1,177 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.partition;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.micronaut.mybatis.annotation.Partitioned;
+import org.micronaut.mybatis.plugin.MappedStatements;
+import org.micronaut.mybatis.plugin.QueryRewrite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * How the query of a {@link Partitioned} mapper method is split. The original query is wrapped as a derived table and
+ * restricted to one range of the partition column per partition; the bounds of the ranges are computed from the
+ * minimum and maximum of the column first.
+ */
+public final class PartitionPlan {
+  private static final Pattern COLUMN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+  private static final String ALIAS = "partitioned_";
+
+  private final String column;
+  private final int parts;
+  private final boolean ordered;
+  private final Class<?> resultType;
+
+  /**
+   * @param partitioned
+   *          the annotation of the mapper method
+   * @param resultType
+   *          type to map rows to when MyBatis can not derive it from the method, or {@code null}
+   */
+  public PartitionPlan(Partitioned partitioned, Class<?> resultType) {
+    if (!COLUMN.matcher(partitioned.column()).matches()) {
+      throw new IllegalStateException("Invalid partition column: '" + partitioned.column() + "'");
+    }
+    if (partitioned.parts() < 1) {
+      throw new IllegalStateException("Partition count must be positive, got " + partitioned.parts());
+    }
+    this.column = ALIAS + "." + partitioned.column();
+    this.parts = partitioned.parts();
+    this.ordered = partitioned.ordered();
+    this.resultType = resultType;
+  }
+
+  /**
+   * Queries the minimum and maximum of the partition column.
+   *
+   * @return the bounds, or {@code null} if the query has no rows with a value in the partition column
+   */
+  public long[] bounds(Connection connection, MappedStatement statement, Object parameter) {
+    BoundSql boundSql = statement.getBoundSql(parameter);
+    String sql = "select min(" + column + "), max(" + column + ") from (" + boundSql.getSql() + ") " + ALIAS;
+    BoundSql boundsSql = MappedStatements.withSql(statement, boundSql, sql, Collections.emptyList());
+    try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+      new DefaultParameterHandler(statement, parameter, boundsSql).setParameters(preparedStatement);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        resultSet.next();
+        Object min = resultSet.getObject(1);
+        Object max = resultSet.getObject(2);
+        if (min == null || max == null) {
+          return null;
+        }
+        if (!(min instanceof Number) || !(max instanceof Number)) {
+          throw new PersistenceException("Partition column " + column + " of " + statement.getId() + " is not numeric");
+        }
+        return new long[] { ((Number) min).longValue(), ((Number) max).longValue() };
+      }
+    } catch (SQLException e) {
+      throw new PersistenceException("Error querying partition bounds of " + statement.getId() + ". Cause: " + e, e);
+    }
+  }
+
+  /**
+   * @param bounds
+   *          the result of {@link #bounds}, or {@code null}
+   * @return the rewrite of every partition, in the order of the partition column
+   */
+  public List<QueryRewrite> partitions(long[] bounds) {
+    List<QueryRewrite> partitions = new ArrayList<>(parts + 1);
+    if (bounds != null) {
+      long min = bounds[0];
+      long max = bounds[1];
+      long span = max - min + 1;
+      long step = span <= 0 ? Long.MAX_VALUE : Math.max(1, (span + parts - 1) / parts);
+      for (long low = min; ; low += step) {
+        long high = low + step - 1;
+        if (high >= max || high < low) {
+          partitions.add(rewrite(column + " >= " + low + " and " + column + " <= " + max));
+          break;
+        }
+        partitions.add(rewrite(column + " >= " + low + " and " + column + " <= " + high));
+      }
+    }
+    partitions.add(rewrite(column + " is null"));
+    return partitions;
+  }
+
+  private QueryRewrite rewrite(String predicate) {
+    return new QueryRewrite() {
+      @Override
+      public MappedStatement statement(MappedStatement statement) {
+        return resultType == null ? statement : MappedStatements.withResultType(statement, resultType);
+      }
+
+      @Override
+      public BoundSql boundSql(MappedStatement statement, BoundSql boundSql) {
+        String sql = "select * from (" + boundSql.getSql() + ") " + ALIAS + " where " + predicate
+                + (ordered ? " order by " + column : "");
+        return MappedStatements.withSql(statement, boundSql, sql, Collections.emptyList());
+      }
+    };
+  }
+
+  /**
+   * Collects the results of the partitions into the return value of the mapper method. A {@code Stream} is returned
+   * right away and streams the partitions in range order, waiting on the consuming thread for every partition only
+   * when it gets to its rows.
+   */
+  public Object collect(List<Future<List<Object>>> partitions, Class<?> returnType) {
+    if (Stream.class.isAssignableFrom(returnType)) {
+      return partitions.stream()
+              .flatMap(partition -> join(partition).stream())
+              .onClose(() -> partitions.forEach(partition -> partition.cancel(true)));
+    }
+    List<Object> result = new ArrayList<>();
+    try {
+      for (Future<List<Object>> partition : partitions) {
+        result.addAll(join(partition));
+      }
+    } finally {
+      if (partitions.stream().anyMatch(partition -> !partition.isDone())) {
+        partitions.forEach(partition -> partition.cancel(true));
+      }
+    }
+    return result;
+  }
+
+  private static List<Object> join(Future<List<Object>> partition) {
+    try {
+      return partition.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException("Interrupted while waiting for a partition", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new PersistenceException("Error running partition. Cause: " + e.getCause(), e.getCause());
+    }
+  }
+}
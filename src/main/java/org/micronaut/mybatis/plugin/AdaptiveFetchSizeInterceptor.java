@@ -0,0 +1,250 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.plugin;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.statement.BaseStatementHandler;
+import org.apache.ibatis.executor.statement.RoutingStatementHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sets the fetch size of every select from the number of rows its mapped statement returned so far, so that typical
+ * results are fetched in a single round trip while the rows buffered by the driver stay bounded. Enabled with
+ * {@code mybatis.adaptive-fetch-size.enabled}.
+ *
+ * The fetch size follows a moving average of the row counts, plus one row so the driver sees the end of the result in
+ * the same round trip, bounded by {@code mybatis.adaptive-fetch-size.min} and {@code mybatis.adaptive-fetch-size.max}.
+ * Statements with a fetch size of their own, e.g. from {@code @Options(fetchSize = ...)}, and all statements of a
+ * configuration with a default fetch size keep it. Statements that have not returned yet run with the driver default.
+ * Rows of selects streamed to a {@code ResultHandler} are counted as they are handed to it.
+ */
+@Singleton
+@Requires(property = "mybatis.adaptive-fetch-size.enabled", value = "true")
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+        @Signature(type = Executor.class, method = "query",
+                args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class,
+                        BoundSql.class }),
+        @Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class, Integer.class }),
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = { Statement.class })
+})
+public class AdaptiveFetchSizeInterceptor implements Interceptor {
+  private static final Field PLUGIN_TARGET = field(Plugin.class, "target");
+  private static final Field ROUTING_DELEGATE = field(RoutingStatementHandler.class, "delegate");
+  private static final Field STATEMENT_MAPPED_STATEMENT = field(BaseStatementHandler.class, "mappedStatement");
+  private static final Field RESULT_SET_MAPPED_STATEMENT = field(DefaultResultSetHandler.class, "mappedStatement");
+  private static final Field RESULT_HANDLER = field(DefaultResultSetHandler.class, "resultHandler");
+
+  private final int minFetchSize;
+  private final int maxFetchSize;
+  private final Map<String, StatementFetchSize> statements = new ConcurrentHashMap<>();
+
+  /**
+   * @param minFetchSize
+   *          the smallest fetch size set, {@code mybatis.adaptive-fetch-size.min}
+   * @param maxFetchSize
+   *          the largest fetch size set, {@code mybatis.adaptive-fetch-size.max}
+   */
+  @Inject
+  public AdaptiveFetchSizeInterceptor(@Value("${mybatis.adaptive-fetch-size.min:10}") int minFetchSize,
+                                      @Value("${mybatis.adaptive-fetch-size.max:1000}") int maxFetchSize) {
+    if (minFetchSize <= 0 || maxFetchSize < minFetchSize) {
+      throw new IllegalArgumentException("Invalid fetch size bounds: [" + minFetchSize + ", " + maxFetchSize + "]");
+    }
+    this.minFetchSize = minFetchSize;
+    this.maxFetchSize = maxFetchSize;
+  }
+
+  /**
+   * @return the fetch sizes chosen so far, by mapped statement id
+   */
+  public Map<String, StatementFetchSize> getStatements() {
+    return Collections.unmodifiableMap(statements);
+  }
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    Object target = unwrap(invocation.getTarget());
+    if (target instanceof Executor) {
+      return query(invocation);
+    }
+    if (target instanceof StatementHandler) {
+      Statement statement = (Statement) invocation.proceed();
+      MappedStatement mappedStatement = mappedStatement((StatementHandler) target);
+      if (mappedStatement != null
+              && mappedStatement.getSqlCommandType() == SqlCommandType.SELECT
+              && mappedStatement.getFetchSize() == null
+              && mappedStatement.getConfiguration().getDefaultFetchSize() == null) {
+        StatementFetchSize fetchSize = statements.get(mappedStatement.getId());
+        if (fetchSize != null) {
+          statement.setFetchSize(fetchSize.getFetchSize());
+        }
+      }
+      return statement;
+    }
+
+    List<?> result = (List<?>) invocation.proceed();
+    // rows passed to a ResultHandler are not returned, they are counted by the handler wrapped in query()
+    if (target instanceof DefaultResultSetHandler && RESULT_HANDLER.get(target) == null) {
+      record((MappedStatement) RESULT_SET_MAPPED_STATEMENT.get(target), result.size());
+    }
+    return result;
+  }
+
+  /**
+   * Counts the rows of selects streamed to a {@link ResultHandler}, which never reach {@code handleResultSets} results.
+   */
+  private Object query(Invocation invocation) throws Throwable {
+    Object[] args = invocation.getArgs();
+    ResultHandler<?> resultHandler = (ResultHandler<?>) args[3];
+    if (resultHandler == null) {
+      return invocation.proceed();
+    }
+    CountingResultHandler<?> counter = new CountingResultHandler<>(resultHandler);
+    args[3] = counter;
+    Object result = invocation.proceed();
+    record((MappedStatement) args[0], counter.rows);
+    return result;
+  }
+
+  private void record(MappedStatement mappedStatement, int rows) {
+    statements.computeIfAbsent(mappedStatement.getId(), id -> new StatementFetchSize())
+            .record(rows, minFetchSize, maxFetchSize);
+  }
+
+  /**
+   * Unwraps the handlers of plugins applied before this one. The fields read here are resolved once, a
+   * {@code MetaObject} per call would reflect on the handler classes for every statement.
+   */
+  private static Object unwrap(Object target) throws IllegalAccessException {
+    while (Proxy.isProxyClass(target.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(target);
+      if (!(handler instanceof Plugin)) {
+        break;
+      }
+      target = PLUGIN_TARGET.get(handler);
+    }
+    return target;
+  }
+
+  private static MappedStatement mappedStatement(StatementHandler handler) throws IllegalAccessException {
+    Object delegate = handler instanceof RoutingStatementHandler ? unwrap(ROUTING_DELEGATE.get(handler)) : handler;
+    return delegate instanceof BaseStatementHandler ? (MappedStatement) STATEMENT_MAPPED_STATEMENT.get(delegate) : null;
+  }
+
+  private static Field field(Class<?> type, String name) {
+    try {
+      Field field = type.getDeclaredField(name);
+      field.setAccessible(true);
+      return field;
+    } catch (NoSuchFieldException e) {
+      throw new IllegalStateException("Unsupported MyBatis version, " + type.getName() + " has no field " + name, e);
+    }
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+
+  private static final class CountingResultHandler<T> implements ResultHandler<T> {
+    private final ResultHandler<T> delegate;
+    private int rows;
+
+    private CountingResultHandler(ResultHandler<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void handleResult(ResultContext<? extends T> resultContext) {
+      rows++;
+      delegate.handleResult(resultContext);
+    }
+  }
+
+  /**
+   * The row counts observed for one mapped statement and the fetch size chosen from them.
+   */
+  public static final class StatementFetchSize {
+    private static final double SMOOTHING = 0.25;
+
+    private long executions;
+    private double averageRows;
+    private volatile int fetchSize;
+
+    private synchronized void record(int rows, int minFetchSize, int maxFetchSize) {
+      executions++;
+      averageRows = executions == 1 ? rows : averageRows + (rows - averageRows) * SMOOTHING;
+      fetchSize = (int) Math.min(maxFetchSize, Math.max(minFetchSize, Math.ceil(averageRows) + 1));
+    }
+
+    /**
+     * @return the number of results observed
+     */
+    public synchronized long getExecutions() {
+      return executions;
+    }
+
+    /**
+     * @return the moving average of the number of rows returned
+     */
+    public synchronized double getAverageRows() {
+      return averageRows;
+    }
+
+    /**
+     * @return the fetch size set on the next execution
+     */
+    public int getFetchSize() {
+      return fetchSize;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.plugin;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Helpers to derive {@code MappedStatement}s and {@code BoundSql}s from existing ones.
+ */
+public final class MappedStatements {
+  private MappedStatements() {
+    // NOP
+  }
+
+  /**
+   * Copies {@code boundSql} with a different SQL text.
+   *
+   * @param statement
+   *          the statement the SQL belongs to
+   * @param boundSql
+   *          the SQL to copy parameters from
+   * @param sql
+   *          the new SQL, using the same {@code ?} placeholders as the original
+   * @param extraParameters
+   *          mappings of {@code ?} placeholders the new SQL appends after the original ones, resolved against the
+   *          additional parameters set on the returned {@code BoundSql}
+   * @return the new {@code BoundSql}
+   */
+  public static BoundSql withSql(MappedStatement statement, BoundSql boundSql, String sql,
+                                 List<ParameterMapping> extraParameters) {
+    List<ParameterMapping> mappings = boundSql.getParameterMappings();
+    if (!extraParameters.isEmpty()) {
+      mappings = new ArrayList<>(mappings);
+      mappings.addAll(extraParameters);
+    }
+    BoundSql copy = new BoundSql(statement.getConfiguration(), sql, mappings, boundSql.getParameterObject());
+    for (ParameterMapping mapping : boundSql.getParameterMappings()) {
+      String name = new PropertyTokenizer(mapping.getProperty()).getName();
+      if (boundSql.hasAdditionalParameter(name)) {
+        copy.setAdditionalParameter(name, boundSql.getAdditionalParameter(name));
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Copies {@code statement}, mapping rows to {@code resultType} instead of the declared result type. Used for mapper
+   * methods whose return type MyBatis can not derive an element type from, such as {@code Stream<T>}.
+   */
+  public static MappedStatement withResultType(MappedStatement statement, Class<?> resultType) {
+    List<ResultMap> resultMaps = new ArrayList<>();
+    for (ResultMap resultMap : statement.getResultMaps()) {
+      resultMaps.add(new ResultMap.Builder(statement.getConfiguration(), resultMap.getId(), resultType,
+              resultMap.getResultMappings(), resultMap.getAutoMapping()).build());
+    }
+    return copy(statement, Collections.unmodifiableList(resultMaps)).build();
+  }
+
+  /**
+   * Copies {@code statement}, mapping one result set with each of {@code resultMaps}. The copy does not use the second
+   * level cache, since its results belong to more than one statement.
+   */
+  public static MappedStatement withResultMaps(MappedStatement statement, List<ResultMap> resultMaps) {
+    return copy(statement, Collections.unmodifiableList(new ArrayList<>(resultMaps)))
+            .cache(null)
+            .useCache(false)
+            .build();
+  }
+
+  private static MappedStatement.Builder copy(MappedStatement statement, List<ResultMap> resultMaps) {
+    MappedStatement.Builder builder = new MappedStatement.Builder(
+            statement.getConfiguration(), statement.getId(), statement.getSqlSource(), statement.getSqlCommandType())
+            .resource(statement.getResource())
+            .parameterMap(statement.getParameterMap())
+            .resultMaps(resultMaps)
+            .fetchSize(statement.getFetchSize())
+            .timeout(statement.getTimeout())
+            .statementType(statement.getStatementType())
+            .resultSetType(statement.getResultSetType())
+            .cache(statement.getCache())
+            .flushCacheRequired(statement.isFlushCacheRequired())
+            .useCache(statement.isUseCache())
+            .resultOrdered(statement.isResultOrdered())
+            .keyGenerator(statement.getKeyGenerator())
+            .databaseId(statement.getDatabaseId())
+            .lang(statement.getLang());
+    if (statement.getKeyProperties() != null) {
+      builder.keyProperty(String.join(",", statement.getKeyProperties()));
+    }
+    if (statement.getKeyColumns() != null) {
+      builder.keyColumn(String.join(",", statement.getKeyColumns()));
+    }
+    if (statement.getResultSets() != null) {
+      builder.resultSets(String.join(",", statement.getResultSets()));
+    }
+    return builder;
+  }
+}
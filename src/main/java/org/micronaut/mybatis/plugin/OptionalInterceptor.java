@@ -0,0 +1,61 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.plugin;
+
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.session.Configuration;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * A plugin only needed by mappers that use the feature it implements. It is added to a MyBatis configuration only if
+ * one of the mappers of that configuration needs it, so that the statements of other configurations are not routed
+ * through one more plugin proxy.
+ */
+public interface OptionalInterceptor extends Interceptor {
+  /**
+   * @param mapperInterface
+   *          a mapper of the configuration being built
+   * @return whether the mapper needs this plugin
+   */
+  boolean isRequiredBy(Class<?> mapperInterface);
+
+  /**
+   * Called once the plugin is added to a configuration, for plugins that act on the configurations using them.
+   *
+   * @param configuration
+   *          the configuration being built
+   */
+  default void register(Configuration configuration) {
+    // NOP
+  }
+
+  /**
+   * @return whether a method of {@code mapperInterface} is annotated with one of {@code annotations}
+   */
+  @SafeVarargs
+  static boolean hasAnnotatedMethod(Class<?> mapperInterface, Class<? extends Annotation>... annotations) {
+    for (Method method : mapperInterface.getMethods()) {
+      for (Class<? extends Annotation> annotation : annotations) {
+        if (method.isAnnotationPresent(annotation)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
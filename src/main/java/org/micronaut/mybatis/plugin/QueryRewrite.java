@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.plugin;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ * Changes a query right before the executor runs it, see {@link QueryRewriteInterceptor}.
+ */
+public interface QueryRewrite {
+  /**
+   * @param statement
+   *          the mapped statement being queried
+   * @return the statement to run instead, by default the same statement
+   */
+  default MappedStatement statement(MappedStatement statement) {
+    return statement;
+  }
+
+  /**
+   * @param statement
+   *          the statement returned by {@link #statement(MappedStatement)}
+   * @param boundSql
+   *          the SQL and parameters MyBatis would run
+   * @return the SQL and parameters to run instead
+   */
+  BoundSql boundSql(MappedStatement statement, BoundSql boundSql);
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.plugin;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.micronaut.mybatis.annotation.Composite;
+import org.micronaut.mybatis.annotation.FanOut;
+import org.micronaut.mybatis.annotation.Keyset;
+import org.micronaut.mybatis.annotation.Partitioned;
+
+import javax.inject.Singleton;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * Applies the {@link QueryRewrite} registered for the current thread with {@link #apply} to the queries of one mapped
+ * statement. The rewritten SQL takes part in the cache key, so rewritten queries are cached separately from the
+ * original one.
+ *
+ * Only configurations with {@link Partitioned}, {@link Keyset}, {@link FanOut} or {@link Composite} methods, which
+ * rewrite their queries, get this plugin.
+ */
+@Singleton
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class })
+})
+public class QueryRewriteInterceptor implements OptionalInterceptor {
+  private static final ThreadLocal<Rewrite> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Runs {@code call} with {@code rewrite} applied to the queries of statement {@code statementId} made by the current
+   * thread.
+   */
+  public static <T> T apply(String statementId, QueryRewrite rewrite, Supplier<T> call) {
+    Rewrite previous = CURRENT.get();
+    CURRENT.set(new Rewrite(statementId, rewrite));
+    try {
+      return call.get();
+    } finally {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    Rewrite current = CURRENT.get();
+    Object[] args = invocation.getArgs();
+    MappedStatement statement = (MappedStatement) args[0];
+    if (current == null || !current.statementId.equals(statement.getId())) {
+      return invocation.proceed();
+    }
+
+    Object parameter = args[1];
+    RowBounds rowBounds = (RowBounds) args[2];
+    ResultHandler<?> resultHandler = (ResultHandler<?>) args[3];
+    Executor executor = (Executor) invocation.getTarget();
+
+    MappedStatement rewrittenStatement = current.rewrite.statement(statement);
+    BoundSql boundSql = current.rewrite.boundSql(rewrittenStatement, rewrittenStatement.getBoundSql(parameter));
+    CacheKey cacheKey = executor.createCacheKey(rewrittenStatement, parameter, rowBounds, boundSql);
+    return executor.query(rewrittenStatement, parameter, rowBounds, resultHandler, cacheKey, boundSql);
+  }
+
+  @Override
+  public boolean isRequiredBy(Class<?> mapperInterface) {
+    return OptionalInterceptor.hasAnnotatedMethod(mapperInterface, Partitioned.class, Keyset.class, FanOut.class,
+            Composite.class);
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+
+  private static final class Rewrite {
+    private final String statementId;
+    private final QueryRewrite rewrite;
+
+    private Rewrite(String statementId, QueryRewrite rewrite) {
+      this.statementId = statementId;
+      this.rewrite = rewrite;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.shard;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.micronaut.mybatis.plugin.MappedStatements;
+import org.micronaut.mybatis.plugin.QueryRewrite;
+
+import java.util.Collections;
+
+/**
+ * Appends the limit of a {@link org.micronaut.mybatis.annotation.FanOut} method to the query run on every shard, so
+ * that no shard sends more rows than the merged result keeps.
+ */
+public final class FanOutLimit implements QueryRewrite {
+  private static final String LIMIT_PARAMETER = "__fan_out_limit";
+
+  private final int limit;
+  private final String limitClause;
+
+  /**
+   * @param limit
+   *          the maximum number of rows of the merged result
+   * @param limitClause
+   *          the clause limiting the number of rows of a query, with a {@code ?} placeholder for the number
+   */
+  public FanOutLimit(int limit, String limitClause) {
+    this.limit = limit;
+    this.limitClause = limitClause;
+  }
+
+  @Override
+  public BoundSql boundSql(MappedStatement statement, BoundSql boundSql) {
+    String sql = boundSql.getSql() + ' ' + limitClause;
+    ParameterMapping parameter =
+            new ParameterMapping.Builder(statement.getConfiguration(), LIMIT_PARAMETER, Integer.class).build();
+    BoundSql limited = MappedStatements.withSql(statement, boundSql, sql, Collections.singletonList(parameter));
+    limited.setAdditionalParameter(LIMIT_PARAMETER, limit);
+    return limited;
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.shard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Merges the results of a call that ran on every shard into the result of the mapper method.
+ */
+public final class ShardResults {
+  private ShardResults() {
+    // NOP
+  }
+
+  /**
+   * @param results
+   *          the result of every shard, in shard order
+   * @param returnType
+   *          the return type of the mapper method
+   * @param comparator
+   *          comparator the list result of every shard is sorted by, or {@code null} to concatenate them
+   * @param limit
+   *          maximum size of a list result, or a negative value for no limit
+   * @return the merged result
+   */
+  public static Object merge(List<?> results, Class<?> returnType, Comparator<Object> comparator, int limit) {
+    if (returnType == void.class || returnType == Void.class) {
+      return null;
+    }
+    if (Collection.class.isAssignableFrom(returnType)) {
+      List<Object> merged = mergeLists(results, comparator, limit);
+      return Set.class.isAssignableFrom(returnType) ? new LinkedHashSet<>(merged) : merged;
+    }
+    if (isNumber(returnType)) {
+      return sum(results, returnType);
+    }
+    for (Object result : results) {
+      if (result instanceof Optional ? ((Optional<?>) result).isPresent() : result != null) {
+        return result;
+      }
+    }
+    return returnType == Optional.class ? Optional.empty() : null;
+  }
+
+  private static List<Object> mergeLists(List<?> results, Comparator<Object> comparator, int limit) {
+    int size = 0;
+    for (Object result : results) {
+      size += result == null ? 0 : ((Collection<?>) result).size();
+    }
+    int max = limit < 0 ? size : Math.min(limit, size);
+    List<Object> merged = new ArrayList<>(max);
+
+    if (comparator == null) {
+      for (Object result : results) {
+        if (result == null) {
+          continue;
+        }
+        for (Object row : (Collection<?>) result) {
+          if (merged.size() == max) {
+            return merged;
+          }
+          merged.add(row);
+        }
+      }
+      return merged;
+    }
+
+    PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, results.size()), (a, b) -> comparator.compare(a.row, b.row));
+    for (Object result : results) {
+      if (result != null) {
+        Head head = new Head(((Collection<?>) result).iterator());
+        if (head.advance()) {
+          heads.add(head);
+        }
+      }
+    }
+    while (merged.size() < max && !heads.isEmpty()) {
+      Head head = heads.poll();
+      merged.add(head.row);
+      if (head.advance()) {
+        heads.add(head);
+      }
+    }
+    return merged;
+  }
+
+  private static boolean isNumber(Class<?> type) {
+    return type == int.class || type == Integer.class || type == long.class || type == Long.class;
+  }
+
+  private static Object sum(List<?> results, Class<?> returnType) {
+    long sum = 0;
+    for (Object result : results) {
+      if (result != null) {
+        sum += ((Number) result).longValue();
+      }
+    }
+    if (returnType == int.class || returnType == Integer.class) {
+      return Math.toIntExact(sum);
+    }
+    return sum;
+  }
+
+  private static final class Head {
+    private final Iterator<?> iterator;
+    private Object row;
+
+    private Head(Iterator<?> iterator) {
+      this.iterator = iterator;
+    }
+
+    private boolean advance() {
+      if (iterator.hasNext()) {
+        row = iterator.next();
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.shard;
+
+/**
+ * Maps the value of a {@link org.micronaut.mybatis.annotation.ShardKey} parameter to a shard. The default
+ * implementation is {@link HashShardStrategy}, provide a bean that {@code @Replaces} it to customize routing.
+ */
+public interface ShardStrategy {
+  /**
+   * @param key
+   *          the shard key of a call, never {@code null}
+   * @param shardCount
+   *          the number of configured shards
+   * @return index of the shard to run the call on, between {@code 0} and {@code shardCount - 1}
+   */
+  int shardFor(Object key, int shardCount);
+}
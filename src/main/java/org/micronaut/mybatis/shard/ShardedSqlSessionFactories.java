@@ -0,0 +1,155 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.shard;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.micronaut.mybatis.deadline.Deadline;
+import org.micronaut.mybatis.trace.MapperTrace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * The {@code SqlSessionFactory} of every shard, in the order of {@code mybatis.sharding.data-sources}, together with
+ * the bounded pool of threads used to run calls on all of them at once.
+ */
+public class ShardedSqlSessionFactories implements AutoCloseable {
+  private final List<SqlSessionFactory> shards;
+  private final ShardStrategy strategy;
+  private final ExecutorService executor;
+  private final long timeout;
+
+  /**
+   * @param shards
+   *          session factories of the shards
+   * @param strategy
+   *          routing of shard keys to shards
+   * @param threads
+   *          maximum number of shard calls running in parallel
+   * @param timeout
+   *          default time in milliseconds to wait for a shard, zero or negative to wait indefinitely
+   */
+  public ShardedSqlSessionFactories(List<SqlSessionFactory> shards, ShardStrategy strategy, int threads, long timeout) {
+    this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    this.strategy = strategy;
+    this.timeout = timeout;
+    this.executor = shards.isEmpty() ? null : newExecutor(threads);
+  }
+
+  private static ExecutorService newExecutor(int threads) {
+    AtomicInteger counter = new AtomicInteger();
+    return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "mybatis-shard-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public List<SqlSessionFactory> getShards() {
+    return shards;
+  }
+
+  public boolean isEmpty() {
+    return shards.isEmpty();
+  }
+
+  /**
+   * @param key
+   *          value of a shard key, must not be {@code null}
+   * @return the factory of the shard the key routes to
+   */
+  public SqlSessionFactory route(Object key) {
+    if (key == null) {
+      throw new IllegalArgumentException("Shard key must not be null");
+    }
+    return shards.get(strategy.shardFor(key, shards.size()));
+  }
+
+  /**
+   * Runs a call on every shard in parallel. The calls run within the {@link Deadline}s of the calling thread and within
+   * one of their own, which is cancelled when a shard fails or does not respond in time, so that the statements still
+   * running on the other shards are cancelled and their connections released.
+   *
+   * @param call
+   *          the call to make with the factory of each shard
+   * @param timeout
+   *          time in milliseconds to wait for the shards, or a negative value to use the configured timeout
+   * @return the result of every shard, in shard order
+   */
+  public <T> List<T> executeOnAll(Function<SqlSessionFactory, T> call, long timeout) {
+    long effectiveTimeout = timeout < 0 ? this.timeout : timeout;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(effectiveTimeout);
+    Deadline fanOut = Deadline.after(effectiveTimeout > 0 ? effectiveTimeout : Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+    List<Future<T>> futures = new ArrayList<>(shards.size());
+    for (SqlSessionFactory shard : shards) {
+      Callable<T> task = () -> fanOut.call(() -> call.apply(shard));
+      futures.add(executor.submit(MapperTrace.propagate(Deadline.propagate(task))));
+    }
+
+    List<T> results = new ArrayList<>(shards.size());
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        Future<T> future = futures.get(i);
+        if (effectiveTimeout > 0) {
+          try {
+            results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+          } catch (TimeoutException e) {
+            throw new PersistenceException("Shard " + i + " did not respond within " + effectiveTimeout + "ms");
+          }
+        } else {
+          results.add(future.get());
+        }
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PersistenceException("Interrupted while waiting for shards", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new PersistenceException("Error calling shard. Cause: " + e.getCause(), e.getCause());
+    } finally {
+      if (results.size() < futures.size()) {
+        fanOut.cancel();
+        futures.forEach(future -> future.cancel(true));
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.spill;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+
+/**
+ * Thrown by a guarded select whose result exceeds its row budget and can not be spilled.
+ */
+public class ResultBudgetExceededException extends PersistenceException {
+  private static final long serialVersionUID = 1L;
+
+  public ResultBudgetExceededException(String message) {
+    super(message);
+  }
+
+  public ResultBudgetExceededException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
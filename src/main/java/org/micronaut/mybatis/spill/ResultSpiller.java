@@ -0,0 +1,262 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.spill;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Value;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Collects the results of guarded selects within a row budget, and keeps statistics about the results that did not
+ * fit.
+ *
+ * Methods annotated with {@link org.micronaut.mybatis.annotation.ResultBudget} are guarded, and with
+ * {@code mybatis.result-budget.enabled} every {@code @Select} method returning a {@code List} that is not sharded or
+ * partitioned. A guarded result keeps up to {@code mybatis.result-budget.max-rows} rows on the heap. The rows beyond
+ * are either written to a {@link SpillingList} in {@code mybatis.result-budget.spill-directory}, or abort the query
+ * with a {@link ResultBudgetExceededException}, as configured by {@code mybatis.result-budget.overflow}.
+ */
+@Singleton
+public class ResultSpiller {
+  private static final Logger log = LoggerFactory.getLogger(ResultSpiller.class);
+
+  private final boolean enabled;
+  private final int maxRows;
+  private final ResultOverflow overflow;
+  private final Path spillDirectory;
+
+  private final AtomicLong guardedQueries = new AtomicLong();
+  private final AtomicLong spilledQueries = new AtomicLong();
+  private final AtomicLong rejectedQueries = new AtomicLong();
+  private final AtomicLong spilledRows = new AtomicLong();
+  private final AtomicLong spilledBytes = new AtomicLong();
+  private final AtomicLong largestSpill = new AtomicLong();
+
+  /**
+   * @param enabled
+   *          whether all {@code List} selects are guarded, {@code mybatis.result-budget.enabled}
+   * @param maxRows
+   *          the default row budget, {@code mybatis.result-budget.max-rows}
+   * @param overflow
+   *          what selects guarded by configuration do beyond the budget, {@code mybatis.result-budget.overflow}.
+   *          Defaults to {@link ResultOverflow#SPILL}
+   * @param spillDirectory
+   *          the directory of the spill files, {@code mybatis.result-budget.spill-directory}. Defaults to the
+   *          system temporary directory
+   */
+  @Inject
+  public ResultSpiller(@Value("${mybatis.result-budget.enabled:false}") boolean enabled,
+                       @Value("${mybatis.result-budget.max-rows:10000}") int maxRows,
+                       @Nullable @Property(name = "mybatis.result-budget.overflow") ResultOverflow overflow,
+                       @Nullable @Property(name = "mybatis.result-budget.spill-directory") String spillDirectory) {
+    if (maxRows < 0) {
+      throw new IllegalArgumentException("Result budget must not be negative, got " + maxRows);
+    }
+    this.enabled = enabled;
+    this.maxRows = maxRows;
+    this.overflow = overflow == null ? ResultOverflow.SPILL : overflow;
+    this.spillDirectory = spillDirectory == null || spillDirectory.isEmpty() ? null : Paths.get(spillDirectory);
+  }
+
+  /**
+   * @return whether all {@code List} selects are guarded
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the default row budget
+   */
+  public int getMaxRows() {
+    return maxRows;
+  }
+
+  /**
+   * @return what selects guarded by configuration do beyond the budget
+   */
+  public ResultOverflow getOverflow() {
+    return overflow;
+  }
+
+  /**
+   * Runs a select and collects its rows within a budget.
+   *
+   * @param statementId
+   *          the id of the statement, for messages
+   * @param maxRows
+   *          the number of rows kept on the heap
+   * @param overflow
+   *          what to do with the rows beyond
+   * @param query
+   *          runs the select with the given result handler
+   * @return the rows, a {@link SpillingList} if they exceeded the budget
+   * @throws ResultBudgetExceededException
+   *           if the rows exceeded the budget and can not be spilled
+   */
+  public <E> List<E> collect(String statementId, int maxRows, ResultOverflow overflow,
+                             Consumer<ResultHandler<E>> query) {
+    guardedQueries.incrementAndGet();
+    BudgetResultHandler<E> handler = new BudgetResultHandler<>(statementId, maxRows, overflow);
+    try {
+      query.accept(handler);
+      return handler.finish();
+    } catch (PersistenceException e) {
+      handler.abort();
+      if (e.getCause() instanceof ResultBudgetExceededException) {
+        rejectedQueries.incrementAndGet();
+        throw (ResultBudgetExceededException) e.getCause();
+      }
+      throw e;
+    } catch (RuntimeException | Error e) {
+      handler.abort();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the number of guarded selects run
+   */
+  public long getGuardedQueries() {
+    return guardedQueries.get();
+  }
+
+  /**
+   * @return the number of guarded selects that spilled rows to disk
+   */
+  public long getSpilledQueries() {
+    return spilledQueries.get();
+  }
+
+  /**
+   * @return the number of guarded selects that failed because they exceeded their budget
+   */
+  public long getRejectedQueries() {
+    return rejectedQueries.get();
+  }
+
+  /**
+   * @return the number of rows spilled to disk over all selects
+   */
+  public long getSpilledRows() {
+    return spilledRows.get();
+  }
+
+  /**
+   * @return the number of bytes spilled to disk over all selects
+   */
+  public long getSpilledBytes() {
+    return spilledBytes.get();
+  }
+
+  /**
+   * @return the size in bytes of the largest spill file
+   */
+  public long getLargestSpill() {
+    return largestSpill.get();
+  }
+
+  private final class BudgetResultHandler<E> implements ResultHandler<E> {
+    private final String statementId;
+    private final int maxRows;
+    private final ResultOverflow overflow;
+    private final List<E> rows = new ArrayList<>();
+    private SpillingList<E> spill;
+
+    private BudgetResultHandler(String statementId, int maxRows, ResultOverflow overflow) {
+      this.statementId = statementId;
+      this.maxRows = maxRows;
+      this.overflow = overflow;
+    }
+
+    @Override
+    public void handleResult(ResultContext<? extends E> context) {
+      E row = context.getResultObject();
+      if (spill == null) {
+        if (rows.size() < maxRows) {
+          rows.add(row);
+          return;
+        }
+        if (overflow == ResultOverflow.FAIL) {
+          throw new ResultBudgetExceededException("Result of '" + statementId + "' exceeds its budget of "
+                  + maxRows + " rows");
+        }
+        try {
+          spill = new SpillingList<>(rows, spillDirectory);
+        } catch (IOException e) {
+          throw new ResultBudgetExceededException("Result of '" + statementId + "' exceeds its budget of "
+                  + maxRows + " rows and can not be spilled: " + e, e);
+        }
+        rows.clear();
+        log.warn(() -> "Result of '" + statementId + "' exceeds its budget of " + maxRows + " rows, spilling to disk");
+      }
+      try {
+        spill.append(row);
+      } catch (NotSerializableException e) {
+        throw new ResultBudgetExceededException("Result of '" + statementId + "' exceeds its budget of "
+                + maxRows + " rows and can not be spilled, rows are not serializable: " + e.getMessage(), e);
+      } catch (IOException e) {
+        throw new ResultBudgetExceededException("Result of '" + statementId + "' exceeds its budget of "
+                + maxRows + " rows and can not be spilled: " + e, e);
+      }
+    }
+
+    private List<E> finish() {
+      if (spill == null) {
+        return rows;
+      }
+      try {
+        spill.finish();
+      } catch (IOException e) {
+        abort();
+        throw new PersistenceException("Error completing spill file of '" + statementId + "'. Cause: " + e, e);
+      }
+      long bytes = spill.getSpilledBytes();
+      spilledQueries.incrementAndGet();
+      spilledRows.addAndGet(spill.getSpilledRows());
+      spilledBytes.addAndGet(bytes);
+      largestSpill.accumulateAndGet(bytes, Math::max);
+      log.debug(() -> "Spilled " + spill.getSpilledRows() + " rows of '" + statementId + "', " + bytes + " bytes");
+      return spill;
+    }
+
+    private void abort() {
+      if (spill != null) {
+        try {
+          spill.close();
+        } catch (IOException e) {
+          log.debug(() -> "Failed to remove spill file of '" + statementId + "': " + e.getMessage());
+        }
+      }
+    }
+  }
+}
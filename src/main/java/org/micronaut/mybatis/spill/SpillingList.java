@@ -0,0 +1,186 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.spill;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@code List} of a result that exceeded its row budget. The first rows are kept on the heap, the others
+ * are serialized into a temporary file and deserialized on every access, so rows of the spilled part are not
+ * identical between two calls of {@link #get(int)} and must implement {@code java.io.Serializable}.
+ *
+ * The file is memory-mapped once the result is complete. It is opened with {@code DELETE_ON_CLOSE} and removed when
+ * the list is closed; on POSIX systems it is unlinked right away and never outlives the process.
+ *
+ * @param <E> the type of the rows
+ */
+public final class SpillingList<E> extends AbstractList<E> implements RandomAccess, Closeable {
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  private final List<E> head;
+  private final FileChannel file;
+  private final OutputStream out;
+  private final ByteArrayOutputStream row = new ByteArrayOutputStream();
+  private long[] offsets = new long[1024];
+  private int spilledRows;
+  private ByteBuffer mapped;
+  private volatile boolean closed;
+
+  SpillingList(List<E> head, Path directory) throws IOException {
+    this.head = new ArrayList<>(head);
+    Path path = directory == null
+            ? Files.createTempFile("mybatis-result-", ".tmp")
+            : Files.createTempFile(directory, "mybatis-result-", ".tmp");
+    this.file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    this.out = new BufferedOutputStream(Channels.newOutputStream(file), WRITE_BUFFER_SIZE);
+  }
+
+  /**
+   * Serializes a row to the end of the file.
+   */
+  void append(E element) throws IOException {
+    row.reset();
+    try (ObjectOutputStream objects = new ObjectOutputStream(row)) {
+      objects.writeObject(element);
+    }
+    row.writeTo(out);
+    if (spilledRows + 1 == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[spilledRows + 1] = offsets[spilledRows] + row.size();
+    spilledRows++;
+  }
+
+  /**
+   * Completes the file and maps it for reading.
+   */
+  void finish() throws IOException {
+    out.flush();
+    long size = offsets[spilledRows];
+    if (size <= Integer.MAX_VALUE) {
+      mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+
+  /**
+   * @return the number of rows kept in the temporary file
+   */
+  public int getSpilledRows() {
+    return spilledRows;
+  }
+
+  /**
+   * @return the size of the temporary file in bytes
+   */
+  public long getSpilledBytes() {
+    return offsets[spilledRows];
+  }
+
+  @Override
+  public E get(int index) {
+    if (index < head.size()) {
+      return head.get(index);
+    }
+    int spilled = index - head.size();
+    if (index < 0 || spilled >= spilledRows) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+    if (closed) {
+      throw new IllegalStateException("Spilled result list is closed");
+    }
+    try {
+      return read(offsets[spilled], (int) (offsets[spilled + 1] - offsets[spilled]));
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalStateException("Error reading spilled row " + index + ": " + e, e);
+    }
+  }
+
+  @Override
+  public int size() {
+    return head.size() + spilledRows;
+  }
+
+  /**
+   * Removes the temporary file. Only the rows kept on the heap can be read afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    file.close();
+  }
+
+  @SuppressWarnings("unchecked")
+  private E read(long position, int length) throws IOException, ClassNotFoundException {
+    byte[] bytes = new byte[length];
+    if (mapped != null) {
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.position((int) position);
+      buffer.get(bytes);
+    } else {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        if (file.read(buffer, position + buffer.position()) < 0) {
+          throw new IOException("Unexpected end of spill file");
+        }
+      }
+    }
+    try (ObjectInputStream in = new ContextObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return (E) in.readObject();
+    }
+  }
+
+  /**
+   * Resolves classes with the thread's context class loader first, which is the one that loaded the mapped types.
+   */
+  private static final class ContextObjectInputStream extends ObjectInputStream {
+    private ContextObjectInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+      if (classLoader != null) {
+        try {
+          return Class.forName(desc.getName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+          // fall back to the default resolution, which also handles primitive types
+        }
+      }
+      return super.resolveClass(desc);
+    }
+  }
+}
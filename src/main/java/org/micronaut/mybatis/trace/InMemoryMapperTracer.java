@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.trace;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Keeps the most recent traces in memory, for tests and diagnostics. Enabled with {@code mybatis.tracing.in-memory},
+ * keeping up to {@code mybatis.tracing.in-memory-capacity} traces.
+ */
+@Singleton
+@Requires(property = "mybatis.tracing.in-memory", value = "true")
+public class InMemoryMapperTracer implements MapperTracer {
+  private final int capacity;
+  private final Deque<MapperTrace> traces = new ArrayDeque<>();
+
+  /**
+   * @param capacity
+   *          the number of traces kept, {@code mybatis.tracing.in-memory-capacity}
+   */
+  @Inject
+  public InMemoryMapperTracer(@Value("${mybatis.tracing.in-memory-capacity:1000}") int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Trace capacity must be positive, got " + capacity);
+    }
+    this.capacity = capacity;
+  }
+
+  @Override
+  public synchronized void record(MapperTrace trace) {
+    if (traces.size() == capacity) {
+      traces.removeFirst();
+    }
+    traces.addLast(trace);
+  }
+
+  /**
+   * @return the recorded traces, oldest first
+   */
+  public synchronized List<MapperTrace> getTraces() {
+    return new ArrayList<>(traces);
+  }
+
+  /**
+   * Drops all recorded traces.
+   */
+  public synchronized void clear() {
+    traces.clear();
+  }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.trace;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of one sampled mapper call. A trace is the current trace of its thread while the call runs; the advice and
+ * the {@link TracingInterceptor} add the time spent in every {@link TracePhase} to it.
+ *
+ * Phases are summed over all statements the call runs, apart from nested selects, which are counted in
+ * {@link TracePhase#MAPPING} of the statement that triggered them. Statements run by other threads for the call, such
+ * as shards and partitions, are traced through {@link #propagate(Callable)}; their phases are added to those of the
+ * call, so the phases of a call that ran statements in parallel may sum up to more than its duration.
+ */
+public final class MapperTrace {
+  private static final ThreadLocal<MapperTrace> CURRENT = new ThreadLocal<>();
+  private static final TracePhase[] PHASES = TracePhase.values();
+
+  private final String name;
+  private final long startTime;
+  private final long startNanos;
+  private final long[] phaseNanos = new long[PHASES.length];
+  private final MapperTrace previous;
+  private long durationNanos = -1;
+  private int statements;
+  private Throwable error;
+
+  int mappingDepth;
+
+  private MapperTrace(String name, MapperTrace previous) {
+    this.name = name;
+    this.previous = previous;
+    this.startTime = System.currentTimeMillis();
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Starts a trace and makes it the current trace of the thread.
+   *
+   * @param name
+   *          the name of the call, usually the mapper and method
+   */
+  public static MapperTrace start(String name) {
+    MapperTrace trace = new MapperTrace(name, CURRENT.get());
+    CURRENT.set(trace);
+    return trace;
+  }
+
+  /**
+   * @return the trace of the call running on this thread, {@code null} if the call is not sampled
+   */
+  public static MapperTrace current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns a task running {@code task} with a trace of its own, whose phases and statements are added to the current
+   * trace of this thread when the task ends, to hand the task to another thread. The task runs without a trace if the
+   * current thread has none. Tasks that end after the call was recorded are not added.
+   */
+  public static <T> Callable<T> propagate(Callable<T> task) {
+    MapperTrace parent = CURRENT.get();
+    if (parent == null) {
+      return task;
+    }
+    return () -> {
+      MapperTrace child = start(parent.name);
+      Throwable error = null;
+      try {
+        return task.call();
+      } catch (Throwable t) {
+        error = t;
+        throw t;
+      } finally {
+        child.end(error);
+        parent.merge(child);
+      }
+    };
+  }
+
+  /**
+   * Adds the time since {@code startNanos} to a phase of the current trace, if any.
+   */
+  public static void record(TracePhase phase, long startNanos) {
+    MapperTrace trace = CURRENT.get();
+    if (trace != null) {
+      trace.add(phase, System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Ends the trace and restores the trace that was current when it started.
+   *
+   * @param error
+   *          what the call threw, or {@code null}
+   */
+  public void end(Throwable error) {
+    synchronized (this) {
+      this.durationNanos = System.nanoTime() - startNanos;
+      this.error = error;
+    }
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  synchronized void add(TracePhase phase, long nanos) {
+    phaseNanos[phase.ordinal()] += nanos;
+  }
+
+  synchronized long nanos(TracePhase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  synchronized void statementExecuted() {
+    statements++;
+  }
+
+  private synchronized void merge(MapperTrace child) {
+    if (durationNanos >= 0) {
+      return;
+    }
+    synchronized (child) {
+      for (int i = 0; i < phaseNanos.length; i++) {
+        phaseNanos[i] += child.phaseNanos[i];
+      }
+      statements += child.statements;
+    }
+  }
+
+  /**
+   * @return the name of the call
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the start of the call in milliseconds since the epoch
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return the duration of the call, {@code -1} while it is running
+   */
+  public synchronized long getDuration(TimeUnit unit) {
+    return durationNanos < 0 ? -1 : unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the time spent in a phase
+   */
+  public synchronized long getPhaseDuration(TracePhase phase, TimeUnit unit) {
+    return unit.convert(phaseNanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the number of statements the call executed, without nested selects
+   */
+  public synchronized int getStatements() {
+    return statements;
+  }
+
+  /**
+   * @return what the call threw, or {@code null}
+   */
+  public synchronized Throwable getError() {
+    return error;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder(name).append(" [").append(durationNanos / 1000).append("us");
+    for (TracePhase phase : PHASES) {
+      builder.append(", ").append(phase.name().toLowerCase(Locale.ROOT)).append('=')
+              .append(phaseNanos[phase.ordinal()] / 1000).append("us");
+    }
+    if (error != null) {
+      builder.append(", error=").append(error);
+    }
+    return builder.append(']').toString();
+  }
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.trace;
+
+/**
+ * Receives the traces of sampled mapper calls, see {@link MapperTrace}. Register an implementation as a bean to enable
+ * tracing. No adapter to a tracing system is included: to export traces to OpenTelemetry or Micronaut tracing, write an
+ * implementation that creates a span from the start time and duration of the trace, with one child per phase.
+ *
+ * Traces are recorded on the thread that made the call, right after it returned, so implementations should hand
+ * them off rather than block.
+ */
+public interface MapperTracer {
+  /**
+   * @param trace
+   *          the completed trace of a mapper call
+   */
+  void record(MapperTrace trace);
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.trace;
+
+/**
+ * The phases of a mapper call timed by a {@link MapperTrace}.
+ */
+public enum TracePhase {
+  /**
+   * Checking out the connection of a session from the data source, usually a connection pool.
+   */
+  CHECKOUT,
+  /**
+   * Preparing the JDBC statement.
+   */
+  PREPARE,
+  /**
+   * Executing the statement, without mapping its results.
+   */
+  EXECUTE,
+  /**
+   * Mapping the result sets to objects, including nested selects.
+   */
+  MAPPING,
+  /**
+   * Committing the session of a call that is not a select.
+   */
+  COMMIT
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.trace;
+
+import io.micronaut.context.annotation.Requires;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Adds the time spent in the prepare, execute and mapping phases of every statement to the current
+ * {@link MapperTrace}; the checkout and commit phases are timed by the mapper advice around the session. Registered
+ * when a {@link MapperTracer} bean exists; statements of calls that are not sampled only pay for a thread local lookup.
+ */
+@Singleton
+@Requires(beans = MapperTracer.class)
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class, Integer.class }),
+        @Signature(type = StatementHandler.class, method = "query", args = { Statement.class, ResultHandler.class }),
+        @Signature(type = StatementHandler.class, method = "update", args = { Statement.class }),
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = { Statement.class })
+})
+public class TracingInterceptor implements Interceptor {
+  @Override
+  public Object intercept(Invocation invocation) throws Throwable {
+    MapperTrace trace = MapperTrace.current();
+    if (trace == null || trace.mappingDepth > 0 && !(invocation.getTarget() instanceof ResultSetHandler)) {
+      return invocation.proceed();
+    }
+
+    long start = System.nanoTime();
+    if (invocation.getTarget() instanceof ResultSetHandler) {
+      trace.mappingDepth++;
+      try {
+        return invocation.proceed();
+      } finally {
+        trace.mappingDepth--;
+        if (trace.mappingDepth == 0) {
+          trace.add(TracePhase.MAPPING, System.nanoTime() - start);
+        }
+      }
+    }
+    if ("prepare".equals(invocation.getMethod().getName())) {
+      try {
+        return invocation.proceed();
+      } finally {
+        trace.add(TracePhase.PREPARE, System.nanoTime() - start);
+      }
+    }
+
+    long mapping = trace.nanos(TracePhase.MAPPING);
+    try {
+      return invocation.proceed();
+    } finally {
+      long mapped = trace.nanos(TracePhase.MAPPING) - mapping;
+      trace.add(TracePhase.EXECUTE, System.nanoTime() - start - mapped);
+      trace.statementExecuted();
+    }
+  }
+
+  @Override
+  public Object plugin(Object target) {
+    return Plugin.wrap(target, this);
+  }
+
+  @Override
+  public void setProperties(Properties properties) {
+    // NOP
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.type;
+
+import io.micronaut.context.annotation.Value;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.TypeException;
+import org.micronaut.mybatis.annotation.TypeHandler;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps character large objects to UTF-8 encoded {@link LobContent}s. Used for {@code CLOB} columns when mapping
+ * results, and for parameters declared with {@code jdbcType=CLOB}.
+ *
+ * @see LobContentTypeHandler
+ */
+@TypeHandler
+@MappedJdbcTypes({ JdbcType.CLOB, JdbcType.NCLOB, JdbcType.LONGVARCHAR, JdbcType.LONGNVARCHAR })
+public class ClobContentTypeHandler extends LobContentTypeHandler {
+  @Inject
+  public ClobContentTypeHandler(@Value("${mybatis.lob.spill-threshold:1048576}") int spillThreshold,
+                                @Value("${mybatis.lob.spill-directory:}") String spillDirectory) {
+    super(spillThreshold, spillDirectory);
+  }
+
+  @Override
+  public void setNonNullParameter(PreparedStatement ps, int i, LobContent parameter, JdbcType jdbcType)
+          throws SQLException {
+    try {
+      ps.setCharacterStream(i, parameter.openReader());
+    } catch (IOException e) {
+      throw new TypeException("Error reading LOB parameter #" + i + ": " + e, e);
+    }
+  }
+
+  @Override
+  public LobContent getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+    String text = cs.getString(columnIndex);
+    return text == null ? null : LobContent.of(text);
+  }
+
+  @Override
+  protected LobContent read(ResultSet rs, int columnIndex) throws SQLException {
+    try (Reader in = rs.getCharacterStream(columnIndex)) {
+      return in == null ? null : LobContent.read(in, getSpillThreshold(), getSpillDirectory());
+    } catch (IOException e) {
+      throw new TypeException("Error reading LOB column #" + columnIndex + ": " + e, e);
+    }
+  }
+}
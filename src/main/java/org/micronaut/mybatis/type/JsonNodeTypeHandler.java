@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.type;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.micronaut.mybatis.annotation.TypeHandler;
+
+import javax.inject.Inject;
+
+/**
+ * Maps JSON text columns to Jackson trees, registered for {@link JsonNode} properties and parameters.
+ */
+@TypeHandler
+public class JsonNodeTypeHandler extends JsonTypeHandler<JsonNode> {
+  /**
+   * @param objectMapper
+   *          the application's object mapper
+   */
+  @Inject
+  public JsonNodeTypeHandler(ObjectMapper objectMapper) {
+    super(objectMapper, JsonNode.class);
+  }
+}
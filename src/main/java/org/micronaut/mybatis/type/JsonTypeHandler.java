@@ -0,0 +1,164 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.type;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Base of type handlers storing values as JSON documents, mapped with Jackson.
+ *
+ * Columns are read through {@code getCharacterStream}, or {@code getBinaryStream} for binary columns, and parsed
+ * straight from the stream, so no {@code String} of the whole document is created. Jackson parses and generates with
+ * its own recycled buffers; a parameter is written into a single buffer that is handed to the driver as a stream.
+ *
+ * To map a type, extend this class with the type as type argument and annotate the subclass with
+ * {@link org.micronaut.mybatis.annotation.TypeHandler}, it is then registered automatically:
+ *
+ * <pre>
+ * &#64;TypeHandler
+ * public class AddressTypeHandler extends JsonTypeHandler&lt;Address&gt; {
+ *   public AddressTypeHandler(ObjectMapper objectMapper) {
+ *     super(objectMapper, Address.class);
+ *   }
+ * }
+ * </pre>
+ *
+ * @param <T> the mapped type
+ */
+public abstract class JsonTypeHandler<T> extends BaseTypeHandler<T> {
+  private final ObjectMapper objectMapper;
+  private final JavaType type;
+  private final boolean binary;
+
+  /**
+   * Maps a text column.
+   *
+   * @param objectMapper
+   *          the mapper to read and write values with
+   * @param type
+   *          the mapped type
+   */
+  protected JsonTypeHandler(ObjectMapper objectMapper, Class<T> type) {
+    this(objectMapper, objectMapper.constructType(type), false);
+  }
+
+  /**
+   * @param objectMapper
+   *          the mapper to read and write values with
+   * @param type
+   *          the mapped type, may be generic
+   * @param binary
+   *          whether the column is binary and holds UTF-8 encoded JSON
+   */
+  protected JsonTypeHandler(ObjectMapper objectMapper, JavaType type, boolean binary) {
+    this.objectMapper = objectMapper;
+    this.type = type;
+    this.binary = binary;
+  }
+
+  @Override
+  public void setNonNullParameter(PreparedStatement ps, int i, T parameter, JdbcType jdbcType) throws SQLException {
+    try {
+      if (binary) {
+        ExposedByteArrayOutputStream out = new ExposedByteArrayOutputStream();
+        objectMapper.writerFor(type).writeValue(out, parameter);
+        ps.setBinaryStream(i, out.toInputStream(), out.size());
+      } else {
+        ExposedCharArrayWriter out = new ExposedCharArrayWriter();
+        objectMapper.writerFor(type).writeValue(out, parameter);
+        ps.setCharacterStream(i, out.toReader(), out.size());
+      }
+    } catch (IOException e) {
+      throw new TypeException("Error writing JSON parameter #" + i + " as " + type + ". Cause: " + e, e);
+    }
+  }
+
+  @Override
+  public T getNullableResult(ResultSet rs, String columnName) throws SQLException {
+    return binary ? read(rs.getBinaryStream(columnName)) : read(rs.getCharacterStream(columnName));
+  }
+
+  @Override
+  public T getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+    return binary ? read(rs.getBinaryStream(columnIndex)) : read(rs.getCharacterStream(columnIndex));
+  }
+
+  @Override
+  public T getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+    if (binary) {
+      // output parameters are not streamed by most drivers
+      byte[] bytes = cs.getBytes(columnIndex);
+      return bytes == null ? null : read(new ByteArrayInputStream(bytes));
+    }
+    return read(cs.getCharacterStream(columnIndex));
+  }
+
+  private T read(Reader reader) {
+    if (reader == null) {
+      return null;
+    }
+    try (Reader in = reader) {
+      return objectMapper.readValue(in, type);
+    } catch (IOException e) {
+      throw new TypeException("Error reading JSON column as " + type + ". Cause: " + e, e);
+    }
+  }
+
+  private T read(InputStream stream) {
+    if (stream == null) {
+      return null;
+    }
+    try (InputStream in = stream) {
+      return objectMapper.readValue(in, type);
+    } catch (IOException e) {
+      throw new TypeException("Error reading JSON column as " + type + ". Cause: " + e, e);
+    }
+  }
+
+  /**
+   * Hands its buffer to the driver without copying it.
+   */
+  private static final class ExposedCharArrayWriter extends CharArrayWriter {
+    Reader toReader() {
+      return new CharArrayReader(buf, 0, count);
+    }
+  }
+
+  /**
+   * Hands its buffer to the driver without copying it.
+   */
+  private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    InputStream toInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+}
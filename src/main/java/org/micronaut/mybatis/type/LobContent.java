@@ -0,0 +1,485 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.type;
+
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The content of a {@code BLOB} or {@code CLOB} column, read while the result set was open and available after the
+ * session has been closed. Small contents are kept on the heap; contents larger than the spill threshold of the type
+ * handler are copied to a temporary file, which is memory-mapped for reading. Text is stored UTF-8 encoded.
+ *
+ * Spilled contents keep their temporary file open until they are closed, so close them when done. The file is opened
+ * with {@code DELETE_ON_CLOSE}: on POSIX systems it is unlinked right away and only kept alive by the open channel, on
+ * other systems it is removed when the channel is closed. Contents that become unreachable without being closed have
+ * their file closed on the next spill, and the files still open when the JVM exits are closed by a shutdown hook.
+ *
+ * Contents are equal when their bytes are equal, whether they are spilled or not.
+ */
+public final class LobContent implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(LobContent.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final ReferenceQueue<LobContent> UNREACHABLE = new ReferenceQueue<>();
+  private static final Set<TemporaryFile> OPEN_FILES = ConcurrentHashMap.newKeySet();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> OPEN_FILES.forEach(TemporaryFile::closeQuietly),
+            "mybatis-lob-cleanup"));
+  }
+
+  private final byte[] bytes;
+  private final FileChannel file;
+  private final TemporaryFile temporaryFile;
+  private final long length;
+  private ByteBuffer mapped;
+  private int hash;
+
+  private LobContent(byte[] bytes, FileChannel file, long length) {
+    this.bytes = bytes;
+    this.file = file;
+    this.length = length;
+    if (file == null) {
+      this.temporaryFile = null;
+    } else {
+      closeUnreachable();
+      this.temporaryFile = new TemporaryFile(this, file);
+    }
+  }
+
+  /**
+   * @return a content held on the heap
+   */
+  public static LobContent of(byte[] bytes) {
+    return new LobContent(bytes, null, bytes.length);
+  }
+
+  /**
+   * @return a content holding the UTF-8 encoding of {@code text}, on the heap
+   */
+  public static LobContent of(String text) {
+    return of(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads a stream to its end.
+   *
+   * @param spillThreshold
+   *          the size above which the content is copied to a temporary file
+   * @param spillDirectory
+   *          the directory of the temporary file, {@code null} for the default temporary directory
+   */
+  public static LobContent read(InputStream in, int spillThreshold, Path spillDirectory) throws IOException {
+    try (SpillingOutputStream out = new SpillingOutputStream(spillThreshold, spillDirectory)) {
+      byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(spillThreshold, 1024))];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toContent();
+    }
+  }
+
+  /**
+   * Reads a character stream to its end, encoding it as UTF-8.
+   *
+   * @see #read(InputStream, int, Path)
+   */
+  public static LobContent read(Reader in, int spillThreshold, Path spillDirectory) throws IOException {
+    try (SpillingOutputStream out = new SpillingOutputStream(spillThreshold, spillDirectory)) {
+      Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      char[] buffer = new char[Math.min(BUFFER_SIZE, Math.max(spillThreshold, 1024)) / 2];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        writer.write(buffer, 0, read);
+      }
+      writer.flush();
+      return out.toContent();
+    }
+  }
+
+  /**
+   * @return the size of the content in bytes
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * @return whether the content was copied to a temporary file
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  /**
+   * @return the number of spilled contents whose temporary file is open, after closing those of unreachable contents
+   */
+  public static int getOpenFiles() {
+    closeUnreachable();
+    return OPEN_FILES.size();
+  }
+
+  /**
+   * @return a new stream over the content
+   */
+  public InputStream openStream() throws IOException {
+    if (bytes != null) {
+      return new ByteArrayInputStream(bytes);
+    }
+    if (length > Integer.MAX_VALUE) {
+      return Channels.newInputStream(new PositionalChannel(this));
+    }
+    return new ByteBufferInputStream(mapped().duplicate());
+  }
+
+  /**
+   * @return a new channel over the content
+   */
+  public ReadableByteChannel openChannel() throws IOException {
+    return file == null ? Channels.newChannel(openStream()) : new PositionalChannel(this);
+  }
+
+  /**
+   * @return a new reader decoding the content as UTF-8
+   */
+  public Reader openReader() throws IOException {
+    return new InputStreamReader(openStream(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return a copy of the content, for contents known to be small
+   */
+  public byte[] toByteArray() throws IOException {
+    if (bytes != null) {
+      return bytes.clone();
+    }
+    if (length > Integer.MAX_VALUE - 8) {
+      throw new IOException("Content of " + length + " bytes does not fit into an array");
+    }
+    byte[] result = new byte[(int) length];
+    mapped().duplicate().get(result);
+    return result;
+  }
+
+  /**
+   * Removes the temporary file of a spilled content. The content can not be read afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    if (temporaryFile != null) {
+      temporaryFile.close();
+    }
+  }
+
+  private static void closeUnreachable() {
+    int closed = 0;
+    Reference<? extends LobContent> reference;
+    while ((reference = UNREACHABLE.poll()) != null) {
+      if (((TemporaryFile) reference).closeQuietly()) {
+        closed++;
+      }
+    }
+    if (closed > 0) {
+      int count = closed;
+      log.warn(() -> "Closed the temporary files of " + count + " LOB contents that were not closed");
+    }
+  }
+
+  private synchronized ByteBuffer mapped() throws IOException {
+    if (mapped == null) {
+      mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+    return mapped;
+  }
+
+  /**
+   * Keeps the content on the heap until it grows beyond the threshold, then moves it to a temporary file.
+   */
+  private static final class SpillingOutputStream extends OutputStream {
+    private final int threshold;
+    private final Path directory;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private FileChannel file;
+    private long length;
+
+    private SpillingOutputStream(int threshold, Path directory) {
+      this.threshold = threshold;
+      this.directory = directory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (file == null && length + len > threshold) {
+        spill();
+      }
+      if (file == null) {
+        memory.write(b, off, len);
+      } else {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+          file.write(buffer);
+        }
+      }
+      length += len;
+    }
+
+    private void spill() throws IOException {
+      Path path = directory == null
+              ? Files.createTempFile("mybatis-lob-", ".tmp")
+              : Files.createTempFile(directory, "mybatis-lob-", ".tmp");
+      file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+      ByteBuffer buffer = ByteBuffer.wrap(memory.toByteArray());
+      while (buffer.hasRemaining()) {
+        file.write(buffer);
+      }
+      memory = null;
+    }
+
+    private LobContent toContent() {
+      LobContent content = file == null
+              ? LobContent.of(memory.toByteArray())
+              : new LobContent(null, file, length);
+      file = null;
+      return content;
+    }
+
+    @Override
+    public void close() throws IOException {
+      // only reached without a content on failure
+      if (file != null) {
+        file.close();
+      }
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int read = Math.min(len, buffer.remaining());
+      buffer.get(b, off, read);
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  /**
+   * Closes the temporary file of a spilled content, when the content is closed or found unreachable.
+   */
+  private static final class TemporaryFile extends PhantomReference<LobContent> {
+    private final FileChannel file;
+
+    private TemporaryFile(LobContent content, FileChannel file) {
+      super(content, UNREACHABLE);
+      this.file = file;
+      OPEN_FILES.add(this);
+    }
+
+    private void close() throws IOException {
+      OPEN_FILES.remove(this);
+      file.close();
+    }
+
+    private boolean closeQuietly() {
+      if (!OPEN_FILES.remove(this)) {
+        return false;
+      }
+      try {
+        file.close();
+      } catch (IOException e) {
+        log.debug(() -> "Failed to close a LOB temporary file: " + e);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Reads the shared file channel with positional reads, so that channels opened on the same content do not
+   * interfere. Keeps the content reachable, so that its file is not closed while the channel is read.
+   */
+  private static final class PositionalChannel implements ReadableByteChannel {
+    private final LobContent content;
+    private final FileChannel file;
+    private long position;
+    private boolean open = true;
+
+    private PositionalChannel(LobContent content) {
+      this.content = content;
+      this.file = content.file;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int read = file.read(dst, position);
+      if (read > 0) {
+        position += read;
+      }
+      return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open && file.isOpen();
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LobContent[" + length + " bytes" + (file == null ? "" : ", spilled") + "]";
+  }
+
+  /**
+   * Compares the bytes of the contents, reading spilled contents from their file.
+   *
+   * @throws UncheckedIOException
+   *           if a spilled content can not be read, e.g. because it was closed
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof LobContent) || ((LobContent) obj).length != length) {
+      return false;
+    }
+    LobContent other = (LobContent) obj;
+    if (bytes != null && other.bytes != null) {
+      return Arrays.equals(bytes, other.bytes);
+    }
+    try {
+      if (length <= Integer.MAX_VALUE) {
+        return buffer().equals(other.buffer());
+      }
+      try (InputStream in = openStream(); InputStream otherIn = other.openStream()) {
+        return contentEquals(in, otherIn);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Hashes the bytes of contents that fit into a buffer, and the length of larger ones, which are always spilled.
+   *
+   * @throws UncheckedIOException
+   *           if a spilled content can not be read, e.g. because it was closed
+   */
+  @Override
+  public synchronized int hashCode() {
+    if (hash == 0) {
+      try {
+        hash = length <= Integer.MAX_VALUE ? buffer().hashCode() : Long.hashCode(length);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return hash;
+  }
+
+  private ByteBuffer buffer() throws IOException {
+    return bytes != null ? ByteBuffer.wrap(bytes) : mapped().duplicate();
+  }
+
+  private static boolean contentEquals(InputStream in, InputStream otherIn) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    byte[] otherBuffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = readFully(in, buffer)) > 0) {
+      if (readFully(otherIn, otherBuffer) != read) {
+        return false;
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer[i] != otherBuffer[i]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static int readFully(InputStream in, byte[] buffer) throws IOException {
+    int offset = 0;
+    int read;
+    while (offset < buffer.length && (read = in.read(buffer, offset, buffer.length - offset)) >= 0) {
+      offset += read;
+    }
+    return offset;
+  }
+}
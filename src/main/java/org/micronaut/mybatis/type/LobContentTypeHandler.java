@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.type;
+
+import io.micronaut.context.annotation.Value;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeException;
+import org.micronaut.mybatis.annotation.TypeHandler;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps binary large objects to {@link LobContent}, registered for {@code LobContent} properties and parameters.
+ *
+ * Mapper sessions are closed before results are returned, so the content is read from the driver's stream while the
+ * row is being mapped. Contents larger than {@code mybatis.lob.spill-threshold} bytes (1 MiB by default) are streamed
+ * into a temporary file in {@code mybatis.lob.spill-directory} instead of the heap.
+ */
+@TypeHandler
+public class LobContentTypeHandler extends BaseTypeHandler<LobContent> {
+  private final int spillThreshold;
+  private final Path spillDirectory;
+
+  /**
+   * @param spillThreshold
+   *          the content size in bytes above which contents are moved to a temporary file
+   * @param spillDirectory
+   *          the directory for temporary files, empty for the default temporary directory
+   */
+  @Inject
+  public LobContentTypeHandler(@Value("${mybatis.lob.spill-threshold:1048576}") int spillThreshold,
+                               @Value("${mybatis.lob.spill-directory:}") String spillDirectory) {
+    if (spillThreshold < 0) {
+      throw new IllegalArgumentException("LOB spill threshold must not be negative, got " + spillThreshold);
+    }
+    this.spillThreshold = spillThreshold;
+    this.spillDirectory = spillDirectory == null || spillDirectory.isEmpty() ? null : Paths.get(spillDirectory);
+  }
+
+  /**
+   * @return the content size in bytes above which contents are moved to a temporary file
+   */
+  public int getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  @Override
+  public void setNonNullParameter(PreparedStatement ps, int i, LobContent parameter, JdbcType jdbcType)
+          throws SQLException {
+    try {
+      ps.setBinaryStream(i, parameter.openStream(), parameter.length());
+    } catch (IOException e) {
+      throw new TypeException("Error reading LOB parameter #" + i + ": " + e, e);
+    }
+  }
+
+  @Override
+  public LobContent getNullableResult(ResultSet rs, String columnName) throws SQLException {
+    return read(rs, rs.findColumn(columnName));
+  }
+
+  @Override
+  public LobContent getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+    return read(rs, columnIndex);
+  }
+
+  @Override
+  public LobContent getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+    byte[] bytes = cs.getBytes(columnIndex);
+    return bytes == null ? null : LobContent.of(bytes);
+  }
+
+  /**
+   * Reads column {@code columnIndex} of the current row, {@code null} for SQL {@code NULL}.
+   */
+  protected LobContent read(ResultSet rs, int columnIndex) throws SQLException {
+    try (InputStream in = rs.getBinaryStream(columnIndex)) {
+      return in == null ? null : LobContent.read(in, spillThreshold, spillDirectory);
+    } catch (IOException e) {
+      throw new TypeException("Error reading LOB column #" + columnIndex + ": " + e, e);
+    }
+  }
+
+  protected Path getSpillDirectory() {
+    return spillDirectory;
+  }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.writebehind;
+
+/**
+ * What a {@link org.micronaut.mybatis.annotation.WriteBehind} call does when the queue is full.
+ */
+public enum OverflowPolicy {
+  /**
+   * Wait until the queue has room.
+   */
+  BLOCK,
+  /**
+   * Drop the insert, it is counted by {@link WriteBehindQueue#getDropped()}.
+   */
+  DISCARD,
+  /**
+   * Write the insert in the calling thread, in its own session.
+   */
+  CALLER_RUNS,
+  /**
+   * Throw a {@code PersistenceException}.
+   */
+  FAIL
+}
@@ -0,0 +1,292 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.writebehind;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.context.annotation.Value;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+import org.micronaut.logging.Logger;
+import org.micronaut.logging.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue of {@link org.micronaut.mybatis.annotation.WriteBehind} inserts, written in JDBC batches by a single
+ * background thread. The thread writes a batch as soon as {@code mybatis.write-behind.batch-size} inserts are queued,
+ * and everything queued at least every {@code mybatis.write-behind.flush-interval}. Each batch runs in one
+ * {@code BATCH} session opened without autocommit, and is committed as a whole. A batch that fails is rolled back and
+ * split in halves that are written again, down to single inserts, so that only the inserts that fail themselves are
+ * dropped and counted by {@link #getFailed()}. The flusher thread is started again if it dies from an {@code Error}.
+ *
+ * This requires a {@code TransactionFactory} that really commits and rolls back, such as the
+ * {@code JdbcTransactionFactory}: with the {@code ManagedTransactionFactory} used by default the connection stays in
+ * autocommit mode, so the inserts of a failed batch that did not fail themselves would be kept and then written again.
+ *
+ * Queueing does not take a lock: the inserts are kept in a {@code ConcurrentLinkedQueue} and the capacity is bounded
+ * by a semaphore, which only blocks callers when the queue is full and the overflow policy is
+ * {@link OverflowPolicy#BLOCK}. The queue is written out when the application context shuts down.
+ */
+@Singleton
+public class WriteBehindQueue {
+  private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+  private final SqlSessionFactory sqlSessionFactory;
+  private final int capacity;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+  private final OverflowPolicy overflowPolicy;
+
+  private final Queue<Consumer<SqlSession>> queue = new ConcurrentLinkedQueue<>();
+  private final Semaphore permits;
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile Thread flusher;
+  private volatile boolean closed;
+
+  /**
+   * @param sqlSessionFactory
+   *          the factory to open the batch sessions from
+   * @param capacity
+   *          the maximum number of queued inserts, {@code mybatis.write-behind.capacity}
+   * @param batchSize
+   *          the maximum number of inserts written in one batch, {@code mybatis.write-behind.batch-size}
+   * @param flushInterval
+   *          the longest time an insert stays queued while the queue is not shut down,
+   *          {@code mybatis.write-behind.flush-interval}. Defaults to one second
+   * @param overflowPolicy
+   *          what to do when the queue is full, {@code mybatis.write-behind.overflow}. Defaults to
+   *          {@link OverflowPolicy#BLOCK}
+   */
+  @Inject
+  public WriteBehindQueue(SqlSessionFactory sqlSessionFactory,
+                          @Value("${mybatis.write-behind.capacity:10000}") int capacity,
+                          @Value("${mybatis.write-behind.batch-size:100}") int batchSize,
+                          @Nullable @Property(name = "mybatis.write-behind.flush-interval") Duration flushInterval,
+                          @Nullable @Property(name = "mybatis.write-behind.overflow") OverflowPolicy overflowPolicy) {
+    if (capacity <= 0 || batchSize <= 0) {
+      throw new IllegalArgumentException("Write-behind capacity and batch size must be positive, got "
+              + capacity + " and " + batchSize);
+    }
+    this.sqlSessionFactory = sqlSessionFactory;
+    this.capacity = capacity;
+    this.batchSize = batchSize;
+    this.flushIntervalNanos = (flushInterval == null ? Duration.ofSeconds(1) : flushInterval).toNanos();
+    this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.BLOCK : overflowPolicy;
+    this.permits = new Semaphore(capacity);
+
+    Environment environment = sqlSessionFactory.getConfiguration().getEnvironment();
+    if (environment != null && environment.getTransactionFactory() instanceof ManagedTransactionFactory) {
+      log.warn(() -> "Write-behind batches need a TransactionFactory that commits, failed batches are written again "
+              + "with the ManagedTransactionFactory in use");
+    }
+  }
+
+  /**
+   * Queues an insert.
+   *
+   * @param write
+   *          the insert, run on a session of the batch it ends up in
+   * @throws PersistenceException
+   *           if the queue is shut down, or full with {@link OverflowPolicy#FAIL}
+   */
+  public void submit(Consumer<SqlSession> write) {
+    if (closed) {
+      throw new PersistenceException("Write-behind queue is shut down");
+    }
+    if (!permits.tryAcquire()) {
+      switch (overflowPolicy) {
+        case BLOCK:
+          try {
+            permits.acquire();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while waiting for room in the write-behind queue", e);
+          }
+          break;
+        case DISCARD:
+          dropped.incrementAndGet();
+          return;
+        case CALLER_RUNS:
+          write(Collections.singletonList(write));
+          return;
+        default:
+          throw new PersistenceException("Write-behind queue is full, capacity: " + capacity);
+      }
+    }
+    queue.offer(write);
+    // close() may have written out the queue since the check above, take the insert back unless it was written
+    if (closed && queue.remove(write)) {
+      permits.release();
+      throw new PersistenceException("Write-behind queue is shut down");
+    }
+
+    Thread thread = flusher;
+    if (thread == null) {
+      startFlusher();
+    } else if (capacity - permits.availablePermits() >= batchSize) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * @return the number of queued inserts
+   */
+  public int getQueued() {
+    return capacity - permits.availablePermits();
+  }
+
+  /**
+   * @return the number of inserts written and committed
+   */
+  public long getWritten() {
+    return written.get();
+  }
+
+  /**
+   * @return the number of inserts lost because they failed on their own
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * @return the number of inserts dropped because the queue was full, with {@link OverflowPolicy#DISCARD}
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Writes all inserts queued so far in the calling thread.
+   */
+  public void flush() {
+    List<Consumer<SqlSession>> batch;
+    while (!(batch = drain()).isEmpty()) {
+      write(batch);
+    }
+  }
+
+  /**
+   * Stops accepting inserts and writes out the queue.
+   */
+  @PreDestroy
+  public void close() {
+    closed = true;
+    Thread thread = flusher;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    flush();
+  }
+
+  private synchronized void startFlusher() {
+    if (flusher == null && !closed) {
+      Thread thread = new Thread(this::run, "mybatis-write-behind");
+      thread.setDaemon(true);
+      thread.start();
+      flusher = thread;
+    }
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        if (getQueued() < batchSize) {
+          LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+        flush();
+      }
+    } finally {
+      restartFlusher();
+    }
+  }
+
+  /**
+   * Replaces a flusher that died before the queue was shut down, so that queued inserts and blocked callers are not
+   * left waiting for it.
+   */
+  private synchronized void restartFlusher() {
+    if (flusher == Thread.currentThread()) {
+      flusher = null;
+      if (!closed && !queue.isEmpty()) {
+        startFlusher();
+      }
+    }
+  }
+
+  private List<Consumer<SqlSession>> drain() {
+    List<Consumer<SqlSession>> batch = new ArrayList<>(Math.min(batchSize, getQueued()));
+    Consumer<SqlSession> write;
+    while (batch.size() < batchSize && (write = queue.poll()) != null) {
+      batch.add(write);
+    }
+    permits.release(batch.size());
+    return batch;
+  }
+
+  /**
+   * Writes a batch in one transaction, or its halves one after the other if it fails. Closing the session rolls back
+   * the inserts of a batch that was not committed.
+   */
+  private void write(List<Consumer<SqlSession>> batch) {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.BATCH, false)) {
+      for (Consumer<SqlSession> write : batch) {
+        write.accept(sqlSession);
+      }
+      sqlSession.commit(true);
+      written.addAndGet(batch.size());
+    } catch (RuntimeException e) {
+      if (batch.size() == 1) {
+        failed.incrementAndGet();
+        log.error(() -> "Failed to write a queued insert", e);
+      } else {
+        log.debug(() -> "Failed to write a batch of " + batch.size() + " queued inserts, writing it in halves: " + e);
+        int half = batch.size() / 2;
+        write(batch.subList(0, half));
+        write(batch.subList(half, batch.size()));
+      }
+    } catch (Error e) {
+      failed.addAndGet(batch.size());
+      log.error(() -> "Failed to write a batch of " + batch.size() + " queued inserts", e);
+      throw e;
+    }
+  }
+}
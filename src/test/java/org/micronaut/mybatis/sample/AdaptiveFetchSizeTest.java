@@ -0,0 +1,121 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.plugin.AdaptiveFetchSizeInterceptor;
+import org.micronaut.mybatis.plugin.AdaptiveFetchSizeInterceptor.StatementFetchSize;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "adaptive-fetch-size")
+public class AdaptiveFetchSizeTest extends SqlTest {
+  @Inject private UserMapper userMapper;
+  @Inject private PersonMapper personMapper;
+  @Inject private AdaptiveFetchSizeInterceptor fetchSizes;
+  @Inject private ExecutedFetchSizes executedFetchSizes;
+
+  @Test
+  final void testSmallResultsUseMinimumFetchSize() {
+    assertEquals(5, userMapper.getUsers().size());
+
+    StatementFetchSize fetchSize = fetchSizes.getStatements().get(UserMapper.class.getName() + ".getUsers");
+    assertTrue(fetchSize.getExecutions() > 0);
+    assertEquals(5.0, fetchSize.getAverageRows());
+    assertEquals(10, fetchSize.getFetchSize());
+  }
+
+  @Test
+  final void testLargeResultsAreBoundedByMaximumFetchSize() {
+    for (int i = 0; i < 30; i++) {
+      personMapper.insert(new Person("First " + i, "Last " + i));
+    }
+    assertEquals(30, personMapper.getPersonsWithOperator().size());
+
+    StatementFetchSize fetchSize = fetchSizes.getStatements().get(PersonMapper.class.getName() + ".getPersonsWithOperator");
+    assertEquals(20, fetchSize.getFetchSize());
+  }
+
+  @Test
+  final void testStatementsWithoutResultsAreNotTracked() {
+    personMapper.insert(new Person("First", "Last"));
+    assertFalse(fetchSizes.getStatements().containsKey(PersonMapper.class.getName() + ".insert"));
+  }
+
+  @Test
+  final void testFetchSizeIsSetOnTheStatement() {
+    userMapper.getUsers();
+    executedFetchSizes.values.clear();
+    userMapper.getUsers();
+
+    assertEquals(1, executedFetchSizes.values.size());
+    assertEquals(10, executedFetchSizes.values.get(0).intValue());
+  }
+
+  @Test
+  final void testRowsPassedToResultHandlerAreCounted() {
+    assertEquals(5, userMapper.getUsersWithinBudget().size());
+
+    StatementFetchSize fetchSize = fetchSizes.getStatements().get(UserMapper.class.getName() + ".getUsersWithinBudget");
+    assertNotNull(fetchSize);
+    assertEquals(5.0, fetchSize.getAverageRows());
+  }
+
+  /**
+   * Records the fetch size of the statements executed, after all plugins prepared them.
+   */
+  @Singleton
+  @Requires(env = "adaptive-fetch-size")
+  @Intercepts(@Signature(type = StatementHandler.class, method = "query", args = { Statement.class, ResultHandler.class }))
+  public static class ExecutedFetchSizes implements Interceptor {
+    private final List<Integer> values = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+      values.add(((Statement) invocation.getArgs()[0]).getFetchSize());
+      return invocation.proceed();
+    }
+
+    @Override
+    public Object plugin(Object target) {
+      return Plugin.wrap(target, this);
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+      // NOP
+    }
+  }
+}
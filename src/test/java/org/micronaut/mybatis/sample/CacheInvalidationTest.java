@@ -0,0 +1,168 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.cache.CacheInvalidation;
+import org.micronaut.mybatis.cache.CacheInvalidationInterceptor;
+import org.micronaut.mybatis.cache.LoopbackCacheInvalidationBus;
+import org.micronaut.mybatis.sample.mapper.CachedUserMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "cache-invalidation")
+public class CacheInvalidationTest extends SqlTest {
+  private static final String NAMESPACE = CachedUserMapper.class.getName();
+  private static final String INCARNATION = "1";
+
+  @Inject private CachedUserMapper cachedUserMapper;
+  @Inject private SqlSessionFactory sqlSessionFactory;
+  @Inject private DataSource dataSource;
+  @Inject private LoopbackCacheInvalidationBus bus;
+  @Inject private CacheInvalidationInterceptor interceptor;
+
+  @BeforeEach
+  final void clearCache() {
+    sqlSessionFactory.getConfiguration().getCache(NAMESPACE).clear();
+  }
+
+  @Test
+  final void testInvalidationFromOtherNodeClearsCache() throws SQLException {
+    assertEquals("Pocoyo", cachedUserMapper.getName("u1"));
+    renameBehindCache("u1", "Pocoyo II");
+    assertEquals("Pocoyo", cachedUserMapper.getName("u1"));
+
+    bus.publish(invalidation("node-a", 1, NAMESPACE));
+    assertEquals("Pocoyo II", cachedUserMapper.getName("u1"));
+  }
+
+  @Test
+  final void testCommittedWriteIsPublished() {
+    List<CacheInvalidation> invalidations = new CopyOnWriteArrayList<>();
+    bus.subscribe(invalidations::add);
+    long published = interceptor.getPublished();
+
+    cachedUserMapper.rename("u2", "Patito");
+
+    assertEquals(published + 1, interceptor.getPublished());
+    CacheInvalidation invalidation = invalidations.get(invalidations.size() - 1);
+    assertEquals("local", invalidation.getOrigin());
+    assertEquals(Collections.singletonList(NAMESPACE), invalidation.getNamespaces());
+    assertEquals("Patito", cachedUserMapper.getName("u2"));
+  }
+
+  @Test
+  final void testMissedInvalidationClearsAllCaches() throws SQLException {
+    long missed = interceptor.getMissed();
+    bus.publish(invalidation("node-b", 1, "org.example.OtherMapper"));
+    assertEquals("Eli", cachedUserMapper.getName("u3"));
+    renameBehindCache("u3", "Elisa");
+
+    bus.publish(invalidation("node-b", 1, NAMESPACE));
+    assertEquals("Eli", cachedUserMapper.getName("u3"));
+    bus.publish(invalidation("node-b", 3, "org.example.OtherMapper"));
+    assertEquals(missed + 1, interceptor.getMissed());
+    assertEquals("Elisa", cachedUserMapper.getName("u3"));
+
+    renameBehindCache("u3", "Eli");
+    bus.publish(new CacheInvalidation("node-b", INCARNATION, 3, Collections.emptyList()));
+    assertEquals("Elisa", cachedUserMapper.getName("u3"));
+    bus.publish(new CacheInvalidation("node-b", INCARNATION, 4, Collections.emptyList()));
+    assertEquals(missed + 2, interceptor.getMissed());
+    assertEquals("Eli", cachedUserMapper.getName("u3"));
+  }
+
+  @Test
+  final void testRestartedNodeIsNotIgnored() throws SQLException {
+    long missed = interceptor.getMissed();
+    bus.publish(invalidation("node-c", INCARNATION, 1, "org.example.OtherMapper"));
+    bus.publish(invalidation("node-c", INCARNATION, 2, "org.example.OtherMapper"));
+    assertEquals("Valentina", cachedUserMapper.getName("u4"));
+    renameBehindCache("u4", "Vale");
+
+    bus.publish(invalidation("node-c", "2", 1, NAMESPACE));
+    assertEquals("Vale", cachedUserMapper.getName("u4"));
+    assertEquals(missed, interceptor.getMissed());
+  }
+
+  @Test
+  final void testEntriesReadDuringInvalidationAreDropped() throws SQLException {
+    try (SqlSession session = sqlSessionFactory.openSession()) {
+      assertEquals("Taro Yamada", session.getMapper(CachedUserMapper.class).getName("u5"));
+      renameBehindCache("u5", "Taro");
+      // the other node committed after this session read, so the entry it caches on commit is stale
+      bus.publish(invalidation("node-d", INCARNATION, 1, NAMESPACE));
+      session.commit();
+    }
+    assertEquals("Taro", cachedUserMapper.getName("u5"));
+  }
+
+  @Test
+  final void testSilentNodesAreForgotten() throws Exception {
+    LoopbackCacheInvalidationBus otherBus = new LoopbackCacheInvalidationBus();
+    CacheInvalidationInterceptor other = new CacheInvalidationInterceptor(otherBus, "other", Duration.ofMillis(50));
+    try {
+      otherBus.publish(invalidation("node-e", 1, NAMESPACE));
+      assertEquals(1, other.getKnownNodes());
+
+      for (int i = 0; i < 100 && other.getKnownNodes() > 0; i++) {
+        Thread.sleep(50);
+      }
+      assertEquals(0, other.getKnownNodes());
+    } finally {
+      other.close();
+    }
+  }
+
+  @Test
+  final void testRequiredByCachedMappersOnly() {
+    assertTrue(interceptor.isRequiredBy(CachedUserMapper.class));
+    assertFalse(interceptor.isRequiredBy(UserMapper.class));
+    assertTrue(sqlSessionFactory.getConfiguration().getInterceptors().contains(interceptor));
+  }
+
+  private static CacheInvalidation invalidation(String origin, long sequence, String namespace) {
+    return invalidation(origin, INCARNATION, sequence, namespace);
+  }
+
+  private static CacheInvalidation invalidation(String origin, String incarnation, long sequence, String namespace) {
+    return new CacheInvalidation(origin, incarnation, sequence, Collections.singletonList(namespace));
+  }
+
+  private void renameBehindCache(String userId, String name) throws SQLException {
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("update users set name = ? where id = ?")) {
+      statement.setString(1, name);
+      statement.setString(2, userId);
+      statement.executeUpdate();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.annotation.Composite;
+import org.micronaut.mybatis.composite.CompositeQuery;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.domain.UserOverview;
+import org.micronaut.mybatis.sample.mapper.CachedUserMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class CompositeTest extends SqlTest {
+  @Inject private UserMapper userMapper;
+  @Inject private CachedUserMapper cachedUserMapper;
+  @Inject private SqlSessionFactory sqlSessionFactory;
+  @Inject private DataSource dataSource;
+
+  @Test
+  final void testStatementsFillTheResultHolder() {
+    UserOverview overview = userMapper.getOverview("u2");
+    assertEquals(userMapper.getUsers().stream().map(User::getId).collect(Collectors.toList()),
+            overview.getUsers().stream().map(User::getId).collect(Collectors.toList()));
+    assertEquals("Pato", overview.getUser().getName());
+  }
+
+  @Test
+  final void testMissingSingleResultIsNull() {
+    UserOverview overview = userMapper.getOverview("unknown");
+    assertFalse(overview.getUsers().isEmpty());
+    assertNull(overview.getUser());
+  }
+
+  @Test
+  final void testStatementsAreSentAsOneQuery() throws Exception {
+    MultipleResultSets driver = new MultipleResultSets();
+    CompositeQuery query = overviewQuery();
+
+    UserOverview overview = execute(query, driver, "u2");
+
+    assertEquals(1, driver.combinedQueries);
+    assertEquals(5, overview.getUsers().size());
+    assertEquals("Pato", overview.getUser().getName());
+    assertTrue(query.isCombined());
+  }
+
+  @Test
+  final void testFailedCombinedQueryKeepsCombining() throws Exception {
+    MultipleResultSets driver = new MultipleResultSets();
+    CompositeQuery query = overviewQuery();
+
+    driver.failure = new SQLTimeoutException("Statement was canceled", "HYT00");
+    assertThrows(PersistenceException.class, () -> execute(query, driver, "u2"));
+    assertTrue(query.isCombined());
+
+    driver.failure = null;
+    assertEquals("Pato", execute(query, driver, "u2").getUser().getName());
+    assertEquals(1, driver.combinedQueries);
+  }
+
+  @Test
+  final void testRejectedCombinedQueryRunsStatementsOneByOne() throws Exception {
+    MultipleResultSets driver = new MultipleResultSets();
+    CompositeQuery query = overviewQuery();
+
+    driver.failure = new SQLException("Syntax error in SQL statement", "42000");
+    UserOverview overview = execute(query, driver, "u2");
+
+    assertEquals(5, overview.getUsers().size());
+    assertEquals("Pato", overview.getUser().getName());
+    assertFalse(query.isCombined());
+  }
+
+  @Test
+  final void testStatementsOfCachedNamespacesAreNotCombined() throws Exception {
+    MultipleResultSets driver = new MultipleResultSets();
+    CompositeQuery query = overviewQuery(CachedUserMapper.class);
+    assertFalse(query.isCombined());
+
+    assertEquals("Pato", execute(query, driver, "u2").getUser().getName());
+    cachedUserMapper.rename("u2", "Renamed");
+    UserOverview overview = execute(query, driver, "u2");
+
+    assertEquals(0, driver.combinedQueries);
+    assertEquals("Renamed", overview.getUser().getName());
+    assertTrue(overview.getUsers().stream().anyMatch(user -> user.getName().equals("Renamed")));
+  }
+
+  private CompositeQuery overviewQuery() throws NoSuchMethodException {
+    return overviewQuery(UserMapper.class);
+  }
+
+  private CompositeQuery overviewQuery(Class<?> mapper) throws NoSuchMethodException {
+    Composite composite = mapper.getMethod("getOverview", String.class).getAnnotation(Composite.class);
+    return new CompositeQuery(sqlSessionFactory.getConfiguration(), mapper, "getOverview", UserOverview.class,
+            composite, true);
+  }
+
+  private UserOverview execute(CompositeQuery query, MultipleResultSets driver, String userId) throws SQLException {
+    try (SqlSession sqlSession = sqlSessionFactory.openSession(driver.wrap(dataSource.getConnection()))) {
+      return (UserOverview) query.execute(sqlSession, userId);
+    }
+  }
+
+  /**
+   * Emulates a driver returning one result set per statement of a query joined with {@code ;}, which H2 does not,
+   * by running the statements one by one behind a single {@code PreparedStatement}.
+   */
+  private static final class MultipleResultSets {
+    private SQLException failure;
+    private int combinedQueries;
+
+    private Connection wrap(Connection connection) {
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+          new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+              if (method.getName().equals("getMetaData")) {
+                return metaData(connection.getMetaData());
+              }
+              if (method.getName().equals("prepareStatement") && ((String) args[0]).contains(";")) {
+                return statement((Connection) proxy, connection, ((String) args[0]).split(";"));
+              }
+              return forward(connection, method, args);
+            }
+          });
+    }
+
+    private DatabaseMetaData metaData(DatabaseMetaData metaData) {
+      return (DatabaseMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] { DatabaseMetaData.class },
+          (proxy, method, args) -> method.getName().equals("supportsMultipleResultSets")
+                  ? Boolean.TRUE
+                  : forward(metaData, method, args));
+    }
+
+    private PreparedStatement statement(Connection proxy, Connection connection, String[] sql) {
+      List<Object[]> parameters = new ArrayList<>();
+      List<Method> setters = new ArrayList<>();
+      List<PreparedStatement> statements = new ArrayList<>();
+      int[] current = new int[1];
+      return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] { PreparedStatement.class },
+          (statement, method, args) -> {
+            switch (method.getName()) {
+              case "execute":
+                if (failure != null) {
+                  throw failure;
+                }
+                combinedQueries++;
+                int offset = 0;
+                for (String part : sql) {
+                  int count = part.length() - part.replace("?", "").length();
+                  PreparedStatement prepared = connection.prepareStatement(part);
+                  for (int i = 0; i < setters.size(); i++) {
+                    Object[] values = parameters.get(i).clone();
+                    int index = (Integer) values[0] - offset;
+                    if (index >= 1 && index <= count) {
+                      values[0] = index;
+                      forward(prepared, setters.get(i), values);
+                    }
+                  }
+                  prepared.execute();
+                  statements.add(prepared);
+                  offset += count;
+                }
+                return true;
+              case "getResultSet":
+                return statements.get(current[0]).getResultSet();
+              case "getMoreResults":
+                return ++current[0] < statements.size();
+              case "getUpdateCount":
+                return -1;
+              case "getConnection":
+                return proxy;
+              case "close":
+                for (PreparedStatement prepared : statements) {
+                  prepared.close();
+                }
+                return null;
+              default:
+                if (method.getDeclaringClass() == PreparedStatement.class && method.getName().startsWith("set")) {
+                  setters.add(method);
+                  parameters.add(args);
+                  return null;
+                }
+                if (method.getReturnType() == void.class) {
+                  return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+          });
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.deadline.Deadline;
+import org.micronaut.mybatis.deadline.DeadlineExceededException;
+import org.micronaut.mybatis.partition.PartitionExecutor;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class DeadlineTest extends SqlTest {
+  private static final long ENDLESS = 1_000_000_000_000L;
+
+  @Inject private UserMapper userMapper;
+  @Inject private PartitionExecutor partitionExecutor;
+
+  @Test
+  final void testCallsWithinDeadlineSucceed() {
+    Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+    assertEquals(Long.valueOf(55), deadline.call(() -> userMapper.sumRange(10)));
+    assertEquals(userMapper.getUsers(), deadline.call(userMapper::getUsers));
+  }
+
+  @Test
+  final void testExpiredDeadlineFailsBeforeExecuting() {
+    Deadline deadline = Deadline.after(Duration.ZERO);
+    assertTrue(deadline.isExpired());
+    assertThrows(DeadlineExceededException.class, () -> deadline.call(userMapper::getUsers));
+
+    Deadline cancelled = Deadline.after(Duration.ofMinutes(1));
+    cancelled.cancel();
+    assertThrows(DeadlineExceededException.class, () -> cancelled.call(userMapper::getUsers));
+  }
+
+  @Test
+  final void testTimeoutCancelsStatement() {
+    long start = System.nanoTime();
+    assertThrows(DeadlineExceededException.class, () -> userMapper.sumRangeWithTimeout(ENDLESS));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    assertEquals(Long.valueOf(55), userMapper.sumRangeWithTimeout(10));
+  }
+
+  @Test
+  final void testEarliestDeadlineApplies() {
+    Deadline outer = Deadline.after(Duration.ofMillis(200));
+    Deadline inner = Deadline.after(Duration.ofMinutes(1));
+    assertThrows(DeadlineExceededException.class,
+            () -> outer.call(() -> inner.call(() -> userMapper.sumRange(ENDLESS))));
+  }
+
+  @Test
+  final void testCancellingFutureCancelsStatement() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+      CompletableFuture<Long> future = deadline.supplyAsync(() -> userMapper.sumRange(ENDLESS), executor);
+      Thread.sleep(200);
+      assertTrue(future.cancel(true));
+      assertTrue(deadline.isCancelled());
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  final void testDeadlineIsPassedToPartitions() {
+    Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+    deadline.cancel();
+    Future<Object> partition = deadline.call(() -> partitionExecutor.submit(() -> {
+      Deadline.check("running partition");
+      return null;
+    }));
+    ExecutionException e = assertThrows(ExecutionException.class, partition::get);
+    assertTrue(e.getCause() instanceof DeadlineExceededException);
+  }
+}
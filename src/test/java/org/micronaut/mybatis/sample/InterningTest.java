@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.intern.InterningInterceptor;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class InterningTest extends SqlTest {
+  @Inject private PersonMapper personMapper;
+  @Inject private InterningInterceptor interningInterceptor;
+
+  @BeforeEach
+  final void insertPersons() {
+    personMapper.insert(new Person("Ana", "Garcia"));
+    personMapper.insert(new Person("Ana", "Garcia"));
+    personMapper.insert(new Person("Luis", "Garcia"));
+    personMapper.insert(new Person("Ana", "Garcia"));
+  }
+
+  @Test
+  final void testValuesOfColumnAreShared() {
+    long calls = interningInterceptor.getCalls();
+    long sharedValues = interningInterceptor.getSharedValues();
+
+    List<Person> persons = personMapper.getPersonNames();
+    assertEquals(4, persons.size());
+    for (Person person : persons) {
+      assertEquals("Garcia", person.getLastName());
+      assertSame(persons.get(0).getLastName(), person.getLastName());
+    }
+    assertEquals("Luis", persons.get(2).getFirstName());
+    assertEquals(calls + 1, interningInterceptor.getCalls());
+    assertEquals(sharedValues + 3, interningInterceptor.getSharedValues());
+  }
+
+  @Test
+  final void testEqualRowsAreShared() {
+    long sharedRows = interningInterceptor.getSharedRows();
+    long savedBytes = interningInterceptor.getSavedBytes();
+
+    List<User> users = personMapper.getPersonsAsUsers();
+    assertEquals(4, users.size());
+    assertSame(users.get(0), users.get(1));
+    assertSame(users.get(0), users.get(3));
+    assertNotSame(users.get(0), users.get(2));
+    assertEquals("Luis", users.get(2).getName());
+
+    assertEquals(sharedRows + 2, interningInterceptor.getSharedRows());
+    assertTrue(interningInterceptor.getSavedBytes() > savedBytes);
+  }
+
+  @Test
+  final void testEqualRowsAreSharedWithResultHandler() {
+    long sharedRows = interningInterceptor.getSharedRows();
+
+    List<User> users = new ArrayList<>();
+    personMapper.handlePersonsAsUsers(context -> users.add(context.getResultObject()));
+    assertEquals(4, users.size());
+    assertSame(users.get(0), users.get(1));
+    assertSame(users.get(0), users.get(3));
+    assertNotSame(users.get(0), users.get(2));
+
+    assertEquals(sharedRows + 2, interningInterceptor.getSharedRows());
+  }
+
+  @Test
+  final void testEqualRowsAreSharedWithinResultBudget() {
+    long sharedRows = interningInterceptor.getSharedRows();
+
+    List<User> users = personMapper.getPersonsAsUsersWithinBudget();
+    assertEquals(4, users.size());
+    assertSame(users.get(0), users.get(1));
+    assertSame(users.get(0), users.get(3));
+    assertEquals("Luis", users.get(2).getName());
+
+    assertEquals(sharedRows + 2, interningInterceptor.getSharedRows());
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.Address;
+import org.micronaut.mybatis.sample.domain.Document;
+import org.micronaut.mybatis.sample.mapper.DocumentMapper;
+
+import javax.inject.Inject;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class JsonTypeHandlerTest extends SqlTest {
+  @Inject private DocumentMapper documentMapper;
+  @Inject private ObjectMapper objectMapper;
+
+  @Test
+  final void testJsonColumnsRoundTrip() throws Exception {
+    JsonNode body = objectMapper.readTree("{\"title\": \"Report\", \"pages\": [1, 2, 3], \"draft\": false}");
+    Document document = new Document();
+    document.setId(1);
+    document.setBody(body);
+    document.setAddress(new Address("Main Street 1", "Springfield"));
+    documentMapper.insert(document);
+
+    Document loaded = documentMapper.getDocument(1);
+    assertEquals(body, loaded.getBody());
+    assertEquals(new Address("Main Street 1", "Springfield"), loaded.getAddress());
+  }
+
+  @Test
+  final void testNullJsonColumns() {
+    Document document = new Document();
+    document.setId(2);
+    documentMapper.insert(document);
+
+    Document loaded = documentMapper.getDocument(2);
+    assertNull(loaded.getBody());
+    assertNull(loaded.getAddress());
+  }
+}
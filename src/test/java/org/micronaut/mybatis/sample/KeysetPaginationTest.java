@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.page.Page;
+import org.micronaut.mybatis.page.Pageable;
+import org.micronaut.mybatis.page.Slice;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class KeysetPaginationTest extends SqlTest {
+  @Inject private UserMapper userMapper;
+
+  @Test
+  final void testSlicesFollowSortKeys() {
+    User user = new User();
+    user.setId("u6");
+    user.setName("Pato");
+    userMapper.insert(user);
+
+    List<String> ids = new ArrayList<>();
+    Slice<User> slice = userMapper.getUserSlice(Pageable.first(2));
+    assertTrue(slice.getPageable().isFirst());
+    ids.addAll(ids(slice));
+    while (slice.hasNext()) {
+      assertEquals(2, slice.getContent().size());
+      slice = userMapper.getUserSlice(Pageable.after(slice.getNextToken(), 2));
+      ids.addAll(ids(slice));
+    }
+    assertNull(slice.getNextToken());
+    assertThrows(IllegalStateException.class, slice::next);
+    assertEquals(Arrays.asList("u3", "u2", "u6", "u1", "u5", "u4"), ids);
+  }
+
+  @Test
+  final void testPageCountsRows() {
+    Page<User> page = userMapper.getUserPage("u3", Pageable.first(3));
+    assertEquals(Arrays.asList("u5", "u4", "u2"), ids(page));
+    assertEquals(4, page.getTotal());
+    assertEquals(2, page.getTotalPages());
+
+    page = userMapper.getUserPage("u3", page.next());
+    assertEquals(Arrays.asList("u1"), ids(page));
+    assertFalse(page.hasNext());
+    assertEquals(4, page.getTotal());
+  }
+
+  @Test
+  final void testInvalidTokensAreRejected() {
+    String token = userMapper.getUserSlice(Pageable.first(1)).getNextToken();
+    assertThrows(IllegalArgumentException.class, () -> userMapper.getUserPage("u3", Pageable.after(token, 1)));
+    assertThrows(IllegalArgumentException.class, () -> Pageable.after("not a token", 1));
+    assertThrows(IllegalArgumentException.class, () -> Pageable.after(token.substring(1), 1));
+  }
+
+  private static List<String> ids(Slice<User> slice) {
+    return slice.getContent().stream().map(User::getId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "lazy-loading")
+public class LazyLoadingTest extends SqlTest {
+  @Inject private PersonMapper personMapper;
+  @Inject private DataSource dataSource;
+
+  @BeforeEach
+  public void setUpPersons() throws Exception {
+    String[] operators = { "u1", "u2", "u1", null, "u3" };
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement(
+                 "insert into persons (first_name, last_name, operation_by) values (?, ?, ?)")) {
+      for (int i = 0; i < operators.length; i++) {
+        statement.setString(1, "First " + i);
+        statement.setString(2, "Last " + i);
+        statement.setString(3, operators[i]);
+        statement.executeUpdate();
+      }
+    }
+  }
+
+  @Test
+  final void testAssociationIsLoadedAfterSessionIsClosed() {
+    List<Person> persons = personMapper.getPersonsWithOperator();
+    assertEquals("Pocoyo", persons.get(0).getOperator().getName());
+    assertNull(persons.get(3).getOperator());
+  }
+
+  @Test
+  final void testAssociationIsNotLoadedUntilAccessed() throws Exception {
+    List<Person> persons = personMapper.getPersonsWithOperator();
+    deleteUsers();
+    assertNull(persons.get(0).getOperator());
+  }
+
+  @Test
+  final void testSiblingAssociationsAreLoadedInOneBatch() throws Exception {
+    List<Person> persons = personMapper.getPersonsWithOperator();
+    assertEquals("Pato", persons.get(1).getOperator().getName());
+    deleteUsers();
+
+    assertEquals("Pocoyo", persons.get(0).getOperator().getName());
+    assertEquals("Pocoyo", persons.get(2).getOperator().getName());
+    assertNull(persons.get(3).getOperator());
+    assertEquals("Eli", persons.get(4).getOperator().getName());
+  }
+
+  @Test
+  final void testAllSiblingsAreLoadedWithTheFirst() throws Exception {
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement(
+                 "insert into persons (first_name, last_name, operation_by) values (?, ?, ?)")) {
+      for (int i = 0; i < 250; i++) {
+        statement.setString(1, "More " + i);
+        statement.setString(2, "Last " + i);
+        statement.setString(3, "u" + (1 + i % 5));
+        statement.executeUpdate();
+      }
+    }
+
+    List<Person> persons = personMapper.getPersonsWithOperator();
+    assertEquals(255, persons.size());
+    assertEquals("Pocoyo", persons.get(0).getOperator().getName());
+    deleteUsers();
+
+    for (Person person : persons.subList(5, persons.size())) {
+      assertNotNull(person.getOperator());
+    }
+  }
+
+  @Test
+  final void testGroupDoesNotKeepSiblingsReachable() throws Exception {
+    List<Person> persons = personMapper.getPersonsWithOperator();
+    Person kept = persons.get(0);
+    WeakReference<Person> dropped = new WeakReference<>(persons.get(4));
+    persons = null;
+
+    for (int i = 0; i < 20 && dropped.get() != null; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertNull(dropped.get());
+    assertEquals("Pocoyo", kept.getOperator().getName());
+  }
+
+  private void deleteUsers() throws Exception {
+    try (Connection connection = dataSource.getConnection()) {
+      connection.createStatement().executeUpdate("delete from users");
+    }
+  }
+}
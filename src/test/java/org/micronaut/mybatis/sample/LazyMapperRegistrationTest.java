@@ -0,0 +1,155 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.lazy.LazyMapperConfiguration;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+import org.micronaut.mybatis.sample.mapper.SessionMapper;
+import org.micronaut.mybatis.sample.mapper.ShardedUserMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "lazy-mapper-registration")
+public class LazyMapperRegistrationTest extends SqlTest {
+  @Inject private SqlSessionFactory sqlSessionFactory;
+  @Inject private SessionMapper sessionMapper;
+  @Inject private PersonMapper personMapper;
+  @Inject private DataSource dataSource;
+
+  @Test
+  final void testMapperIsRegisteredOnFirstUse() {
+    LazyMapperConfiguration configuration = configuration();
+    assertTrue(configuration.getPendingMappers().contains(SessionMapper.class));
+
+    assertTrue(sessionMapper.isAutoCommit());
+
+    assertFalse(configuration.getPendingMappers().contains(SessionMapper.class));
+    assertTrue(configuration.getLoadedMappers().containsKey(SessionMapper.class));
+  }
+
+  @Test
+  final void testNestedSelectRegistersReferencedMapper() throws Exception {
+    try (Connection connection = dataSource.getConnection()) {
+      connection.createStatement().executeUpdate(
+              "insert into persons (first_name, last_name, operation_by) values ('First', 'Last', 'u1')");
+    }
+
+    List<Person> persons = personMapper.getPersonsWithOperator();
+
+    assertEquals("Pocoyo", persons.get(0).getOperator().getName());
+    assertTrue(configuration().getLoadedMappers().containsKey(UserMapper.class));
+  }
+
+  @Test
+  final void testUnusedMapperIsNotRegistered() {
+    LazyMapperConfiguration configuration = configuration();
+    assertTrue(configuration.getPendingMappers().contains(ShardedUserMapper.class));
+    assertFalse(configuration.getLoadedMappers().containsKey(ShardedUserMapper.class));
+  }
+
+  @Test
+  final void testListingsIncludePendingMappers() {
+    LazyMapperConfiguration configuration = new LazyMapperConfiguration();
+    configuration.addLazyMapper(SessionMapper.class);
+
+    assertTrue(configuration.getMappedStatementNames().contains(SessionMapper.class.getName() + ".isAutoCommit"));
+    assertTrue(configuration.getPendingMappers().isEmpty());
+  }
+
+  @Test
+  final void testConcurrentFirstUses() throws Exception {
+    LazyMapperConfiguration configuration = new LazyMapperConfiguration();
+    List<Class<?>> mappers = Arrays.asList(SessionMapper.class, UserMapper.class, PersonMapper.class);
+    mappers.forEach(configuration::addLazyMapper);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> lookups = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        Class<?> mapper = mappers.get(i % mappers.size());
+        lookups.add(executor.submit(() -> configuration.hasMapper(mapper)
+                && configuration.getMappedStatement(UserMapper.class.getName() + ".getUsers") != null));
+      }
+      for (Future<Boolean> lookup : lookups) {
+        assertTrue(lookup.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(new HashSet<>(mappers), configuration.getLoadedMappers().keySet());
+  }
+
+  @Test
+  final void testLookupsOfRegisteredMappersDoNotWaitForRegistrations() throws Exception {
+    CountDownLatch registering = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    LazyMapperConfiguration configuration = new LazyMapperConfiguration() {
+      @Override
+      public void addMappedStatement(MappedStatement ms) {
+        super.addMappedStatement(ms);
+        if (ms.getId().startsWith(UserMapper.class.getName())) {
+          registering.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    configuration.addLazyMapper(SessionMapper.class);
+    configuration.addLazyMapper(UserMapper.class);
+    configuration.getMappedStatement(SessionMapper.class.getName() + ".isAutoCommit");
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Boolean> registration = executor.submit(() -> configuration.hasMapper(UserMapper.class));
+      assertTrue(registering.await(10, TimeUnit.SECONDS));
+
+      Future<Boolean> lookup = executor.submit(() -> configuration.hasMapper(SessionMapper.class)
+              && configuration.getMappedStatement(SessionMapper.class.getName() + ".isAutoCommit") != null);
+      assertTrue(lookup.get(10, TimeUnit.SECONDS));
+      release.countDown();
+      assertTrue(registration.get());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  private LazyMapperConfiguration configuration() {
+    return (LazyMapperConfiguration) sqlSessionFactory.getConfiguration();
+  }
+}
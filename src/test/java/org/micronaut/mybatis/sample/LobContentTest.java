@@ -0,0 +1,162 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.Attachment;
+import org.micronaut.mybatis.sample.mapper.AttachmentMapper;
+import org.micronaut.mybatis.type.LobContent;
+
+import javax.inject.Inject;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "lob")
+public class LobContentTest extends SqlTest {
+  @Inject private AttachmentMapper attachmentMapper;
+
+  @Test
+  final void testSmallContentStaysOnHeap() throws Exception {
+    Attachment attachment = new Attachment();
+    attachment.setId(1);
+    attachment.setData(LobContent.of(new byte[] { 1, 2, 3 }));
+    attachment.setText(LobContent.of("short"));
+    attachmentMapper.insert(attachment);
+
+    Attachment loaded = attachmentMapper.getAttachment(1);
+    assertFalse(loaded.getData().isSpilled());
+    assertArrayEquals(new byte[] { 1, 2, 3 }, loaded.getData().toByteArray());
+    assertEquals("short", read(loaded.getText()));
+  }
+
+  @Test
+  final void testLargeContentSpillsToDisk() throws Exception {
+    byte[] data = new byte[100_000];
+    new Random(42).nextBytes(data);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      text.append("line ").append(i).append(" \u00e4\u00f6\u00fc\n");
+    }
+    Attachment attachment = new Attachment();
+    attachment.setId(2);
+    attachment.setData(LobContent.of(data));
+    attachment.setText(LobContent.of(text.toString()));
+    attachmentMapper.insert(attachment);
+
+    Attachment loaded = attachmentMapper.getAttachment(2);
+    try (LobContent content = loaded.getData()) {
+      assertTrue(content.isSpilled());
+      assertEquals(data.length, content.length());
+      assertArrayEquals(data, content.toByteArray());
+      try (InputStream in = content.openStream()) {
+        byte[] streamed = new byte[data.length];
+        int offset = 0;
+        int read;
+        while ((read = in.read(streamed, offset, streamed.length - offset)) > 0) {
+          offset += read;
+        }
+        assertEquals(data.length, offset);
+        assertArrayEquals(data, streamed);
+      }
+      try (ReadableByteChannel channel = content.openChannel()) {
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 1);
+        while (channel.read(buffer) > 0) {
+          // keep reading
+        }
+        assertEquals(data.length, buffer.position());
+      }
+    }
+    try (LobContent content = loaded.getText()) {
+      assertTrue(content.isSpilled());
+      assertEquals(text.toString(), read(content));
+    }
+  }
+
+  @Test
+  final void testSpilledContentsAreEqualByBytes() throws Exception {
+    byte[] data = new byte[100_000];
+    new Random(7).nextBytes(data);
+    Attachment attachment = new Attachment();
+    attachment.setId(4);
+    attachment.setData(LobContent.of(data));
+    attachmentMapper.insert(attachment);
+
+    try (LobContent content = attachmentMapper.getAttachment(4).getData();
+         LobContent reloaded = attachmentMapper.getAttachment(4).getData()) {
+      assertTrue(content.isSpilled());
+      assertEquals(content, content);
+      assertEquals(content, reloaded);
+      assertEquals(LobContent.of(data), content);
+      assertEquals(LobContent.of(data).hashCode(), content.hashCode());
+      assertEquals(content.hashCode(), reloaded.hashCode());
+
+      data[data.length - 1]++;
+      assertNotEquals(LobContent.of(data), content);
+    }
+  }
+
+  @Test
+  final void testUnclosedContentIsClosedWhenUnreachable() throws Exception {
+    byte[] data = new byte[100_000];
+    Attachment attachment = new Attachment();
+    attachment.setId(5);
+    attachment.setData(LobContent.of(data));
+    attachmentMapper.insert(attachment);
+    int openFiles = LobContent.getOpenFiles();
+
+    assertTrue(loadWithoutClosing(5));
+    assertEquals(openFiles + 1, LobContent.getOpenFiles());
+
+    for (int i = 0; i < 50 && LobContent.getOpenFiles() > openFiles; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertEquals(openFiles, LobContent.getOpenFiles());
+  }
+
+  private boolean loadWithoutClosing(int id) {
+    return attachmentMapper.getAttachment(id).getData().isSpilled();
+  }
+
+  @Test
+  final void testNullContent() {
+    Attachment attachment = new Attachment();
+    attachment.setId(3);
+    attachmentMapper.insert(attachment);
+
+    Attachment loaded = attachmentMapper.getAttachment(3);
+    assertNull(loaded.getData());
+    assertNull(loaded.getText());
+  }
+
+  private static String read(LobContent content) throws Exception {
+    StringBuilder text = new StringBuilder();
+    try (Reader reader = content.openReader()) {
+      char[] buffer = new char[1024];
+      int read;
+      while ((read = reader.read(buffer)) >= 0) {
+        text.append(buffer, 0, read);
+      }
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.mapper.SessionMapper;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Selects against a pool whose connections are not in autocommit mode.
+ */
+@MicronautTest(environments = "manual-commit")
+public class ManualCommitSelectTest {
+  @Inject private SessionMapper sessionMapper;
+  @Inject private DataSource dataSource;
+
+  @Test
+  final void testSelectRunsInAutoCommit() throws Exception {
+    try (Connection connection = dataSource.getConnection()) {
+      assertFalse(connection.getAutoCommit());
+    }
+    assertTrue(sessionMapper.isAutoCommit());
+  }
+
+  @Test
+  final void testSelectWithFetchSizeRunsInTransaction() {
+    assertFalse(sessionMapper.isAutoCommitWithFetchSize());
+  }
+
+  @Test
+  final void testSelectRestoresAutoCommit() throws Exception {
+    sessionMapper.isAutoCommit();
+    sessionMapper.isAutoCommitWithFetchSize();
+    try (Connection connection = dataSource.getConnection()) {
+      assertFalse(connection.getAutoCommit());
+    }
+  }
+}
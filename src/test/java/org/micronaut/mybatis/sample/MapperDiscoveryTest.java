@@ -0,0 +1,55 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.core.io.scan.ClassPathAnnotationScanner;
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.annotation.Mapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "no-classpath-scan")
+public class MapperDiscoveryTest extends SqlTest {
+  @Inject private SqlSessionFactory sqlSessionFactory;
+  @Inject private UserMapper userMapper;
+
+  @Test
+  final void testMappersAreFoundWithoutScanningTheClasspath() {
+    List<Class<?>> annotated = new ArrayList<>();
+    new ClassPathAnnotationScanner(getClass().getClassLoader())
+            .scan(Mapper.class, "org.micronaut.mybatis.sample")
+            .forEach(type -> {
+              if (type.isInterface()) {
+                annotated.add(type);
+              }
+            });
+    assertFalse(annotated.isEmpty());
+
+    Collection<Class<?>> registered = sqlSessionFactory.getConfiguration().getMapperRegistry().getMappers();
+    for (Class<?> mapper : annotated) {
+      assertTrue(registered.contains(mapper), () -> mapper.getName() + " was not registered");
+    }
+    assertEquals("Pocoyo", userMapper.getUser("u1").getName());
+  }
+}
@@ -22,6 +22,11 @@ import org.micronaut.mybatis.sample.domain.User;
 import org.micronaut.mybatis.sample.mapper.UserMapper;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -36,6 +41,29 @@ public class MapperTest extends SqlTest {
     assertEquals(user.getName(), "Pocoyo");
   }
 
+  @Test
+  final void testArgumentsAreBoundByName() throws Exception {
+    assertEquals("Pocoyo", userMapper.getUserByIdAndName("u1", "Pocoyo").getName());
+    assertNull(userMapper.getUserByIdAndName("u1", "Pato"));
+  }
+
+  @Test
+  final void testConcurrentCallsOfOneMethod() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> names = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        String id = "u" + (1 + i % 5);
+        names.add(executor.submit(() -> userMapper.getUser(id).getId()));
+      }
+      for (int i = 0; i < names.size(); i++) {
+        assertEquals("u" + (1 + i % 5), names.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   final void testInsertThenSelectMapper() throws Exception {
     User newUser = new User();
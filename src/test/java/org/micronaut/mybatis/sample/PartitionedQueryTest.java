@@ -0,0 +1,73 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class PartitionedQueryTest extends SqlTest {
+  @Inject private PersonMapper personMapper;
+
+  @BeforeEach
+  public void setUpPersons() {
+    for (int i = 0; i < 50; i++) {
+      personMapper.insert(new Person(String.format("First %02d", i), i % 2 == 0 ? "Even" : "Odd"));
+    }
+  }
+
+  @Test
+  final void testPartitionedListReadsAllRows() {
+    List<Person> persons = personMapper.getPersons();
+    assertEquals(50, persons.size());
+    assertEquals(50, persons.stream().map(Person::getFirstName).distinct().count());
+  }
+
+  @Test
+  final void testOrderedPartitions() {
+    List<String> names = personMapper.getPersonsOrdered().stream().map(Person::getFirstName).collect(Collectors.toList());
+    assertEquals(50, names.size());
+    assertEquals(names.stream().sorted().collect(Collectors.toList()), names);
+  }
+
+  @Test
+  final void testPartitionedStream() {
+    try (Stream<Person> persons = personMapper.streamPersons("Even")) {
+      assertFalse(persons.isParallel());
+      List<String> names = persons.map(Person::getFirstName).collect(Collectors.toList());
+      assertEquals(25, names.size());
+      assertEquals("First 00", names.get(0));
+      assertEquals("First 48", names.get(24));
+    }
+  }
+
+  @Test
+  final void testEmptyResult() {
+    try (Stream<Person> persons = personMapper.streamPersons("Nobody")) {
+      assertEquals(0, persons.count());
+    }
+  }
+}
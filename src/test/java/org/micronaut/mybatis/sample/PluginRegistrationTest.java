@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.deadline.DeadlineInterceptor;
+import org.micronaut.mybatis.intern.InterningInterceptor;
+import org.micronaut.mybatis.plugin.QueryRewriteInterceptor;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+import org.micronaut.mybatis.sample.mapper.SessionMapper;
+import org.micronaut.mybatis.sample.mapper.ShardedUserMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class PluginRegistrationTest {
+  @Inject private SqlSessionFactory sqlSessionFactory;
+  @Inject private DeadlineInterceptor deadlineInterceptor;
+  @Inject private QueryRewriteInterceptor queryRewriteInterceptor;
+  @Inject private InterningInterceptor interningInterceptor;
+
+  @Test
+  final void testOptionalPluginsAreRequiredByMappersUsingThem() {
+    // deadlines set up in code apply to every mapper by default
+    assertTrue(deadlineInterceptor.isRequiredBy(SessionMapper.class));
+    assertFalse(queryRewriteInterceptor.isRequiredBy(SessionMapper.class));
+    assertFalse(interningInterceptor.isRequiredBy(SessionMapper.class));
+
+    assertTrue(deadlineInterceptor.isRequiredBy(UserMapper.class));
+    assertTrue(deadlineInterceptor.isRequiredBy(ShardedUserMapper.class));
+    assertTrue(queryRewriteInterceptor.isRequiredBy(UserMapper.class));
+    assertFalse(interningInterceptor.isRequiredBy(UserMapper.class));
+    assertTrue(interningInterceptor.isRequiredBy(PersonMapper.class));
+  }
+
+  @Test
+  final void testRequiredPluginsAreRegistered() {
+    List<Interceptor> interceptors = sqlSessionFactory.getConfiguration().getInterceptors();
+    assertTrue(interceptors.contains(deadlineInterceptor));
+    assertTrue(interceptors.contains(queryRewriteInterceptor));
+    assertTrue(interceptors.contains(interningInterceptor));
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.mapper.SessionMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "read-only-selects")
+public class ReadOnlySelectTest extends SqlTest {
+  @Inject private UserMapper userMapper;
+  @Inject private SessionMapper sessionMapper;
+  @Inject private DataSource dataSource;
+
+  @Test
+  final void testSelectRunsInAutoCommit() {
+    assertTrue(sessionMapper.isAutoCommit());
+  }
+
+  @Test
+  final void testSelectWithFetchSizeRunsInTransaction() throws Exception {
+    assertFalse(sessionMapper.isAutoCommitWithFetchSize());
+    try (Connection connection = dataSource.getConnection()) {
+      assertTrue(connection.getAutoCommit());
+    }
+  }
+
+  @Test
+  final void testSelectRestoresConnectionState() throws Exception {
+    assertEquals(5, userMapper.getUsers().size());
+    try (Connection connection = dataSource.getConnection()) {
+      assertFalse(connection.isReadOnly());
+    }
+  }
+
+  @Test
+  final void testDefaultMethodMixingReadsAndWrites() {
+    User newUser = new User();
+    newUser.setId("u6");
+    newUser.setName("Mario");
+
+    assertEquals(newUser, userMapper.insertAndSelect(newUser));
+    assertEquals(6, userMapper.getUsers().size());
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+import org.micronaut.mybatis.spill.ResultBudgetExceededException;
+import org.micronaut.mybatis.spill.ResultSpiller;
+import org.micronaut.mybatis.spill.SpillingList;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class ResultBudgetTest extends SqlTest {
+  @Inject private UserMapper userMapper;
+  @Inject private ResultSpiller resultSpiller;
+
+  @Test
+  final void testRowsBeyondBudgetAreSpilled() throws Exception {
+    long spilledQueries = resultSpiller.getSpilledQueries();
+    long spilledRows = resultSpiller.getSpilledRows();
+
+    List<User> expected = userMapper.getUsers();
+    List<User> users = userMapper.getUsersWithinBudget();
+    assertTrue(users instanceof SpillingList);
+    assertEquals(expected.size(), users.size());
+    assertEquals("Pocoyo", users.get(0).getName());
+    assertEquals("Valentina", users.get(3).getName());
+    assertEquals(expected.stream().map(User::getId).collect(Collectors.toList()),
+            users.stream().map(User::getId).collect(Collectors.toList()));
+
+    assertEquals(spilledQueries + 1, resultSpiller.getSpilledQueries());
+    assertEquals(spilledRows + expected.size() - 2, resultSpiller.getSpilledRows());
+    assertTrue(resultSpiller.getLargestSpill() > 0);
+
+    ((SpillingList<User>) users).close();
+    assertEquals("Pato", users.get(1).getName());
+    assertThrows(IllegalStateException.class, () -> users.get(2));
+  }
+
+  @Test
+  final void testRowsBeyondBudgetFailTheQuery() {
+    long rejected = resultSpiller.getRejectedQueries();
+    ResultBudgetExceededException e = assertThrows(ResultBudgetExceededException.class, userMapper::getUsersOrFail);
+    assertTrue(e.getMessage().contains("getUsersOrFail"));
+    assertEquals(rejected + 1, resultSpiller.getRejectedQueries());
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.frame.LongColumn;
+import org.micronaut.mybatis.frame.ObjectColumn;
+import org.micronaut.mybatis.frame.ResultFrame;
+import org.micronaut.mybatis.frame.StringColumn;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+
+import javax.inject.Inject;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest
+public class ResultFrameTest extends SqlTest {
+  @Inject private PersonMapper personMapper;
+
+  @Test
+  final void testColumnsAreFilledFromTheResultSet() {
+    for (int i = 0; i < 300; i++) {
+      personMapper.insert(new Person("First " + i, i % 3 == 0 ? "Smith" : "Jones"));
+    }
+
+    ResultFrame frame = personMapper.getPersonFrame(0);
+    assertEquals(300, frame.getRowCount());
+    assertEquals(Arrays.asList("PERSON_ID", "FIRST_NAME", "LAST_NAME", "OPERATION_AT"), frame.getColumnNames());
+
+    LongColumn ids = frame.getColumn("person_id", LongColumn.class);
+    long first = ids.get(0);
+    assertEquals(300 * first + 299 * 300 / 2, ids.sum());
+    assertEquals(first, ids.min().getAsLong());
+    assertEquals(first + 299, ids.max().getAsLong());
+    assertEquals(first + 149.5, ids.average().getAsDouble());
+
+    StringColumn lastNames = frame.getColumn("last_name", StringColumn.class);
+    assertEquals(Arrays.asList("Smith", "Jones"), lastNames.getDictionary());
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    counts.put("Smith", 100);
+    counts.put("Jones", 200);
+    assertEquals(counts, lastNames.countByValue());
+    assertEquals(300, frame.getColumn("first_name", StringColumn.class).getDictionary().size());
+
+    ObjectColumn operationAt = frame.getColumn("operation_at", ObjectColumn.class);
+    assertEquals(0, operationAt.countNonNull());
+    assertTrue(operationAt.isNull(0));
+
+    int row = 0;
+    for (ResultFrame.Row person : frame) {
+      assertEquals(first + row, person.getLong("PERSON_ID"));
+      assertEquals("First " + row, person.getString("first_name"));
+      assertNull(person.getObject("operation_at"));
+      row++;
+    }
+    assertEquals(300, row);
+  }
+
+  @Test
+  final void testParametersAndEmptyResult() {
+    personMapper.insert(new Person("First", "Last"));
+
+    ResultFrame frame = personMapper.getPersonFrame(Integer.MAX_VALUE);
+    assertEquals(0, frame.getRowCount());
+    assertEquals(4, frame.getColumnCount());
+    assertFalse(frame.getColumn("person_id", LongColumn.class).min().isPresent());
+    assertFalse(frame.iterator().hasNext());
+  }
+
+  @Test
+  final void testSumsBeyondTheRangeOfLong() {
+    personMapper.insert(new Person("First", "Last"));
+    personMapper.insert(new Person("Second", "Last"));
+
+    LongColumn values = personMapper.getLargeValueFrame().getColumn("large_value", LongColumn.class);
+    BigInteger expected = BigInteger.valueOf(values.get(0)).add(BigInteger.valueOf(values.get(1)));
+    assertThrows(ArithmeticException.class, values::sum);
+    assertEquals(expected, values.bigSum());
+    assertEquals(expected.doubleValue() / 2, values.average().getAsDouble());
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.mapper.ShardedUserMapper;
+import org.micronaut.mybatis.shard.ShardStrategy;
+import org.micronaut.mybatis.shard.ShardedSqlSessionFactories;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "sharding")
+public class ShardingTest extends SqlTest {
+  @Inject private ShardedUserMapper shardedUserMapper;
+  @Inject private ShardedSqlSessionFactories shards;
+  @Inject private ShardStrategy shardStrategy;
+
+  @BeforeEach
+  public void setUpShards() throws Exception {
+    for (SqlSessionFactory shard : shards.getShards()) {
+      applySql(shard.getConfiguration().getEnvironment().getDataSource(), "classpath:database-schema.sql");
+    }
+    for (int i = 9; i >= 0; i--) {
+      User user = new User();
+      user.setId("u" + i);
+      user.setName("User " + i);
+      shardedUserMapper.insert(user);
+    }
+  }
+
+  @Test
+  final void testInsertIsRoutedByShardKey() {
+    List<SqlSessionFactory> factories = shards.getShards();
+    assertEquals(3, factories.size());
+    int total = 0;
+    for (int i = 0; i < factories.size(); i++) {
+      try (SqlSession session = factories.get(i).openSession()) {
+        List<User> users = session.selectList(ShardedUserMapper.class.getName() + ".getUsers");
+        for (User user : users) {
+          assertEquals(i, shardStrategy.shardFor(user.getId(), factories.size()));
+        }
+        total += users.size();
+      }
+    }
+    assertEquals(10, total);
+  }
+
+  @Test
+  final void testSelectIsRoutedByShardKey() {
+    User user = shardedUserMapper.getUser("u7");
+    assertNotNull(user);
+    assertEquals("User 7", user.getName());
+  }
+
+  @Test
+  final void testFanOutMergesInOrder() {
+    List<String> ids = shardedUserMapper.getUsers().stream().map(User::getId).collect(Collectors.toList());
+    assertEquals(10, ids.size());
+    assertEquals(ids.stream().sorted().collect(Collectors.toList()), ids);
+  }
+
+  @Test
+  final void testFanOutLimit() {
+    List<String> ids = shardedUserMapper.getFirstUsers().stream().map(User::getId).collect(Collectors.toList());
+    assertEquals(3, ids.size());
+    assertEquals(ids.get(0), "u0");
+    assertEquals(ids.get(2), "u2");
+  }
+
+  @Test
+  final void testFanOutLimitIsAppliedByEveryShard() {
+    // every shard would select ten billion rows without the limit
+    assertTimeoutPreemptively(Duration.ofSeconds(5),
+            () -> assertEquals(Arrays.asList(1L, 2L), shardedUserMapper.getFirstNumbers()));
+  }
+
+  @Test
+  final void testFanOutSumsCounts() {
+    assertEquals(10, shardedUserMapper.countUsers());
+  }
+
+  @Test
+  final void testFanOutTimeoutCancelsShardStatements() {
+    long start = System.nanoTime();
+    assertThrows(PersistenceException.class, () -> shardedUserMapper.sumRange(100_000_000_000L));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+    // the shard threads are free again only if the statements were cancelled
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertEquals(10, shardedUserMapper.countUsers()));
+  }
+
+  @Test
+  final void testWriteWithoutShardKeyIsRejected() {
+    assertThrows(IllegalStateException.class, () -> shardedUserMapper.insertEverywhere());
+    assertEquals(10, shardedUserMapper.countUsers());
+  }
+}
@@ -27,6 +27,7 @@ import javax.sql.DataSource;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.sql.Connection;
 
 @MicronautTest
 abstract class SqlTest {
@@ -40,11 +41,13 @@ abstract class SqlTest {
         applySql(dataSource, "classpath:database-test-data.sql");
     }
 
-    private static void applySql(DataSource dataSource, String sqlFile) throws Exception {
+    static void applySql(DataSource dataSource, String sqlFile) throws Exception {
         ClassPathResourceLoader loader = new ResourceResolver().getLoader(ClassPathResourceLoader.class)
                 .orElseThrow(IllegalStateException::new);
         InputStream file = loader.getResourceAsStream(sqlFile).orElseThrow(IllegalArgumentException::new);
         String sql = IOUtils.readText(new BufferedReader(new InputStreamReader(file)));
-        dataSource.getConnection().prepareCall(sql).execute();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.prepareCall(sql).execute();
+        }
     }
 }
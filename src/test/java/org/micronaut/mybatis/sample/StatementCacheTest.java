@@ -0,0 +1,133 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.jdbc.StatementCachingDataSource;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+
+import javax.inject.Inject;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "statement-cache")
+public class StatementCacheTest extends SqlTest {
+  @Inject private UserMapper userMapper;
+  @Inject private SqlSessionFactory sqlSessionFactory;
+
+  @Test
+  final void testConfiguredFromProperties() {
+    assertEquals(ExecutorType.REUSE, sqlSessionFactory.getConfiguration().getDefaultExecutorType());
+    assertTrue(sqlSessionFactory.getConfiguration().getEnvironment().getDataSource() instanceof StatementCachingDataSource);
+  }
+
+  @Test
+  final void testStatementIsReusedAcrossConnections() throws Exception {
+    StatementCachingDataSource dataSource =
+            (StatementCachingDataSource) sqlSessionFactory.getConfiguration().getEnvironment().getDataSource();
+
+    PreparedStatement first;
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("select name from users where id = ?")) {
+      statement.setString(1, "u1");
+      statement.setMaxRows(1);
+      try (ResultSet resultSet = statement.executeQuery()) {
+        assertTrue(resultSet.next());
+        assertEquals("Pocoyo", resultSet.getString(1));
+      }
+      first = statement.unwrap(PreparedStatement.class);
+    }
+
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("select name from users where id = ?")) {
+      assertSame(first, statement.unwrap(PreparedStatement.class));
+      assertEquals(0, statement.getMaxRows());
+      statement.setString(1, "u2");
+      try (ResultSet resultSet = statement.executeQuery()) {
+        assertTrue(resultSet.next());
+        assertEquals("Pato", resultSet.getString(1));
+      }
+    }
+  }
+
+  @Test
+  final void testLeakedStatementIsReleasedWithConnection() throws Exception {
+    StatementCachingDataSource dataSource =
+            (StatementCachingDataSource) sqlSessionFactory.getConfiguration().getEnvironment().getDataSource();
+
+    PreparedStatement leaked;
+    try (Connection connection = dataSource.getConnection()) {
+      leaked = connection.prepareStatement("select name from users where id = ?");
+      leaked.setString(1, "u1");
+      leaked.setMaxRows(1);
+    }
+    assertTrue(leaked.isClosed());
+
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("select name from users where id = ?")) {
+      assertSame(leaked.unwrap(PreparedStatement.class), statement.unwrap(PreparedStatement.class));
+      assertEquals(0, statement.getMaxRows());
+    }
+  }
+
+  @Test
+  final void testOnlySelectsAreCached() throws Exception {
+    StatementCachingDataSource dataSource =
+            (StatementCachingDataSource) sqlSessionFactory.getConfiguration().getEnvironment().getDataSource();
+
+    PreparedStatement first;
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("update users set name = ? where id = ?")) {
+      first = statement.unwrap(PreparedStatement.class);
+    }
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement("update users set name = ? where id = ?")) {
+      assertNotSame(first, statement.unwrap(PreparedStatement.class));
+    }
+
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement(" /* users */ (SELECT id from users)")) {
+      first = statement.unwrap(PreparedStatement.class);
+    }
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement statement = connection.prepareStatement(" /* users */ (SELECT id from users)")) {
+      assertSame(first, statement.unwrap(PreparedStatement.class));
+    }
+  }
+
+  @Test
+  final void testMapperCallsUseCachedStatements() {
+    assertEquals("Pocoyo", userMapper.getUser("u1").getName());
+    assertEquals("Pato", userMapper.getUser("u2").getName());
+
+    User newUser = new User();
+    newUser.setId("u6");
+    newUser.setName("Mario");
+    userMapper.insert(newUser);
+    assertEquals(newUser, userMapper.getUser("u6"));
+
+    StatementCachingDataSource dataSource =
+            (StatementCachingDataSource) sqlSessionFactory.getConfiguration().getEnvironment().getDataSource();
+    assertTrue(dataSource.getCachedStatementCount() >= 1);
+  }
+}
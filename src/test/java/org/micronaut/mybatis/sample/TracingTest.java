@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.binding.BindingException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+import org.micronaut.mybatis.sample.mapper.UserMapper;
+import org.micronaut.mybatis.trace.InMemoryMapperTracer;
+import org.micronaut.mybatis.trace.MapperTrace;
+import org.micronaut.mybatis.trace.TracePhase;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "tracing")
+public class TracingTest extends SqlTest {
+  @Inject private UserMapper userMapper;
+  @Inject private PersonMapper personMapper;
+  @Inject private InMemoryMapperTracer tracer;
+  @Inject private DataSource dataSource;
+
+  @BeforeEach
+  final void clearTraces() {
+    tracer.clear();
+  }
+
+  @Test
+  final void testSelectPhasesAreTimed() {
+    userMapper.getUsers();
+
+    MapperTrace trace = single(tracer.getTraces());
+    assertEquals(UserMapper.class.getName() + ".getUsers", trace.getName());
+    assertEquals(1, trace.getStatements());
+    assertNull(trace.getError());
+    assertTrue(trace.getPhaseDuration(TracePhase.PREPARE, NANOSECONDS) > 0);
+    assertTrue(trace.getPhaseDuration(TracePhase.EXECUTE, NANOSECONDS) > 0);
+    assertTrue(trace.getPhaseDuration(TracePhase.MAPPING, NANOSECONDS) > 0);
+    assertEquals(0, trace.getPhaseDuration(TracePhase.COMMIT, NANOSECONDS));
+    long phases = 0;
+    for (TracePhase phase : TracePhase.values()) {
+      phases += trace.getPhaseDuration(phase, NANOSECONDS);
+    }
+    assertTrue(phases <= trace.getDuration(NANOSECONDS));
+  }
+
+  @Test
+  final void testCommitIsTimed() {
+    User user = new User();
+    user.setId("t1");
+    user.setName("Traced");
+    userMapper.insert(user);
+
+    MapperTrace trace = single(tracer.getTraces());
+    assertEquals(1, trace.getStatements());
+    assertEquals(0, trace.getPhaseDuration(TracePhase.MAPPING, NANOSECONDS));
+    assertTrue(trace.getPhaseDuration(TracePhase.COMMIT, NANOSECONDS) > 0);
+  }
+
+  @Test
+  final void testErrorIsRecorded() {
+    User user = new User();
+    user.setId("t2");
+    user.setName("Failing");
+    assertThrows(BindingException.class, () -> userMapper.failingInsert(user));
+
+    MapperTrace trace = single(tracer.getTraces());
+    assertTrue(trace.getError() instanceof BindingException);
+    assertNull(MapperTrace.current());
+  }
+
+  @Test
+  final void testCheckoutIsTimedAtThePool() throws Exception {
+    // the pool of the tracing environment holds two connections
+    Connection held = dataSource.getConnection();
+    Connection released = dataSource.getConnection();
+    CompletableFuture<Void> release = CompletableFuture.runAsync(() -> {
+      try {
+        Thread.sleep(200);
+        released.close();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    try {
+      userMapper.getUsers();
+    } finally {
+      release.get();
+      held.close();
+    }
+
+    MapperTrace trace = single(tracer.getTraces());
+    assertTrue(trace.getPhaseDuration(TracePhase.CHECKOUT, MILLISECONDS) >= 150, trace::toString);
+    assertTrue(trace.getPhaseDuration(TracePhase.PREPARE, MILLISECONDS) < 150, trace::toString);
+  }
+
+  @Test
+  final void testPartitionsAreAddedToTheTrace() {
+    for (int i = 0; i < 20; i++) {
+      personMapper.insert(new Person("First " + i, "Last"));
+    }
+    tracer.clear();
+
+    assertEquals(20, personMapper.getPersons().size());
+
+    MapperTrace trace = single(tracer.getTraces());
+    assertEquals(PersonMapper.class.getName() + ".getPersons", trace.getName());
+    // four ranges and the partition of null keys, each run on a partition thread
+    assertEquals(5, trace.getStatements());
+    assertTrue(trace.getPhaseDuration(TracePhase.EXECUTE, NANOSECONDS) > 0);
+  }
+
+  private static MapperTrace single(List<MapperTrace> traces) {
+    assertEquals(1, traces.size(), traces.toString());
+    return traces.get(0);
+  }
+}
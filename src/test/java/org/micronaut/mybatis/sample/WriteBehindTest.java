@@ -0,0 +1,125 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.test.annotation.MicronautTest;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.Test;
+import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.mapper.PersonMapper;
+import org.micronaut.mybatis.writebehind.OverflowPolicy;
+import org.micronaut.mybatis.writebehind.WriteBehindQueue;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MicronautTest(environments = "write-behind")
+public class WriteBehindTest extends SqlTest {
+  @Inject private PersonMapper personMapper;
+  @Inject private WriteBehindQueue writeBehindQueue;
+  @Inject private SqlSessionFactory sqlSessionFactory;
+
+  @Test
+  final void testQueuedInsertsAreWrittenInBatches() throws Exception {
+    long written = writeBehindQueue.getWritten();
+    for (int i = 0; i < 250; i++) {
+      personMapper.insertLater(new Person("First " + i, "Last " + i));
+    }
+    writeBehindQueue.flush();
+
+    await(writeBehindQueue::getWritten, written + 250);
+    assertEquals(250, personMapper.getPersons().size());
+  }
+
+  @Test
+  final void testFailedBatchIsCounted() throws Exception {
+    long failed = writeBehindQueue.getFailed();
+    personMapper.insertLater(new Person("A first name longer than the column", "Last"));
+    writeBehindQueue.flush();
+
+    await(writeBehindQueue::getFailed, failed + 1);
+    assertEquals(0, personMapper.getPersons().size());
+  }
+
+  @Test
+  final void testOnlyFailingInsertsOfABatchAreDropped() throws Exception {
+    long written = writeBehindQueue.getWritten();
+    long failed = writeBehindQueue.getFailed();
+    personMapper.insertLater(new Person("First", "Last"));
+    personMapper.insertLater(new Person("A first name longer than the column", "Last"));
+    personMapper.insertLater(new Person("Third", "Last"));
+    personMapper.insertLater(new Person("Fourth", "Last"));
+    writeBehindQueue.flush();
+
+    await(writeBehindQueue::getFailed, failed + 1);
+    await(writeBehindQueue::getWritten, written + 3);
+    assertEquals(3, personMapper.getPersons().size());
+  }
+
+  @Test
+  final void testFlusherSurvivesErrors() throws Exception {
+    WriteBehindQueue queue = new WriteBehindQueue(sqlSessionFactory, 10, 1, Duration.ofMillis(50), OverflowPolicy.BLOCK);
+    try {
+      queue.submit(sqlSession -> {
+        throw new AssertionError("Failing write");
+      });
+      await(queue::getFailed, 1);
+      queue.submit(insert(new Person("First", "Last")));
+
+      await(queue::getWritten, 1);
+      assertEquals(1, personMapper.getPersons().size());
+    } finally {
+      queue.close();
+    }
+  }
+
+  @Test
+  final void testInsertsAfterCloseAreRejected() {
+    WriteBehindQueue queue = new WriteBehindQueue(sqlSessionFactory, 10, 1, null, null);
+    queue.close();
+
+    assertThrows(PersistenceException.class, () -> queue.submit(insert(new Person("First", "Last"))));
+    assertEquals(0, queue.getQueued());
+  }
+
+  private static Consumer<SqlSession> insert(Person person) {
+    return sqlSession -> sqlSession.insert(PersonMapper.class.getName() + ".insert", person);
+  }
+
+  private static void await(LongSupplier counter, long expected) throws InterruptedException {
+    for (int i = 0; i < 100 && counter.getAsLong() < expected; i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(expected, counter.getAsLong());
+  }
+
+  /**
+   * Commits and rolls back the write-behind batches, the default transaction factory leaves them in autocommit mode.
+   */
+  @Singleton
+  @Requires(env = "write-behind")
+  public static class CommittingTransactionFactory extends JdbcTransactionFactory {
+  }
+}
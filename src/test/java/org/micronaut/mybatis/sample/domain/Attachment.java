@@ -0,0 +1,49 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample.domain;
+
+import org.micronaut.mybatis.type.LobContent;
+
+public class Attachment {
+
+  private int id;
+  private LobContent data;
+  private LobContent text;
+
+  public int getId() {
+    return id;
+  }
+
+  public void setId(int id) {
+    this.id = id;
+  }
+
+  public LobContent getData() {
+    return data;
+  }
+
+  public void setData(LobContent data) {
+    this.data = data;
+  }
+
+  public LobContent getText() {
+    return text;
+  }
+
+  public void setText(LobContent text) {
+    this.text = text;
+  }
+}
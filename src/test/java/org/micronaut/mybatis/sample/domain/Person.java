@@ -19,6 +19,7 @@ public class Person {
 
   private String lastName;
   private String firstName;
+  private User operator;
 
   public Person() {
   }
@@ -44,6 +45,14 @@ public class Person {
     this.lastName = lastName;
   }
 
+  public User getOperator() {
+    return operator;
+  }
+
+  public void setOperator(User operator) {
+    this.operator = operator;
+  }
+
   @Override
   public String toString() {
     return "firstName: " + firstName + ", lastName: " + lastName;
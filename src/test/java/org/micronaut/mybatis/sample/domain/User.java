@@ -15,10 +15,15 @@
  */
 package org.micronaut.mybatis.sample.domain;
 
+import java.io.Serializable;
+import java.util.Objects;
+
 /**
  * A simple bean that holds User info.
  */
-public class User {
+public class User implements Serializable {
+
+  private static final long serialVersionUID = 1L;
 
   private String id;
 
@@ -49,6 +54,11 @@ public class User {
     return false;
   }
 
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, name);
+  }
+
   @Override
   public String toString() {
     StringBuilder buf = new StringBuilder(30);
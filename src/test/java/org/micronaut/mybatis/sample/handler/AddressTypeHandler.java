@@ -0,0 +1,28 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample.handler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.micronaut.mybatis.annotation.TypeHandler;
+import org.micronaut.mybatis.sample.domain.Address;
+import org.micronaut.mybatis.type.JsonTypeHandler;
+
+@TypeHandler
+public class AddressTypeHandler extends JsonTypeHandler<Address> {
+  public AddressTypeHandler(ObjectMapper objectMapper) {
+    super(objectMapper, Address.class);
+  }
+}
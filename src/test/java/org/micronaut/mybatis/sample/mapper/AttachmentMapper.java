@@ -0,0 +1,30 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample.mapper;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Select;
+import org.micronaut.mybatis.annotation.Mapper;
+import org.micronaut.mybatis.sample.domain.Attachment;
+
+@Mapper
+public interface AttachmentMapper {
+  @Insert("insert into attachments (id, data, text) values (#{id}, #{data}, #{text,jdbcType=CLOB})")
+  void insert(Attachment attachment);
+
+  @Select("select * from attachments where id = #{id}")
+  Attachment getAttachment(int id);
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample.mapper;
+
+import org.apache.ibatis.annotations.CacheNamespace;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.micronaut.mybatis.annotation.Composite;
+import org.micronaut.mybatis.annotation.Mapper;
+import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.domain.UserOverview;
+
+@Mapper
+@CacheNamespace
+public interface CachedUserMapper {
+  @Select("select name from users where id = #{value}")
+  String getName(String userId);
+
+  @Select("select * from users where id = #{value}")
+  User getUser(String userId);
+
+  @Composite({
+          @Composite.Part(property = "users", statement = "org.micronaut.mybatis.sample.mapper.UserMapper.getUsers"),
+          @Composite.Part(property = "user", statement = "getUser")
+  })
+  UserOverview getOverview(String userId);
+
+  @Update("update users set name = #{name} where id = #{id}")
+  void rename(@Param("id") String userId, @Param("name") String name);
+}
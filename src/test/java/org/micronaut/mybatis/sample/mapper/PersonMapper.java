@@ -16,12 +16,78 @@
 package org.micronaut.mybatis.sample.mapper;
 
 import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.One;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Result;
+import org.apache.ibatis.annotations.ResultType;
+import org.apache.ibatis.annotations.Results;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.session.ResultHandler;
+import org.micronaut.mybatis.annotation.Intern;
 import org.micronaut.mybatis.annotation.Mapper;
+import org.micronaut.mybatis.annotation.Partitioned;
+import org.micronaut.mybatis.annotation.ResultBudget;
+import org.micronaut.mybatis.annotation.WriteBehind;
+import org.micronaut.mybatis.frame.ResultFrame;
 import org.micronaut.mybatis.sample.domain.Person;
+import org.micronaut.mybatis.sample.domain.User;
+
+import java.util.List;
+import java.util.stream.Stream;
 
 @Mapper
 public interface PersonMapper {
     @Insert("insert into persons (first_name, last_name, operation_by, operation_at) " +
             " values(#{item.firstName}, #{item.lastName}, #{operationBy}, #{operationAt})")
     Person createPerson(Person person);
+
+    @Insert("insert into persons (first_name, last_name) values(#{firstName}, #{lastName})")
+    void insert(Person person);
+
+    @Insert("insert into persons (first_name, last_name) values(#{firstName}, #{lastName})")
+    @WriteBehind
+    void insertLater(Person person);
+
+    @Select("select person_id, first_name as firstName, last_name as lastName from persons")
+    @Partitioned(column = "person_id", parts = 4)
+    List<Person> getPersons();
+
+    @Select("select person_id, first_name as firstName, last_name as lastName from persons")
+    @Partitioned(column = "person_id", parts = 3, ordered = true)
+    List<Person> getPersonsOrdered();
+
+    @Select("select person_id, first_name as firstName, last_name as lastName from persons where last_name = #{lastName}")
+    @Partitioned(column = "person_id", parts = 4, ordered = true)
+    Stream<Person> streamPersons(@Param("lastName") String lastName);
+
+    @Select("select person_id, first_name as firstName, last_name as lastName, operation_by from persons order by person_id")
+    @Results(@Result(property = "operator", column = "operation_by",
+            one = @One(select = "org.micronaut.mybatis.sample.mapper.UserMapper.getUser")))
+    List<Person> getPersonsWithOperator();
+
+    // H2 hands out its cached instance for equal varchar values, but reads text of a clob into a new string every time
+    @Select("select first_name as firstName, cast(last_name as clob) as lastName from persons order by person_id")
+    @Results(@Result(property = "lastName", column = "lastName"))
+    @Intern("lastName")
+    List<Person> getPersonNames();
+
+    @Select("select last_name as id, first_name as name from persons order by person_id")
+    @Intern(rows = true)
+    List<User> getPersonsAsUsers();
+
+    @Select("select last_name as id, first_name as name from persons order by person_id")
+    @ResultType(User.class)
+    @Intern(rows = true)
+    void handlePersonsAsUsers(ResultHandler<User> handler);
+
+    @Select("select last_name as id, first_name as name from persons order by person_id")
+    @Intern(rows = true)
+    @ResultBudget(maxRows = 10)
+    List<User> getPersonsAsUsersWithinBudget();
+
+    @Select("select person_id, first_name, last_name, operation_at from persons where person_id > #{minId} order by person_id")
+    ResultFrame getPersonFrame(@Param("minId") int minId);
+
+    @Select("select 9223372036854775807 - person_id as large_value from persons")
+    ResultFrame getLargeValueFrame();
 }
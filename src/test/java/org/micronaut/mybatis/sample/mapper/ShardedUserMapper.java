@@ -0,0 +1,67 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.micronaut.mybatis.sample.mapper;
+
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.micronaut.mybatis.annotation.FanOut;
+import org.micronaut.mybatis.annotation.Mapper;
+import org.micronaut.mybatis.annotation.ShardKey;
+import org.micronaut.mybatis.annotation.Sharded;
+import org.micronaut.mybatis.sample.domain.User;
+
+import java.util.Comparator;
+import java.util.List;
+
+@Sharded
+@Mapper
+public interface ShardedUserMapper {
+  @Select("select * from users order by id")
+  @FanOut(orderBy = ById.class)
+  List<User> getUsers();
+
+  @Select("select * from users order by id")
+  @FanOut(orderBy = ById.class, limit = 3)
+  List<User> getFirstUsers();
+
+  @Select("select x from system_range(1, 10000000000)")
+  @FanOut(limit = 2)
+  List<Long> getFirstNumbers();
+
+  @Select("select count(*) from users")
+  int countUsers();
+
+  @Select("select sum(x) from system_range(1, #{value})")
+  @FanOut(timeout = 300)
+  Long sumRange(long rows);
+
+  @Insert("insert into users VALUES ('u99', 'Nobody')")
+  void insertEverywhere();
+
+  @Select("select * from users where id=#{id}")
+  User getUser(@ShardKey @Param("id") String userId);
+
+  @Insert("insert into users VALUES (#{id},  #{name})")
+  void insert(@ShardKey("id") User user);
+
+  class ById implements Comparator<User> {
+    @Override
+    public int compare(User a, User b) {
+      return a.getId().compareTo(b.getId());
+    }
+  }
+}
@@ -16,9 +16,20 @@
 package org.micronaut.mybatis.sample.mapper;
 
 import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.micronaut.mybatis.annotation.BatchFetch;
+import org.micronaut.mybatis.annotation.Composite;
+import org.micronaut.mybatis.annotation.Keyset;
 import org.micronaut.mybatis.annotation.Mapper;
+import org.micronaut.mybatis.annotation.ResultBudget;
+import org.micronaut.mybatis.annotation.Timeout;
+import org.micronaut.mybatis.page.Page;
+import org.micronaut.mybatis.page.Pageable;
+import org.micronaut.mybatis.page.Slice;
 import org.micronaut.mybatis.sample.domain.User;
+import org.micronaut.mybatis.sample.domain.UserOverview;
+import org.micronaut.mybatis.spill.ResultOverflow;
 
 import java.util.List;
 
@@ -27,9 +38,46 @@ public interface UserMapper {
   @Select("select * from users order by id")
   List<User> getUsers();
 
+  @Select("select * from users order by id")
+  @ResultBudget(maxRows = 2)
+  List<User> getUsersWithinBudget();
+
+  @Select("select * from users order by id")
+  @ResultBudget(maxRows = 2, overflow = ResultOverflow.FAIL)
+  List<User> getUsersOrFail();
+
+  @Select("select * from users")
+  @Keyset({"name", "id"})
+  Slice<User> getUserSlice(Pageable pageable);
+
+  @Select("select * from users where id <> #{excluded}")
+  @Keyset("id desc")
+  Page<User> getUserPage(@Param("excluded") String excluded, @Param("pageable") Pageable pageable);
+
   @Select("select * from users where id=#{value}")
+  @BatchFetch(statement = "getUsersByIds", key = "id")
   User getUser(String userId);
 
+  @Select("select * from users where id = #{id} and name = #{name}")
+  User getUserByIdAndName(@Param("id") String id, @Param("name") String name);
+
+  @Select("<script>select * from users where id in "
+          + "<foreach item='id' collection='list' open='(' separator=',' close=')'>#{id}</foreach></script>")
+  List<User> getUsersByIds(List<String> userIds);
+
+  @Composite({
+          @Composite.Part(property = "users", statement = "getUsers"),
+          @Composite.Part(property = "user", statement = "getUser")
+  })
+  UserOverview getOverview(String userId);
+
+  @Select("select sum(x) from system_range(1, #{value})")
+  Long sumRange(long rows);
+
+  @Select("select sum(x) from system_range(1, #{value})")
+  @Timeout(200)
+  Long sumRangeWithTimeout(long rows);
+
   @Insert("insert into users VALUES (#{id},  #{name})")
   void insert(User user);
 
@@ -29,3 +29,17 @@ create table persons  (
     operation_by varchar(64),
     operation_at timestamp
 );
+
+drop table documents if exists;
+create table documents (
+    id integer not null primary key,
+    body clob,
+    address varchar(1000)
+);
+
+drop table attachments if exists;
+create table attachments (
+    id integer not null primary key,
+    data blob,
+    text clob
+);